@@ -0,0 +1,80 @@
+package com.example.snapbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Encodes an image that arrives top to bottom in horizontal bands, writing
+// compressed bytes as it goes so the full image never has to exist in memory.
+public abstract class BandedImageEncoder {
+
+    public enum Format {
+        JPEG("image/jpeg", ".jpg"),
+        PNG("image/png", ".png");
+
+        private final String mimeType;
+        private final String extension;
+
+        Format(String mimeType, String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    protected final OutputStream out;
+    protected int width;
+    protected int height;
+    protected int rowsWritten;
+
+    protected BandedImageEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    public static BandedImageEncoder create(Format format, OutputStream out, int quality) {
+        switch (format) {
+            case PNG: return new PngBandEncoder(out);
+            case JPEG:
+            default: return new JpegBandEncoder(out, quality);
+        }
+    }
+
+    public void begin(int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.rowsWritten = 0;
+        writeHeader();
+    }
+
+    // argb holds rowCount rows of width pixels each, packed like Bitmap.getPixels
+    public void writeRows(int[] argb, int rowCount) throws IOException {
+        if (rowsWritten + rowCount > height) {
+            throw new IllegalStateException("Too many rows: " + (rowsWritten + rowCount) + " > " + height);
+        }
+        encodeRows(argb, rowCount);
+        rowsWritten += rowCount;
+    }
+
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Expected " + height + " rows, got " + rowsWritten);
+        }
+        writeTrailer();
+        out.flush();
+    }
+
+    protected abstract void writeHeader() throws IOException;
+
+    protected abstract void encodeRows(int[] argb, int rowCount) throws IOException;
+
+    protected abstract void writeTrailer() throws IOException;
+}
\ No newline at end of file
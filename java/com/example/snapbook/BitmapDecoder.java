@@ -0,0 +1,164 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.util.Log;
+import java.io.IOException;
+
+// Decodes image files straight to the size they are displayed at. Bounds are read
+// first, the largest power-of-two sample size that stays above the target is
+// applied, and the decoder's density scaling takes it the rest of the way, so the
+// only allocation is the final bitmap, and that comes from BitmapPool when possible.
+public final class BitmapDecoder {
+
+    private static final String TAG = "BitmapDecoder";
+
+    private BitmapDecoder() {
+    }
+
+    // Scale down to fit inside reqWidth x reqHeight, keeping the aspect ratio
+    public static Bitmap decodeToFit(String path, int reqWidth, int reqHeight) {
+        return decode(path, reqWidth, reqHeight, false);
+    }
+
+    // Scale down until the image just covers reqWidth x reqHeight, for centerCrop views
+    public static Bitmap decodeToFill(String path, int reqWidth, int reqHeight) {
+        return decode(path, reqWidth, reqHeight, true);
+    }
+
+    // The thumbnail camera JPEGs embed in their EXIF block, upright, if its long
+    // edge is at least minLongEdge. Reading it costs a few KB of I/O instead of a
+    // full-image decode. Returns null when there is none or it is too small.
+    public static Bitmap decodeExifThumbnail(String path, int minLongEdge) {
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            if (!exif.hasThumbnail()) return null;
+
+            byte[] data = exif.getThumbnail();
+            if (data == null) return null;
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (Math.max(options.outWidth, options.outHeight) < minLongEdge) return null;
+
+            Bitmap thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (thumbnail == null) return null;
+            return applyOrientation(thumbnail, readOrientation(exif));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read EXIF from " + path, e);
+            return null;
+        }
+    }
+
+    public static int readOrientation(String path) {
+        try {
+            return readOrientation(new ExifInterface(path));
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static int readOrientation(ExifInterface exif) {
+        return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+    }
+
+    // Rotates/mirrors a decoded bitmap upright; returns the input when already upright
+    public static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = orientationMatrix(orientation);
+        if (matrix == null) return bitmap;
+
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (oriented != bitmap) {
+            BitmapPool.getInstance().put(bitmap);
+        }
+        return oriented;
+    }
+
+    // The rotation/mirror that turns stored pixels upright, about the origin
+    // (callers translate the result back into positive space), or null if none
+    public static Matrix orientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(270);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(270);
+                matrix.postScale(-1, 1);
+                break;
+            default:
+                return null;
+        }
+        return matrix;
+    }
+
+    public static int calculateSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decode(String path, int reqWidth, int reqHeight, boolean fill) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) return null;
+
+        // Never upscale; a small source is decoded as is
+        float scale = fill
+                ? Math.max((float) reqWidth / width, (float) reqHeight / height)
+                : Math.min((float) reqWidth / width, (float) reqHeight / height);
+        scale = Math.min(1f, scale);
+        int targetWidth = Math.max(1, Math.round(width * scale));
+        int targetHeight = Math.max(1, Math.round(height * scale));
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateSampleSize(width, height, targetWidth, targetHeight);
+        options.inMutable = true;
+
+        int sampledWidth = (width + options.inSampleSize - 1) / options.inSampleSize;
+        if (sampledWidth > targetWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        }
+
+        BitmapPool pool = BitmapPool.getInstance();
+        Bitmap reusable = pool.get(targetWidth * targetHeight * 4);
+        options.inBitmap = reusable;
+        try {
+            Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+            if (bitmap == null) pool.put(reusable);
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not take this image after all; decode into a fresh one
+            Log.w(TAG, "inBitmap rejected for " + path, e);
+            options.inBitmap = null;
+            pool.put(reusable);
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+}
\ No newline at end of file
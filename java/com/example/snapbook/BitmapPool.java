@@ -0,0 +1,89 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Mutable bitmaps that are no longer shown, bucketed by allocation size, handed
+// back to BitmapDecoder as inBitmap so decoding while scrolling or editing reuses
+// memory instead of allocating. Only put a bitmap here once nothing draws it.
+public class BitmapPool {
+
+    private static final int MEMORY_FRACTION = 16;
+    // A reused allocation may be at most this many times larger than needed
+    private static final int MAX_OVERSIZE = 2;
+
+    private static BitmapPool instance;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private final long maxBytes;
+    private long pooledBytes = 0;
+
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        }
+        return instance;
+    }
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Smallest pooled bitmap whose allocation fits the request, or null
+    public synchronized Bitmap get(int byteCount) {
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(byteCount);
+        if (entry == null || entry.getKey() > (long) byteCount * MAX_OVERSIZE) {
+            MetricsRegistry.getInstance().increment("bitmap_pool.misses");
+            return null;
+        }
+
+        ArrayDeque<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.pop();
+        if (bucket.isEmpty()) {
+            buckets.remove(entry.getKey());
+        }
+        pooledBytes -= entry.getKey();
+        MetricsRegistry.getInstance().increment("bitmap_pool.hits");
+        return bitmap;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) return;
+
+        int size = bitmap.getAllocationByteCount();
+        // Make room by dropping the largest pooled bitmaps, which are the least likely to fit anything
+        while (pooledBytes + size > maxBytes && !buckets.isEmpty()) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> largest = buckets.lastEntry();
+            if (largest.getKey() < size) break;
+            largest.getValue().pop().recycle();
+            if (largest.getValue().isEmpty()) {
+                buckets.remove(largest.getKey());
+            }
+            pooledBytes -= largest.getKey();
+        }
+        if (pooledBytes + size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(size, bucket);
+        }
+        bucket.push(bitmap);
+        pooledBytes += size;
+    }
+
+    public synchronized void clear() {
+        for (ArrayDeque<Bitmap> bucket : buckets.values()) {
+            for (Bitmap bitmap : bucket) {
+                bitmap.recycle();
+            }
+        }
+        buckets.clear();
+        pooledBytes = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.example.snapbook;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Burkhard-Keller tree over 64-bit hashes under Hamming distance. Each child edge
+// is labelled with its distance from the parent, so by the triangle inequality a
+// search within r of a query only descends edges in [d - r, d + r], which for a
+// small r skips most of the tree instead of comparing against every hash.
+public class BkTree<T> {
+
+    private static class Node<T> {
+        final long hash;
+        final List<T> values = new ArrayList<>(1);
+        Node<T>[] children; // Indexed by distance 1..64, allocated on the first child
+
+        Node(long hash) {
+            this.hash = hash;
+        }
+    }
+
+    private Node<T> root;
+    private int size = 0;
+
+    @SuppressWarnings("unchecked")
+    public void add(long hash, T value) {
+        size++;
+        if (root == null) {
+            root = new Node<>(hash);
+            root.values.add(value);
+            return;
+        }
+
+        Node<T> node = root;
+        while (true) {
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance == 0) {
+                node.values.add(value);
+                return;
+            }
+            if (node.children == null) {
+                node.children = new Node[Long.SIZE + 1];
+            }
+            Node<T> child = node.children[distance];
+            if (child == null) {
+                child = new Node<>(hash);
+                child.values.add(value);
+                node.children[distance] = child;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    // Every value whose hash is within maxDistance bits of the query, itself included
+    public List<T> search(long hash, int maxDistance) {
+        List<T> results = new ArrayList<>();
+        if (root == null) return results;
+
+        ArrayDeque<Node<T>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<T> node = stack.pop();
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance <= maxDistance) {
+                results.addAll(node.values);
+            }
+            if (node.children == null) continue;
+
+            int low = Math.max(1, distance - maxDistance);
+            int high = Math.min(Long.SIZE, distance + maxDistance);
+            for (int d = low; d <= high; d++) {
+                if (node.children[d] != null) {
+                    stack.push(node.children[d]);
+                }
+            }
+        }
+        return results;
+    }
+
+    public int size() {
+        return size;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,191 @@
+package com.example.snapbook;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs delete, move and export over many gallery items on a background executor.
+// Pass the executor that owns the other index writes so they stay ordered.
+// Items are processed in batches: the filesystem calls for a batch run back to
+// back, then the index is updated for the whole batch in a single transaction and
+// the thumbnails of removed files are dropped, so the index never disagrees with
+// the directory by more than one batch. Cancelling takes effect between batches.
+// Callbacks run on the main thread.
+public class BulkPhotoOperations {
+
+    private static final String TAG = "BulkPhotoOperations";
+    private static final int BATCH_SIZE = 25;
+
+    private final GalleryIndex index;
+    private final ThumbnailCache thumbnailCache;
+    private final File galleryDir;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface Callback {
+        void onProgress(int completed, int total);
+        void onComplete(Result result);
+    }
+
+    // Where an exported item is written
+    public interface ExportTargets {
+        PhotoCopier.Target targetFor(GalleryActivity.GalleryItem item);
+    }
+
+    public static class Result {
+        public final int succeeded;
+        public final int failed;
+        public final int total;
+        public final boolean cancelled;
+
+        Result(int succeeded, int failed, int total, boolean cancelled) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.total = total;
+            this.cancelled = cancelled;
+        }
+    }
+
+    public static class Job {
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        // Stops before the next batch; the batch in progress completes and is indexed
+        public void cancel() {
+            cancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+    }
+
+    // What one batch did, applied to the index and cache together
+    private static class BatchChanges {
+        final List<GalleryActivity.GalleryItem> removed = new ArrayList<>();
+        final List<File> added = new ArrayList<>();
+        int succeeded;
+    }
+
+    private interface ItemAction {
+        void apply(GalleryActivity.GalleryItem item, BatchChanges changes) throws IOException;
+    }
+
+    public BulkPhotoOperations(GalleryIndex index, ThumbnailCache thumbnailCache, File galleryDir,
+                               ExecutorService executor) {
+        this.index = index;
+        this.executor = executor;
+        this.thumbnailCache = thumbnailCache;
+        this.galleryDir = galleryDir;
+    }
+
+    public Job delete(List<GalleryActivity.GalleryItem> items, Callback callback) {
+        return run("delete", items, BulkPhotoOperations::deleteItem, callback);
+    }
+
+    // Everything the index knows about, read on the worker rather than from the (paged) UI
+    public Job deleteAll(Callback callback) {
+        Job job = new Job();
+        executor.execute(() -> {
+            List<GalleryActivity.GalleryItem> items = index.loadAll();
+            runBatches(job, "delete", items, BulkPhotoOperations::deleteItem, callback);
+        });
+        return job;
+    }
+
+    private static void deleteItem(GalleryActivity.GalleryItem item, BatchChanges changes) throws IOException {
+        File file = new File(item.downloadUrl);
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Cannot delete " + file);
+        }
+        changes.removed.add(item);
+    }
+
+    // Rename when possible; across filesystems, copy then delete
+    public Job move(List<GalleryActivity.GalleryItem> items, File destinationDir, Callback callback) {
+        return run("move", items, (item, changes) -> {
+            File source = new File(item.downloadUrl);
+            File destination = new File(destinationDir, source.getName());
+            if (!destinationDir.exists() && !destinationDir.mkdirs()) {
+                throw new IOException("Cannot create " + destinationDir);
+            }
+            if (!source.renameTo(destination)) {
+                try (FileOutputStream out = new FileOutputStream(destination)) {
+                    PhotoCopier.transfer(source, out.getChannel());
+                }
+                if (!source.delete()) {
+                    destination.delete();
+                    throw new IOException("Cannot remove " + source + " after copying");
+                }
+            }
+            changes.removed.add(item);
+            if (destinationDir.equals(galleryDir)) {
+                changes.added.add(destination);
+            }
+        }, callback);
+    }
+
+    // Byte-level copies; the gallery itself is unchanged
+    public Job export(List<GalleryActivity.GalleryItem> items, ExportTargets targets, Callback callback) {
+        return run("export", items, (item, changes) ->
+                targets.targetFor(item).write(new File(item.downloadUrl), null), callback);
+    }
+
+    private Job run(String operation, List<GalleryActivity.GalleryItem> items, ItemAction action, Callback callback) {
+        Job job = new Job();
+        List<GalleryActivity.GalleryItem> snapshot = new ArrayList<>(items);
+        executor.execute(() -> runBatches(job, operation, snapshot, action, callback));
+        return job;
+    }
+
+    private void runBatches(Job job, String operation, List<GalleryActivity.GalleryItem> items,
+                            ItemAction action, Callback callback) {
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("bulk." + operation);
+        int total = items.size();
+        int succeeded = 0;
+        int processed = 0;
+        try {
+            for (int start = 0; start < total && !job.isCancelled(); start += BATCH_SIZE) {
+                List<GalleryActivity.GalleryItem> batch = items.subList(start, Math.min(total, start + BATCH_SIZE));
+                BatchChanges changes = new BatchChanges();
+                for (GalleryActivity.GalleryItem item : batch) {
+                    try {
+                        action.apply(item, changes);
+                        changes.succeeded++;
+                    } catch (Exception e) {
+                        Log.e(TAG, "Bulk " + operation + " failed for " + item.downloadUrl, e);
+                    }
+                }
+                commit(changes);
+
+                succeeded += changes.succeeded;
+                processed += batch.size();
+                int done = processed;
+                mainHandler.post(() -> callback.onProgress(done, total));
+            }
+        } finally {
+            span.end();
+        }
+
+        MetricsRegistry.getInstance().increment("bulk." + operation + "_items", succeeded);
+        Result result = new Result(succeeded, processed - succeeded, total, job.isCancelled() && processed < total);
+        mainHandler.post(() -> callback.onComplete(result));
+    }
+
+    private void commit(BatchChanges changes) {
+        if (changes.removed.isEmpty() && changes.added.isEmpty()) return;
+
+        List<String> removedPaths = new ArrayList<>(changes.removed.size());
+        for (GalleryActivity.GalleryItem item : changes.removed) {
+            removedPaths.add(item.downloadUrl);
+            thumbnailCache.remove(ThumbnailCache.keyFor(item.downloadUrl, item.timestamp, item.sizeBytes));
+        }
+        index.update(removedPaths, changes.added);
+    }
+}
\ No newline at end of file
@@ -163,19 +163,29 @@ public class CameraManager {
 
         ImageCapture.OutputFileOptions outputFileOptions = new ImageCapture.OutputFileOptions.Builder(photoFile).build();
 
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        MetricsRegistry.Span shutterSpan = metrics.startAsyncSpan("capture.shutter_to_saved");
+
         imageCapture.takePicture(
                 outputFileOptions,
                 ContextCompat.getMainExecutor(activity),
                 new ImageCapture.OnImageSavedCallback() {
                     @Override
                     public void onImageSaved(ImageCapture.OutputFileResults output) {
+                        shutterSpan.end();
                         Log.d(TAG, "Photo saved successfully: " + photoFile.getAbsolutePath());
 
                         try {
                             // Load the saved image as bitmap
                             android.graphics.BitmapFactory.Options options = new android.graphics.BitmapFactory.Options();
                             options.inSampleSize = 2; // Reduce size for memory efficiency
-                            Bitmap bitmap = android.graphics.BitmapFactory.decodeFile(photoFile.getAbsolutePath(), options);
+                            MetricsRegistry.Span decodeSpan = metrics.startSpan("capture.decode");
+                            Bitmap bitmap;
+                            try {
+                                bitmap = android.graphics.BitmapFactory.decodeFile(photoFile.getAbsolutePath(), options);
+                            } finally {
+                                decodeSpan.end();
+                            }
 
                             if (bitmap == null) {
                                 Log.e(TAG, "Failed to decode saved image");
@@ -189,7 +199,9 @@ public class CameraManager {
 
                             // Flip if front camera
                             if (isFrontCamera) {
+                                MetricsRegistry.Span flipSpan = metrics.startSpan("capture.flip");
                                 bitmap = flipBitmap(bitmap);
+                                flipSpan.end();
                             }
 
                             // Clean up temp file
@@ -209,6 +221,7 @@ public class CameraManager {
 
                     @Override
                     public void onError(ImageCaptureException exception) {
+                        shutterSpan.end();
                         Log.e(TAG, "Capture failed: " + exception.getMessage(), exception);
                         if (captureCallback != null) {
                             captureCallback.onCaptureError("Capture error: " +
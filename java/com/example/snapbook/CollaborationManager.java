@@ -1,27 +1,344 @@
 package com.example.snapbook;
 
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-// Stub version of CollaborationManager without Firebase dependencies
+// Collaborative photobooth sessions on top of CollaborationSyncEngine. The host runs a
+// LoopbackSyncServer as the hub on its local network address and hands out a join code
+// ("CODE-KEY@address"): the random key is what the hub checks before letting a peer
+// in, and the address tells other devices where to connect. A bare code joins the hub
+// this device hosts. Other transports can be plugged in through joinSession(code, transport).
 public class CollaborationManager {
-    
+
+    private static final String TAG = "CollaborationManager";
+    public static final String LOCAL_HOST = "127.0.0.1";
+    private static final int THUMB_WIDTH = 240;
+    private static final int SESSION_KEY_LENGTH = 8;
+    private static final String KEY_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final String peerId = UUID.randomUUID().toString().substring(0, 8);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Map<String, SharedPhoto> sharedPhotos = new LinkedHashMap<>();
+
+    private LoopbackSyncServer server;
+    private String hostedSession; // Session the local hub serves, null when not hosting
+    private String hostedAddress;
+    private String hostedKey;
+    private volatile CollaborationSyncEngine engine;
+    private SessionListener sessionListener;
+
+    public static class SharedPhoto {
+        public final String photoId;
+        public final String fromPeer;
+        public byte[] thumbnail;
+        public byte[] fullImage; // null until the full-resolution transfer completes
+
+        SharedPhoto(String photoId, String fromPeer) {
+            this.photoId = photoId;
+            this.fromPeer = fromPeer;
+        }
+    }
+
+    // Callbacks run on the main thread
+    public interface SessionListener {
+        void onSessionHosted(String joinCode);
+        void onConnectFailed(String error);
+        void onPeerJoined(String peerId);
+        void onPeerLeft(String peerId);
+        void onPhotoReceived(SharedPhoto photo, boolean fullResolution);
+    }
+
+    public interface SharedPhotosCallback {
+        void onPhotosLoaded(List<SharedPhoto> photos);
+        void onError(String error);
+    }
+
     public CollaborationManager() {
-        // Stub constructor
     }
-    
+
+    public void setSessionListener(SessionListener listener) {
+        this.sessionListener = listener;
+    }
+
+    public String getPeerId() {
+        return peerId;
+    }
+
+    public void hostSession(String sessionCode) {
+        worker.execute(() -> {
+            leaveSessionInternal();
+            InetAddress bindAddress = findLanAddress();
+            String address = bindAddress.getHostAddress();
+            try {
+                String sessionKey = newSessionKey();
+                server = new LoopbackSyncServer();
+                server.openRoom(sessionCode, sessionKey);
+                int port = server.start(bindAddress, LoopbackSyncServer.DEFAULT_PORT);
+                hostedSession = sessionCode;
+                hostedAddress = address;
+                hostedKey = sessionKey;
+                startEngine(sessionCode, new TcpSyncTransport(address, port, sessionKey));
+
+                String joinCode = sessionCode + "-" + sessionKey + "@" + address;
+                mainHandler.post(() -> {
+                    if (sessionListener != null) sessionListener.onSessionHosted(joinCode);
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "Error starting session hub", e);
+                server = null;
+                notifyConnectFailed("Could not start the session: " + e.getMessage());
+            }
+        });
+    }
+
+    // Takes a join code as handed out by hostSession()
+    public void joinSession(String joinCode) {
+        int at = joinCode.indexOf('@');
+        String session = at >= 0 ? joinCode.substring(0, at) : joinCode;
+        int dash = session.indexOf('-');
+        String sessionCode = dash >= 0 ? session.substring(0, dash) : session;
+        worker.execute(() -> {
+            boolean ownHub = sessionCode.equals(hostedSession);
+            String host = at >= 0 ? joinCode.substring(at + 1) : ownHub ? hostedAddress : LOCAL_HOST;
+            String key = dash >= 0 ? session.substring(dash + 1) : ownHub ? hostedKey : "";
+            joinInternal(sessionCode, new TcpSyncTransport(host, LoopbackSyncServer.DEFAULT_PORT, key));
+        });
+    }
+
+    public void joinSession(String sessionCode, String sessionKey, String host) {
+        joinSession(sessionCode, new TcpSyncTransport(host, LoopbackSyncServer.DEFAULT_PORT, sessionKey));
+    }
+
+    public void joinSession(String sessionCode, SyncTransport transport) {
+        worker.execute(() -> joinInternal(sessionCode, transport));
+    }
+
+    public static String sessionCodeOf(String joinCode) {
+        int end = joinCode.length();
+        int at = joinCode.indexOf('@');
+        if (at >= 0) end = at;
+        int dash = joinCode.indexOf('-');
+        if (dash >= 0 && dash < end) end = dash;
+        return joinCode.substring(0, end);
+    }
+
+    private static String newSessionKey() {
+        java.security.SecureRandom random = new java.security.SecureRandom();
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < SESSION_KEY_LENGTH; i++) {
+            key.append(KEY_CHARS.charAt(random.nextInt(KEY_CHARS.length())));
+        }
+        return key.toString();
+    }
+
+    public void leaveSession() {
+        worker.execute(this::leaveSessionInternal);
+    }
+
+    public void shutdown() {
+        leaveSession();
+        worker.shutdown();
+    }
+
+    public void sharePhoto(String photoId, Bitmap photo) {
+        worker.execute(() -> {
+            if (engine == null) return;
+
+            ByteArrayOutputStream full = new ByteArrayOutputStream();
+            photo.compress(Bitmap.CompressFormat.JPEG, 90, full);
+            engine.sharePhoto(photoId, createThumbnail(photo), full.toByteArray());
+        });
+    }
+
     public void sharePhoto(String photoId, String photoUrl, List<String> userIds) {
-        // Stub implementation - do nothing
+        worker.execute(() -> {
+            if (engine == null) return;
+
+            try {
+                byte[] full = Files.readAllBytes(new File(photoUrl).toPath());
+                Bitmap bitmap = BitmapFactory.decodeByteArray(full, 0, full.length);
+                if (bitmap == null) return;
+
+                byte[] thumbnail = createThumbnail(bitmap);
+                bitmap.recycle();
+                engine.sharePhoto(photoId, thumbnail, full);
+                if (userIds != null && !userIds.isEmpty()) {
+                    engine.putMetadata("photo." + photoId + ".shared_with", android.text.TextUtils.join(",", userIds));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error sharing photo " + photoId, e);
+            }
+        });
+    }
+
+    // Small metadata edits (captions, likes, ...) are batched by the engine
+    public void putMetadata(String key, String value) {
+        worker.execute(() -> {
+            if (engine != null) engine.putMetadata(key, value);
+        });
     }
-    
+
     public void getSharedPhotos(SharedPhotosCallback callback) {
-        // Stub implementation - return empty list
-        if (callback != null) {
-            callback.onPhotosLoaded(new java.util.ArrayList<>());
+        if (callback == null) return;
+
+        List<SharedPhoto> photos;
+        synchronized (sharedPhotos) {
+            photos = new ArrayList<>(sharedPhotos.values());
         }
+        callback.onPhotosLoaded(photos);
     }
-    
-    public interface SharedPhotosCallback {
-        void onPhotosLoaded(List<Object> photos);
-        void onError(String error);
+
+    // Per-peer throughput and ack latency for the running session
+    public List<CollaborationSyncEngine.PeerStats> getPeerStats() {
+        CollaborationSyncEngine current = engine;
+        return current != null ? current.getPeerStats() : new ArrayList<>();
+    }
+
+    private void startEngine(String sessionCode, SyncTransport transport) {
+        engine = new CollaborationSyncEngine(transport, sessionCode, peerId, new CollaborationSyncEngine.Listener() {
+            @Override
+            public void onPeerJoined(String peerId) {
+                mainHandler.post(() -> {
+                    if (sessionListener != null) sessionListener.onPeerJoined(peerId);
+                });
+            }
+
+            @Override
+            public void onPeerLeft(String peerId) {
+                mainHandler.post(() -> {
+                    if (sessionListener != null) sessionListener.onPeerLeft(peerId);
+                });
+            }
+
+            @Override
+            public void onThumbnailReceived(String peerId, String photoId, byte[] jpeg) {
+                onPhotoData(peerId, photoId, jpeg, false);
+            }
+
+            @Override
+            public void onPhotoReceived(String peerId, String photoId, byte[] jpeg) {
+                onPhotoData(peerId, photoId, jpeg, true);
+            }
+
+            @Override
+            public void onMetadataReceived(String peerId, String key, String value) {
+                Log.d(TAG, "Metadata from " + peerId + ": " + key + "=" + value);
+            }
+
+            @Override
+            public void onConnectFailed(IOException cause) {
+                notifyConnectFailed("Could not reach session " + sessionCode + ": " + cause.getMessage());
+            }
+        });
+        engine.start();
+    }
+
+    private void onPhotoData(String fromPeer, String photoId, byte[] jpeg, boolean fullResolution) {
+        SharedPhoto photo;
+        synchronized (sharedPhotos) {
+            photo = sharedPhotos.get(photoId);
+            if (photo == null) {
+                photo = new SharedPhoto(photoId, fromPeer);
+                sharedPhotos.put(photoId, photo);
+            }
+            if (fullResolution) {
+                photo.fullImage = jpeg;
+            } else {
+                photo.thumbnail = jpeg;
+            }
+        }
+
+        SharedPhoto received = photo;
+        mainHandler.post(() -> {
+            if (sessionListener != null) sessionListener.onPhotoReceived(received, fullResolution);
+        });
+    }
+
+    private void notifyConnectFailed(String error) {
+        mainHandler.post(() -> {
+            if (sessionListener != null) sessionListener.onConnectFailed(error);
+        });
+    }
+
+    private void joinInternal(String sessionCode, SyncTransport transport) {
+        // Joining the session this device hosts keeps the hub up for the other peers
+        if (sessionCode.equals(hostedSession)) {
+            stopEngine();
+        } else {
+            leaveSessionInternal();
+        }
+        startEngine(sessionCode, transport);
+    }
+
+    private void stopEngine() {
+        if (engine != null) {
+            engine.stop();
+            engine = null;
+        }
+    }
+
+    private void leaveSessionInternal() {
+        stopEngine();
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+        hostedSession = null;
+        hostedAddress = null;
+        hostedKey = null;
+        synchronized (sharedPhotos) {
+            sharedPhotos.clear();
+        }
+    }
+
+    // First private IPv4 address of an interface that is up (Wi-Fi, Ethernet, hotspot);
+    // loopback when there is none, which still serves sessions on this device
+    private static InetAddress findLanAddress() {
+        try {
+            java.util.Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            if (interfaces == null) return InetAddress.getLoopbackAddress();
+            for (NetworkInterface networkInterface : Collections.list(interfaces)) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) continue;
+                for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                        return address;
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            Log.w(TAG, "Cannot list network interfaces", e);
+        }
+        return InetAddress.getLoopbackAddress();
+    }
+
+    private static byte[] createThumbnail(Bitmap photo) {
+        int height = Math.max(1, Math.round((float) THUMB_WIDTH * photo.getHeight() / photo.getWidth()));
+        Bitmap thumbnail = Bitmap.createScaledBitmap(photo, THUMB_WIDTH, height, true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        thumbnail.compress(Bitmap.CompressFormat.JPEG, 80, bytes);
+        if (thumbnail != photo) {
+            thumbnail.recycle();
+        }
+        return bytes.toByteArray();
     }
 }
\ No newline at end of file
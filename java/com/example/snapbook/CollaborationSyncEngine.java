@@ -0,0 +1,624 @@
+package com.example.snapbook;
+
+import android.util.Log;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps a collaborative session in sync over a SyncTransport. Photos go out as
+// fixed-size chunks with thumbnails ahead of full images; receivers ack every chunk,
+// so after a reconnect a transfer resumes from the last acknowledged offset.
+// Metadata edits are batched into single frames. All state lives on one engine thread.
+// Connecting gives up after MAX_CONNECT_ATTEMPTS failures in a row and tells the
+// listener, rather than retrying in the background forever.
+public class CollaborationSyncEngine {
+
+    private static final String TAG = "CollaborationSyncEngine";
+
+    public static final byte THUMBNAIL = 0;
+    public static final byte FULL = 1;
+
+    static final int CHUNK_SIZE = 32 * 1024;
+    // Largest photo a peer may announce; the receive buffer is sized from the wire
+    static final int MAX_PHOTO_BYTES = 32 * 1024 * 1024;
+    // Partial transfers kept per sending peer; a sender only streams one at a time
+    private static final int MAX_INCOMING_PER_PEER = 4;
+    private static final int MAX_CONNECT_ATTEMPTS = 5;
+    private static final int WINDOW_CHUNKS = 8;
+    private static final int MAX_BATCH_OPS = 32;
+    private static final long BATCH_DELAY_MS = 50;
+    private static final long MIN_RECONNECT_MS = 500;
+    private static final long MAX_RECONNECT_MS = 10_000;
+
+    public interface Listener {
+        void onPeerJoined(String peerId);
+        void onPeerLeft(String peerId);
+        void onThumbnailReceived(String peerId, String photoId, byte[] jpeg);
+        void onPhotoReceived(String peerId, String photoId, byte[] jpeg);
+        void onMetadataReceived(String peerId, String key, String value);
+        // The hub could not be reached; the engine has stopped
+        void onConnectFailed(IOException cause);
+    }
+
+    public static class PeerStats {
+        public final String peerId;
+        public final boolean connected;
+        public final long bytesSent;
+        public final long bytesReceived;
+        public final double throughputKbps;
+        public final double latencyMs;
+
+        PeerStats(String peerId, boolean connected, long bytesSent, long bytesReceived,
+                  double throughputKbps, double latencyMs) {
+            this.peerId = peerId;
+            this.connected = connected;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+            this.throughputKbps = throughputKbps;
+            this.latencyMs = latencyMs;
+        }
+    }
+
+    private static class Transfer {
+        final String photoId;
+        final byte variant;
+        final byte[] data;
+        int sentOffset;
+
+        Transfer(String photoId, byte variant, byte[] data, int sentOffset) {
+            this.photoId = photoId;
+            this.variant = variant;
+            this.data = data;
+            this.sentOffset = sentOffset;
+        }
+    }
+
+    private static class Peer {
+        final String id;
+        boolean connected;
+        final Map<String, Integer> acked = new HashMap<>(); // survives reconnects
+        final ArrayDeque<Transfer> thumbnails = new ArrayDeque<>();
+        final ArrayDeque<Transfer> fullImages = new ArrayDeque<>();
+        final Map<String, Long> sendTimes = new HashMap<>();
+        final LinkedHashMap<String, Incoming> incoming = new LinkedHashMap<>(); // Oldest first
+        int unackedChunks;
+
+        long bytesSent;
+        long bytesReceived;
+        long burstStartNanos = -1;
+        long burstAckedBytes;
+        double throughputKbps;
+        double latencyMs;
+
+        Peer(String id) {
+            this.id = id;
+        }
+
+        Transfer next() {
+            return !thumbnails.isEmpty() ? thumbnails.peek() : fullImages.peek();
+        }
+
+        ArrayDeque<Transfer> queueFor(byte variant) {
+            return variant == THUMBNAIL ? thumbnails : fullImages;
+        }
+
+        void clearQueues() {
+            thumbnails.clear();
+            fullImages.clear();
+            sendTimes.clear();
+            unackedChunks = 0;
+            burstStartNanos = -1;
+            burstAckedBytes = 0;
+        }
+    }
+
+    // Grows as chunks arrive rather than trusting the announced total upfront
+    private static class Incoming {
+        final int total;
+        byte[] buffer = new byte[0];
+        int received;
+
+        Incoming(int total) {
+            this.total = total;
+        }
+
+        void append(DataInputStream in, int length) throws IOException {
+            if (received + length > buffer.length) {
+                int capacity = Math.min(total, Math.max(received + length, buffer.length * 2));
+                buffer = java.util.Arrays.copyOf(buffer, capacity);
+            }
+            in.readFully(buffer, received, length);
+            received += length;
+        }
+    }
+
+    private final SyncTransport transport;
+    private final String sessionCode;
+    private final String peerId;
+    private final Listener listener;
+    private final ScheduledExecutorService loop = Executors.newSingleThreadScheduledExecutor();
+
+    private final Map<String, byte[][]> sharedPhotos = new LinkedHashMap<>();
+    private final Map<String, String> metadata = new LinkedHashMap<>();
+    private final List<String[]> pendingOps = new ArrayList<>();
+    private final Map<String, Peer> peers = new LinkedHashMap<>();
+    private final Set<String> completed = new HashSet<>();
+    private final Map<String, PeerStats> stats = new ConcurrentHashMap<>();
+    private boolean flushScheduled = false;
+    private boolean running = false;
+    private long reconnectDelayMs = MIN_RECONNECT_MS;
+    private int failedConnects = 0;
+
+    public CollaborationSyncEngine(SyncTransport transport, String sessionCode, String peerId, Listener listener) {
+        this.transport = transport;
+        this.sessionCode = sessionCode;
+        this.peerId = peerId;
+        this.listener = listener;
+    }
+
+    public void start() {
+        post(() -> {
+            running = true;
+            connect();
+        });
+    }
+
+    public void stop() {
+        post(() -> {
+            running = false;
+            transport.close();
+        });
+        loop.shutdown();
+    }
+
+    public void sharePhoto(String photoId, byte[] thumbnail, byte[] fullImage) {
+        post(() -> {
+            sharedPhotos.put(photoId, new byte[][]{thumbnail, fullImage});
+            for (Peer peer : peers.values()) {
+                if (peer.connected) {
+                    enqueue(peer, photoId, THUMBNAIL, thumbnail);
+                    enqueue(peer, photoId, FULL, fullImage);
+                }
+            }
+            pump();
+        });
+    }
+
+    public void putMetadata(String key, String value) {
+        post(() -> {
+            metadata.put(key, value);
+            pendingOps.add(new String[]{key, value});
+            if (pendingOps.size() >= MAX_BATCH_OPS) {
+                flushMetadata();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                loop.schedule(this::flushMetadata, BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    public List<PeerStats> getPeerStats() {
+        return new ArrayList<>(stats.values());
+    }
+
+    private void post(Runnable runnable) {
+        try {
+            loop.execute(runnable);
+        } catch (RejectedExecutionException ignored) {
+            // Engine stopped
+        }
+    }
+
+    private void connect() {
+        if (!running) return;
+
+        try {
+            transport.connect(sessionCode, peerId, new SyncTransport.Listener() {
+                @Override
+                public void onFrame(SyncFrame frame) {
+                    post(() -> handleFrame(frame));
+                }
+
+                @Override
+                public void onDisconnected(IOException cause) {
+                    post(() -> handleDisconnect(cause));
+                }
+            });
+            reconnectDelayMs = MIN_RECONNECT_MS;
+            failedConnects = 0;
+            // Every peer gets a full metadata snapshot when the hub announces it
+            pendingOps.clear();
+        } catch (IOException e) {
+            if (++failedConnects >= MAX_CONNECT_ATTEMPTS) {
+                Log.e(TAG, "Giving up on session " + sessionCode + " after " + failedConnects + " attempts", e);
+                running = false;
+                listener.onConnectFailed(e);
+                return;
+            }
+            Log.w(TAG, "Connect failed, retrying in " + reconnectDelayMs + "ms", e);
+            scheduleReconnect();
+        }
+    }
+
+    private void handleDisconnect(IOException cause) {
+        Log.w(TAG, "Disconnected from session " + sessionCode, cause);
+        for (Peer peer : peers.values()) {
+            peer.connected = false;
+            peer.clearQueues();
+            publishStats(peer);
+        }
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (!running) return;
+        loop.schedule(this::connect, reconnectDelayMs, TimeUnit.MILLISECONDS);
+        reconnectDelayMs = Math.min(reconnectDelayMs * 2, MAX_RECONNECT_MS);
+    }
+
+    private void handleFrame(SyncFrame frame) {
+        try {
+            switch (frame.type) {
+                case SyncFrame.PEER_JOINED:
+                    onPeerJoined(frame.from);
+                    break;
+                case SyncFrame.PEER_LEFT:
+                    onPeerLeft(frame.from);
+                    break;
+                case SyncFrame.CHUNK:
+                    onChunk(frame);
+                    break;
+                case SyncFrame.ACK:
+                    onAck(frame);
+                    break;
+                case SyncFrame.META_BATCH:
+                    onMetadataBatch(frame);
+                    break;
+                case SyncFrame.DENIED:
+                    onDenied();
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Bad frame from " + frame.from, e);
+        }
+    }
+
+    private void onPeerJoined(String id) {
+        Peer peer = getPeer(id);
+        peer.connected = true;
+        peer.clearQueues();
+
+        // New peers start at zero; returning peers pick up from their last ack
+        for (Map.Entry<String, byte[][]> entry : sharedPhotos.entrySet()) {
+            enqueue(peer, entry.getKey(), THUMBNAIL, entry.getValue()[0]);
+            enqueue(peer, entry.getKey(), FULL, entry.getValue()[1]);
+        }
+        sendMetadataSnapshot(peer);
+        publishStats(peer);
+        listener.onPeerJoined(id);
+        pump();
+    }
+
+    private void onPeerLeft(String id) {
+        Peer peer = peers.get(id);
+        if (peer == null) return;
+
+        peer.connected = false;
+        peer.clearQueues();
+        publishStats(peer);
+        listener.onPeerLeft(id);
+    }
+
+    private void enqueue(Peer peer, String photoId, byte variant, byte[] data) {
+        if (data == null || data.length == 0) return;
+        if (data.length > MAX_PHOTO_BYTES) {
+            Log.w(TAG, "Not sending " + photoId + ", " + data.length + " bytes is more than peers accept");
+            return;
+        }
+
+        Integer acked = peer.acked.get(key(photoId, variant));
+        int start = acked != null ? acked : 0;
+        if (start < data.length) {
+            Transfer transfer = new Transfer(photoId, variant, data, start);
+            peer.queueFor(variant).add(transfer);
+        }
+    }
+
+    // Sends chunks round-robin across peers, each bounded by its in-flight window
+    private void pump() {
+        boolean progressed = true;
+        while (progressed && transport.isConnected()) {
+            progressed = false;
+            for (Peer peer : peers.values()) {
+                if (!peer.connected || peer.unackedChunks >= WINDOW_CHUNKS) continue;
+
+                Transfer transfer = peer.next();
+                if (transfer == null) continue;
+
+                try {
+                    sendChunk(peer, transfer);
+                } catch (IOException e) {
+                    // The transport reports the disconnect separately
+                    return;
+                }
+                progressed = true;
+            }
+        }
+    }
+
+    private void sendChunk(Peer peer, Transfer transfer) throws IOException {
+        int length = Math.min(CHUNK_SIZE, transfer.data.length - transfer.sentOffset);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(transfer.photoId);
+        out.writeByte(transfer.variant);
+        out.writeInt(transfer.data.length);
+        out.writeInt(transfer.sentOffset);
+        out.write(transfer.data, transfer.sentOffset, length);
+        out.flush();
+
+        transport.send(new SyncFrame(SyncFrame.CHUNK, peerId, peer.id, bytes.toByteArray()));
+
+        long now = MetricsRegistry.now();
+        if (peer.burstStartNanos < 0) {
+            peer.burstStartNanos = now;
+        }
+        transfer.sentOffset += length;
+        peer.sendTimes.put(key(transfer.photoId, transfer.variant) + "@" + transfer.sentOffset, now);
+        peer.unackedChunks++;
+        peer.bytesSent += length;
+        MetricsRegistry.getInstance().increment("sync.bytes_out." + peer.id, length);
+
+        if (transfer.sentOffset >= transfer.data.length) {
+            peer.queueFor(transfer.variant).remove(transfer);
+        }
+    }
+
+    private void onAck(SyncFrame frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.payload));
+        String photoId = in.readUTF();
+        byte variant = readVariant(in);
+        int received = in.readInt();
+
+        Peer peer = getPeer(frame.from);
+        String key = key(photoId, variant);
+        Integer previous = peer.acked.get(key);
+        int before = previous != null ? previous : 0;
+        peer.acked.put(key, received);
+
+        // Receivers answer every chunk with exactly one ack, whatever it says
+        peer.unackedChunks = Math.max(0, peer.unackedChunks - 1);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        Long sentAt = peer.sendTimes.remove(key + "@" + received);
+        if (sentAt != null) {
+            double rttMs = (MetricsRegistry.now() - sentAt) / 1_000_000.0;
+            peer.latencyMs = peer.latencyMs == 0 ? rttMs : peer.latencyMs * 0.8 + rttMs * 0.2;
+            metrics.record("sync.ack_rtt." + peer.id, rttMs);
+        }
+
+        // The receiver already holds more than we were about to resend (acks lost in a disconnect)
+        for (Transfer transfer : peer.queueFor(variant)) {
+            if (transfer.photoId.equals(photoId) && transfer.sentOffset < received) {
+                transfer.sentOffset = received;
+                if (transfer.sentOffset >= transfer.data.length) {
+                    peer.queueFor(variant).remove(transfer);
+                }
+                break;
+            }
+        }
+
+        if (received < before) {
+            // The receiver lost data (e.g. it restarted) - resend from what it really has
+            requeue(peer, photoId, variant);
+        } else if (peer.burstStartNanos >= 0) {
+            peer.burstAckedBytes += received - before;
+            double seconds = (MetricsRegistry.now() - peer.burstStartNanos) / 1_000_000_000.0;
+            if (seconds > 0) {
+                peer.throughputKbps = peer.burstAckedBytes * 8 / 1000.0 / seconds;
+                metrics.setGauge("sync.throughput_kbps." + peer.id, Math.round(peer.throughputKbps));
+            }
+        }
+
+        if (peer.unackedChunks == 0 && peer.next() == null) {
+            peer.burstStartNanos = -1;
+            peer.burstAckedBytes = 0;
+            peer.sendTimes.clear();
+        }
+        publishStats(peer);
+        pump();
+    }
+
+    private void requeue(Peer peer, String photoId, byte variant) {
+        Iterator<Transfer> queued = peer.queueFor(variant).iterator();
+        while (queued.hasNext()) {
+            if (queued.next().photoId.equals(photoId)) {
+                queued.remove();
+            }
+        }
+
+        byte[][] photo = sharedPhotos.get(photoId);
+        if (photo != null) {
+            enqueue(peer, photoId, variant, photo[variant]);
+        }
+    }
+
+    private void onChunk(SyncFrame frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.payload));
+        String photoId = in.readUTF();
+        byte variant = readVariant(in);
+        int total = in.readInt();
+        int offset = in.readInt();
+        int length = in.available();
+        if (total <= 0 || total > MAX_PHOTO_BYTES) {
+            throw new IOException("Bad photo size " + total);
+        }
+        if (offset < 0 || length > CHUNK_SIZE || offset > total - length) {
+            throw new IOException("Chunk " + offset + "+" + length + " outside photo of " + total + " bytes");
+        }
+
+        Peer peer = getPeer(frame.from);
+        peer.bytesReceived += length;
+        MetricsRegistry.getInstance().increment("sync.bytes_in." + peer.id, length);
+
+        String transferKey = key(photoId, variant);
+        String key = frame.from + "|" + transferKey;
+        if (completed.contains(key)) {
+            sendAck(frame.from, photoId, variant, total);
+            return;
+        }
+
+        Incoming transfer = peer.incoming.get(transferKey);
+        if (transfer == null || transfer.total != total) {
+            peer.incoming.remove(transferKey);
+            // Only a chunk at offset 0 starts a transfer; anything else is told to start over
+            if (offset != 0) {
+                sendAck(frame.from, photoId, variant, 0);
+                return;
+            }
+            if (peer.incoming.size() >= MAX_INCOMING_PER_PEER) {
+                Iterator<String> oldest = peer.incoming.keySet().iterator();
+                Log.w(TAG, "Dropping stalled transfer " + oldest.next() + " from " + peer.id);
+                oldest.remove();
+            }
+            transfer = new Incoming(total);
+            peer.incoming.put(transferKey, transfer);
+        }
+
+        // Chunks before our offset are replays after a resume; chunks past it are a gap
+        if (offset == transfer.received) {
+            transfer.append(in, length);
+        }
+        sendAck(frame.from, photoId, variant, transfer.received);
+        publishStats(peer);
+
+        if (transfer.received == total) {
+            peer.incoming.remove(transferKey);
+            completed.add(key);
+            if (variant == THUMBNAIL) {
+                listener.onThumbnailReceived(frame.from, photoId, transfer.buffer);
+            } else {
+                listener.onPhotoReceived(frame.from, photoId, transfer.buffer);
+            }
+        }
+    }
+
+    // The hub turned our HELLO away (wrong session key, or our peer ID is taken)
+    private void onDenied() {
+        running = false;
+        transport.close();
+        listener.onConnectFailed(new IOException("The session rejected this device's join code"));
+    }
+
+    private static byte readVariant(DataInputStream in) throws IOException {
+        byte variant = in.readByte();
+        if (variant != THUMBNAIL && variant != FULL) {
+            throw new IOException("Bad photo variant " + variant);
+        }
+        return variant;
+    }
+
+    private void sendAck(String to, String photoId, byte variant, int received) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(photoId);
+            out.writeByte(variant);
+            out.writeInt(received);
+            out.flush();
+
+            if (transport.isConnected()) {
+                transport.send(new SyncFrame(SyncFrame.ACK, peerId, to, bytes.toByteArray()));
+            }
+        } catch (IOException e) {
+            // The sender resumes from its last ack once we reconnect
+        }
+    }
+
+    private void flushMetadata() {
+        flushScheduled = false;
+        if (pendingOps.isEmpty() || !transport.isConnected()) return;
+
+        try {
+            transport.send(new SyncFrame(SyncFrame.META_BATCH, peerId, SyncFrame.BROADCAST,
+                    encodeMetadata(pendingOps)));
+            MetricsRegistry.getInstance().record("sync.meta_batch_size", pendingOps.size());
+            pendingOps.clear();
+        } catch (IOException e) {
+            // Kept pending; peers also get a full snapshot when they (re)join
+            Log.w(TAG, "Metadata flush failed", e);
+        }
+    }
+
+    private void sendMetadataSnapshot(Peer peer) {
+        if (metadata.isEmpty() || !transport.isConnected()) return;
+
+        List<String[]> ops = new ArrayList<>();
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            ops.add(new String[]{entry.getKey(), entry.getValue()});
+        }
+        try {
+            transport.send(new SyncFrame(SyncFrame.META_BATCH, peerId, peer.id, encodeMetadata(ops)));
+        } catch (IOException e) {
+            Log.w(TAG, "Metadata snapshot to " + peer.id + " failed", e);
+        }
+    }
+
+    private void onMetadataBatch(SyncFrame frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.payload));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            String value = in.readUTF();
+            metadata.put(key, value);
+            listener.onMetadataReceived(frame.from, key, value);
+        }
+    }
+
+    private static byte[] encodeMetadata(List<String[]> ops) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ops.size());
+        for (String[] op : ops) {
+            out.writeUTF(op[0]);
+            out.writeUTF(op[1]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private Peer getPeer(String id) {
+        Peer peer = peers.get(id);
+        if (peer == null) {
+            peer = new Peer(id);
+            peers.put(id, peer);
+        }
+        return peer;
+    }
+
+    private void publishStats(Peer peer) {
+        stats.put(peer.id, new PeerStats(peer.id, peer.connected, peer.bytesSent, peer.bytesReceived,
+                peer.throughputKbps, peer.latencyMs));
+    }
+
+    private static String key(String photoId, byte variant) {
+        return photoId + "#" + variant;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,165 @@
+package com.example.snapbook;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Finds groups of identical or near-identical photos (booth bursts, downloaded_
+// copies). Photos the index has no hash for yet are hashed in parallel across
+// cores and the hashes stored, so later scans only hash new or changed files.
+// Grouping puts every hash into a BK-tree and looks each photo's neighbours up
+// within SIMILAR_DISTANCE bits. Callbacks run on the main thread.
+public class DuplicateFinder {
+
+    private static final String TAG = "DuplicateFinder";
+
+    // Bits of 64 two photos may differ by and still count as the same shot
+    public static final int SIMILAR_DISTANCE = 6;
+    // Hashes are written to the index after each chunk, so an interrupted scan keeps its work
+    private static final int CHUNK_SIZE = 64;
+
+    private final GalleryIndex index;
+    private final ExecutorService scanExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService hashPool;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface Callback {
+        void onProgress(int hashed, int total);
+        void onComplete(List<Group> groups);
+    }
+
+    // Similar photos, the one worth keeping first
+    public static class Group {
+        public final List<GalleryActivity.GalleryItem> items;
+
+        Group(List<GalleryActivity.GalleryItem> items) {
+            this.items = items;
+        }
+
+        public GalleryActivity.GalleryItem getKeeper() {
+            return items.get(0);
+        }
+
+        public List<GalleryActivity.GalleryItem> getExtras() {
+            return items.subList(1, items.size());
+        }
+
+        public long getReclaimableBytes() {
+            long bytes = 0;
+            for (GalleryActivity.GalleryItem item : getExtras()) {
+                bytes += item.sizeBytes;
+            }
+            return bytes;
+        }
+    }
+
+    public DuplicateFinder(GalleryIndex index) {
+        this.index = index;
+        this.hashPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public void find(Callback callback) {
+        scanExecutor.execute(() -> {
+            try {
+                hashMissing(callback);
+                List<Group> groups = group(index.loadHashed());
+                mainHandler.post(() -> callback.onComplete(groups));
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Duplicate scan interrupted");
+            } catch (Exception e) {
+                Log.e(TAG, "Error scanning for duplicates", e);
+                mainHandler.post(() -> callback.onComplete(Collections.emptyList()));
+            }
+        });
+    }
+
+    public void shutdown() {
+        scanExecutor.shutdownNow();
+        hashPool.shutdownNow();
+    }
+
+    private void hashMissing(Callback callback) throws Exception {
+        List<GalleryActivity.GalleryItem> unhashed = index.loadUnhashed();
+        int total = unhashed.size();
+        if (total == 0) return;
+
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("duplicates.hash");
+        try {
+            for (int start = 0; start < total; start += CHUNK_SIZE) {
+                List<GalleryActivity.GalleryItem> chunk = unhashed.subList(start, Math.min(total, start + CHUNK_SIZE));
+                List<Callable<Long>> tasks = new ArrayList<>(chunk.size());
+                for (GalleryActivity.GalleryItem item : chunk) {
+                    tasks.add(() -> PerceptualHash.dHash(item.downloadUrl));
+                }
+
+                List<Future<Long>> results = hashPool.invokeAll(tasks);
+                List<GalleryActivity.GalleryItem> hashed = new ArrayList<>(chunk.size());
+                for (int i = 0; i < chunk.size(); i++) {
+                    Long hash = results.get(i).get();
+                    if (hash != null) {
+                        chunk.get(i).dhash = hash;
+                        hashed.add(chunk.get(i));
+                    }
+                }
+                index.setHashes(hashed);
+                MetricsRegistry.getInstance().increment("duplicates.hashed", hashed.size());
+
+                int done = Math.min(total, start + CHUNK_SIZE);
+                mainHandler.post(() -> callback.onProgress(done, total));
+            }
+        } finally {
+            span.end();
+        }
+    }
+
+    private static List<Group> group(List<GalleryActivity.GalleryItem> hashed) {
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("duplicates.group");
+        BkTree<GalleryActivity.GalleryItem> tree = new BkTree<>();
+        for (GalleryActivity.GalleryItem item : hashed) {
+            tree.add(item.dhash, item);
+        }
+
+        Set<String> grouped = new HashSet<>();
+        List<Group> groups = new ArrayList<>();
+        for (GalleryActivity.GalleryItem item : hashed) {
+            if (grouped.contains(item.downloadUrl)) continue;
+
+            List<GalleryActivity.GalleryItem> similar = new ArrayList<>();
+            for (GalleryActivity.GalleryItem match : tree.search(item.dhash, SIMILAR_DISTANCE)) {
+                if (grouped.add(match.downloadUrl)) {
+                    similar.add(match);
+                }
+            }
+            if (similar.size() > 1) {
+                Collections.sort(similar, DuplicateFinder::compareKeepFirst);
+                groups.add(new Group(similar));
+            }
+        }
+
+        Collections.sort(groups, (a, b) -> Long.compare(b.getReclaimableBytes(), a.getReclaimableBytes()));
+        span.end();
+        return groups;
+    }
+
+    // Originals before downloaded_ copies, then more pixels, then the larger file, then the older one
+    private static int compareKeepFirst(GalleryActivity.GalleryItem a, GalleryActivity.GalleryItem b) {
+        boolean aCopy = a.photoId.startsWith("downloaded_");
+        boolean bCopy = b.photoId.startsWith("downloaded_");
+        if (aCopy != bCopy) return aCopy ? 1 : -1;
+
+        int byPixels = Long.compare((long) b.width * b.height, (long) a.width * a.height);
+        if (byPixels != 0) return byPixels;
+        int bySize = Long.compare(b.sizeBytes, a.sizeBytes);
+        if (bySize != 0) return bySize;
+        return Long.compare(a.timestamp, b.timestamp);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+// Turns the session photos into a looping GIF "flipbook". Frames are scaled one at
+// a time into a single reusable frame buffer; the palette is shared across frames.
+public class FlipbookExporter {
+
+    private static final String TAG = "FlipbookExporter";
+    public static final int DEFAULT_FRAME_WIDTH = 480;
+    public static final int DEFAULT_FRAME_DELAY_MS = 500;
+    private static final int PALETTE_SIZE = 256;
+
+    private static final Paint FRAME_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    public static class Result {
+        public final int frameCount;
+        public final long bytesWritten;
+        public final long encodeMillis;
+
+        Result(int frameCount, long bytesWritten, long encodeMillis) {
+            this.frameCount = frameCount;
+            this.bytesWritten = bytesWritten;
+            this.encodeMillis = encodeMillis;
+        }
+    }
+
+    public static Result export(List<Bitmap> photos, int frameWidth, int frameDelayMs, OutputStream out)
+            throws IOException {
+        if (photos == null || photos.isEmpty()) {
+            throw new IllegalArgumentException("No photos provided");
+        }
+
+        long startNanos = MetricsRegistry.now();
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("flipbook.encode");
+
+        Bitmap first = photos.get(0);
+        int frameHeight = Math.max(1, Math.round((float) frameWidth * first.getHeight() / first.getWidth()));
+
+        Bitmap frame = Bitmap.createBitmap(frameWidth, frameHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(frame);
+        int[] pixels = new int[frameWidth * frameHeight];
+
+        try {
+            // Pass 1: sample every frame into one shared palette
+            MedianCutPalette palette = new MedianCutPalette(photos.size());
+            for (Bitmap photo : photos) {
+                renderFrame(canvas, photo, frameWidth, frameHeight);
+                frame.getPixels(pixels, 0, frameWidth, 0, 0, frameWidth, frameHeight);
+                palette.addFrame(pixels, pixels.length);
+            }
+            palette.build(PALETTE_SIZE);
+
+            // Pass 2: render each frame again and stream it into the encoder
+            CountingOutputStream countingOut = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            GifFlipbookEncoder encoder = new GifFlipbookEncoder(countingOut);
+            encoder.begin(frameWidth, frameHeight, palette, frameDelayMs, 0);
+            for (Bitmap photo : photos) {
+                renderFrame(canvas, photo, frameWidth, frameHeight);
+                frame.getPixels(pixels, 0, frameWidth, 0, 0, frameWidth, frameHeight);
+                encoder.addFrame(pixels);
+            }
+            encoder.finish();
+
+            long encodeMillis = (MetricsRegistry.now() - startNanos) / 1_000_000;
+            MetricsRegistry.getInstance().record("flipbook.size_kb", countingOut.count / 1024.0);
+
+            Log.d(TAG, "Flipbook exported: " + photos.size() + " frames, " + countingOut.count +
+                    " bytes in " + encodeMillis + "ms");
+            return new Result(photos.size(), countingOut.count, encodeMillis);
+
+        } finally {
+            span.end();
+            frame.recycle();
+        }
+    }
+
+    // Center-crops the photo to the frame aspect ratio and scales it into the frame buffer
+    private static void renderFrame(Canvas canvas, Bitmap photo, int frameWidth, int frameHeight) {
+        StripLayout.Box crop = StripLayout.computeCenterCrop(photo.getWidth(), photo.getHeight(),
+                frameWidth, frameHeight);
+        canvas.drawBitmap(photo, new Rect(crop.left, crop.top, crop.right, crop.bottom),
+                new Rect(0, 0, frameWidth, frameHeight), FRAME_PAINT);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
\ No newline at end of file
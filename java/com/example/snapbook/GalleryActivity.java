@@ -3,8 +3,6 @@ package com.example.snapbook;
 
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
@@ -13,10 +11,10 @@ import android.widget.*;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -25,12 +23,24 @@ public class GalleryActivity extends AppCompatActivity {
 
     private RecyclerView galleryRecyclerView;
     private GalleryAdapter galleryAdapter;
-    private List<GalleryItem> galleryItems;
+    private GalleryPager galleryPager;
 
     private ProgressBar loadingBar;
     private TextView emptyGalleryText;
     private Button backButton;
     private Button clearGalleryButton;
+    private Button findDuplicatesButton;
+
+    private GalleryIndex galleryIndex;
+    private ExecutorService indexExecutor;
+    private ExecutorService pageExecutor;
+    private PhotoCopier photoCopier;
+    private BulkPhotoOperations bulkOperations;
+    private BulkPhotoOperations.Job bulkJob;
+    private DuplicateFinder duplicateFinder;
+    private GalleryIndex.Keys shownKeys = GalleryIndex.Keys.EMPTY; // Index thread only: what the grid was last told
+    private final android.os.Handler mainHandler = new android.os.Handler(android.os.Looper.getMainLooper());
+    private final Runnable reloadGallery = this::loadGallery;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -43,15 +53,24 @@ public class GalleryActivity extends AppCompatActivity {
         emptyGalleryText = findViewById(R.id.empty_gallery_text);
         backButton = findViewById(R.id.back_button);
         clearGalleryButton = findViewById(R.id.clear_gallery_button);
+        findDuplicatesButton = findViewById(R.id.find_duplicates_button);
 
         // Initialize collections
-        galleryItems = new ArrayList<>();
-        galleryAdapter = new GalleryAdapter(galleryItems, this);
+        galleryIndex = new GalleryIndex(this);
+        indexExecutor = Executors.newSingleThreadExecutor();
+        pageExecutor = Executors.newSingleThreadExecutor();
+        galleryPager = new GalleryPager(galleryIndex, pageExecutor);
+        photoCopier = new PhotoCopier();
+        duplicateFinder = new DuplicateFinder(galleryIndex);
+        bulkOperations = new BulkPhotoOperations(galleryIndex, ImageLoader.getInstance(this).getCache(),
+                getExternalFilesDir(Environment.DIRECTORY_PICTURES), indexExecutor);
+        galleryAdapter = new GalleryAdapter(galleryPager, this);
 
         // Setup RecyclerView
         GridLayoutManager layoutManager = new GridLayoutManager(this, 2);
         galleryRecyclerView.setLayoutManager(layoutManager);
         galleryRecyclerView.setAdapter(galleryAdapter);
+        GridPrefetcher.attach(galleryRecyclerView, galleryAdapter, ImageLoader.getInstance(this));
 
         // Button listeners
         backButton.setOnClickListener(v -> {
@@ -60,43 +79,131 @@ public class GalleryActivity extends AppCompatActivity {
             finish();
         });
 
-        clearGalleryButton.setOnClickListener(v -> clearGallery());
+        findDuplicatesButton.setOnClickListener(v -> findDuplicates());
+        if ((getApplicationInfo().flags & android.content.pm.ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            findDuplicatesButton.setOnLongClickListener(v -> {
+                new GalleryScrollBenchmark(this, galleryRecyclerView,
+                        getExternalFilesDir(Environment.DIRECTORY_PICTURES))
+                        .start(indexExecutor, () -> loadGallery(true));
+                return true;
+            });
+        }
+
+        clearGalleryButton.setOnClickListener(v -> {
+            if (bulkJob != null) {
+                bulkJob.cancel();
+            } else if (!galleryAdapter.getSelectedItems().isEmpty()) {
+                showSelectionActions();
+            } else {
+                clearGallery();
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Coalesce bursts of file events (e.g. a strip export) into one reload
+        galleryIndex.startWatching(getExternalFilesDir(Environment.DIRECTORY_PICTURES), () -> {
+            mainHandler.removeCallbacks(reloadGallery);
+            mainHandler.postDelayed(reloadGallery, 300);
+        });
+        // Nothing was watching while stopped, so catch up on what changed meanwhile
+        loadGallery(true);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        galleryIndex.stopWatching();
+        mainHandler.removeCallbacks(reloadGallery);
+    }
 
-        // Load gallery
-        loadGallery();
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        photoCopier.shutdown();
+        duplicateFinder.shutdown();
+        if (bulkJob != null) {
+            bulkJob.cancel();
+        }
+        // Close after any queued index work and page reads have run
+        pageExecutor.shutdown();
+        indexExecutor.execute(() -> {
+            try {
+                pageExecutor.awaitTermination(5, java.util.concurrent.TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            galleryIndex.close();
+        });
+        indexExecutor.shutdown();
     }
 
     private void loadGallery() {
+        loadGallery(false);
+    }
+
+    // Show what the index has right away, then, if asked, reconcile it with the directory.
+    // Only the keys and the first page are read here; the pager fetches the rest on scroll.
+    private void loadGallery(boolean reconcile) {
         loadingBar.setVisibility(ProgressBar.VISIBLE);
-        galleryItems.clear();
 
-        // Load photos from local storage
-        File picturesDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-        if (picturesDir != null && picturesDir.exists()) {
-            File[] photoFiles = picturesDir.listFiles((dir, name) -> 
-                name.toLowerCase().endsWith(".jpg") || name.toLowerCase().endsWith(".jpeg"));
-            
-            if (photoFiles != null && photoFiles.length > 0) {
-                for (File photoFile : photoFiles) {
-                    String photoId = photoFile.getName().replace(".jpg", "").replace(".jpeg", "");
-                    String filePath = photoFile.getAbsolutePath();
-                    long timestamp = photoFile.lastModified();
-                    
-                    GalleryItem item = new GalleryItem(photoId, filePath, timestamp);
-                    galleryItems.add(item);
-                }
-                
-                // Sort by timestamp (newest first)
-                Collections.sort(galleryItems, (a, b) -> Long.compare(b.timestamp, a.timestamp));
-                
-                galleryAdapter.notifyDataSetChanged();
-                emptyGalleryText.setVisibility(TextView.GONE);
-                galleryRecyclerView.setVisibility(RecyclerView.VISIBLE);
-            } else {
-                emptyGalleryText.setText("No photos yet. Start taking some!");
-                emptyGalleryText.setVisibility(TextView.VISIBLE);
-                galleryRecyclerView.setVisibility(RecyclerView.GONE);
+        indexExecutor.execute(() -> {
+            publishIndex();
+
+            if (reconcile && galleryIndex.reconcile(getExternalFilesDir(Environment.DIRECTORY_PICTURES))) {
+                publishIndex();
+            }
+        });
+    }
+
+    // Index thread. Diffs the index against what the grid shows here rather than on
+    // the UI thread; updates are posted in order, so each diff applies to the state
+    // the previous one left behind.
+    private void publishIndex() {
+        GalleryIndex.Keys previous = shownKeys;
+        GalleryIndex.Keys current = galleryIndex.loadKeys();
+        List<GalleryItem> loadedPage = galleryIndex.loadRange(0, GalleryPager.PAGE_SIZE);
+        // If the index changed between the two reads the pager fetches page 0 itself
+        List<GalleryItem> firstPage = GalleryPager.matches(current, 0, loadedPage) ? loadedPage : null;
+
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("gallery.diff");
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return previous.size();
             }
+
+            @Override
+            public int getNewListSize() {
+                return current.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return previous.ids[oldPosition] == current.ids[newPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return previous.versions[oldPosition] == current.versions[newPosition];
+            }
+        }, false);
+        span.end();
+
+        shownKeys = current;
+        runOnUiThread(() -> showGalleryItems(current, firstPage, diff));
+    }
+
+    private void showGalleryItems(GalleryIndex.Keys keys, List<GalleryItem> firstPage, DiffUtil.DiffResult diff) {
+        if (isDestroyed()) return;
+
+        galleryPager.reset(keys, firstPage);
+        diff.dispatchUpdatesTo(galleryAdapter);
+
+        if (keys.size() > 0) {
+            emptyGalleryText.setVisibility(TextView.GONE);
+            galleryRecyclerView.setVisibility(RecyclerView.VISIBLE);
         } else {
             emptyGalleryText.setText("No photos yet. Start taking some!");
             emptyGalleryText.setVisibility(TextView.VISIBLE);
@@ -110,50 +217,136 @@ public class GalleryActivity extends AppCompatActivity {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Clear Gallery")
                 .setMessage("Are you sure you want to delete all photos? This cannot be undone.")
-                .setPositiveButton("Delete All", (dialog, which) -> {
-                    File picturesDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-                    if (picturesDir != null && picturesDir.exists()) {
-                        File[] photoFiles = picturesDir.listFiles((dir, name) -> 
-                            name.toLowerCase().endsWith(".jpg") || name.toLowerCase().endsWith(".jpeg"));
-                        
-                        if (photoFiles != null) {
-                            int deletedCount = 0;
-                            for (File photoFile : photoFiles) {
-                                if (photoFile.delete()) {
-                                    deletedCount++;
-                                }
-                            }
-                            Toast.makeText(GalleryActivity.this,
-                                    deletedCount + " photos deleted!",
-                                    Toast.LENGTH_SHORT).show();
-                            loadGallery();
-                        }
+                .setPositiveButton("Delete All", (dialog, which) ->
+                        bulkJob = bulkOperations.deleteAll(bulkCallback("Deleting", "deleted")))
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    // Called by the adapter whenever the long-press selection changes
+    public void onSelectionChanged(int count) {
+        if (bulkJob != null) return;
+        clearGalleryButton.setText(count > 0 ? "🗑️ Selected (" + count + ")" : "🗑️ Clear");
+    }
+
+    private void showSelectionActions() {
+        List<GalleryItem> selected = galleryAdapter.getSelectedItems();
+        String[] actions = {"Delete", "Save to Photos", "Clear Selection"};
+        new AlertDialog.Builder(this)
+                .setTitle(selected.size() + " photos selected")
+                .setItems(actions, (dialog, which) -> {
+                    if (which == 0) {
+                        bulkJob = bulkOperations.delete(selected, bulkCallback("Deleting", "deleted"));
+                    } else if (which == 1) {
+                        bulkJob = bulkOperations.export(selected,
+                                item -> PhotoCopier.mediaStore(getContentResolver(), "snapbook_" + item.photoId + ".jpg"),
+                                bulkCallback("Saving", "saved"));
+                    } else {
+                        galleryAdapter.clearSelection();
                     }
                 })
                 .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
                 .show();
     }
 
-    public void deletePhoto(String photoId, int position) {
+    private void findDuplicates() {
+        findDuplicatesButton.setEnabled(false);
+        findDuplicatesButton.setText("🔍 Scanning...");
+        duplicateFinder.find(new DuplicateFinder.Callback() {
+            @Override
+            public void onProgress(int hashed, int total) {
+                findDuplicatesButton.setText("🔍 " + hashed + "/" + total);
+            }
+
+            @Override
+            public void onComplete(List<DuplicateFinder.Group> groups) {
+                findDuplicatesButton.setEnabled(true);
+                findDuplicatesButton.setText("🔍 Duplicates");
+                if (isDestroyed()) return;
+                showDuplicates(groups);
+            }
+        });
+    }
+
+    private void showDuplicates(List<DuplicateFinder.Group> groups) {
+        if (groups.isEmpty()) {
+            Toast.makeText(this, "No duplicate photos found", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        List<GalleryItem> extras = new ArrayList<>();
+        long reclaimable = 0;
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < groups.size(); i++) {
+            DuplicateFinder.Group group = groups.get(i);
+            extras.addAll(group.getExtras());
+            reclaimable += group.getReclaimableBytes();
+            if (i < 8) {
+                summary.append("• ").append(group.items.size()).append(" shots like ")
+                        .append(group.getKeeper().photoId).append(" (")
+                        .append(android.text.format.Formatter.formatShortFileSize(this, group.getReclaimableBytes()))
+                        .append(")\n");
+            }
+        }
+        if (groups.size() > 8) {
+            summary.append("• and ").append(groups.size() - 8).append(" more groups\n");
+        }
+        summary.append("\nThe best copy of each group is kept.");
+
+        String size = android.text.format.Formatter.formatShortFileSize(this, reclaimable);
+        new AlertDialog.Builder(this)
+                .setTitle(groups.size() + " groups of similar photos")
+                .setMessage(summary.toString())
+                .setPositiveButton("Delete " + extras.size() + " (" + size + ")", (dialog, which) ->
+                        bulkJob = bulkOperations.delete(extras, bulkCallback("Deleting", "deleted")))
+                .setNeutralButton("Select", (dialog, which) -> galleryAdapter.select(extras))
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    // Progress goes on the clear button, which cancels the job until it finishes
+    private BulkPhotoOperations.Callback bulkCallback(String verb, String pastTense) {
+        clearGalleryButton.setText(verb + "... (tap to cancel)");
+        return new BulkPhotoOperations.Callback() {
+            @Override
+            public void onProgress(int completed, int total) {
+                clearGalleryButton.setText(verb + " " + completed + "/" + total + " (tap to cancel)");
+            }
+
+            @Override
+            public void onComplete(BulkPhotoOperations.Result result) {
+                bulkJob = null;
+                if (isDestroyed()) return;
+
+                galleryAdapter.clearSelection();
+                String message = result.succeeded + " photos " + pastTense
+                        + (result.failed > 0 ? ", " + result.failed + " failed" : "")
+                        + (result.cancelled ? " (cancelled)" : "!");
+                Toast.makeText(GalleryActivity.this, message, Toast.LENGTH_SHORT).show();
+                loadGallery();
+            }
+        };
+    }
+
+    // Takes the item rather than a position: positions move whenever the pager is reset
+    public void deletePhoto(GalleryItem item) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Delete Photo")
                 .setMessage("Delete this photo?")
                 .setPositiveButton("Delete", (dialog, which) -> {
-                    if (position >= 0 && position < galleryItems.size()) {
-                        GalleryItem item = galleryItems.get(position);
-                        File photoFile = new File(item.downloadUrl); // downloadUrl is actually file path in local version
-                        
-                        if (photoFile.exists() && photoFile.delete()) {
-                            galleryItems.remove(position);
-                            galleryAdapter.notifyItemRemoved(position);
-                            Toast.makeText(GalleryActivity.this,
-                                    "Photo deleted",
-                                    Toast.LENGTH_SHORT).show();
-                        } else {
-                            Toast.makeText(GalleryActivity.this,
-                                    "Error deleting photo",
-                                    Toast.LENGTH_SHORT).show();
-                        }
+                    File photoFile = new File(item.downloadUrl); // downloadUrl is actually file path in local version
+
+                    if (photoFile.exists() && photoFile.delete()) {
+                        indexExecutor.execute(() -> galleryIndex.remove(item.downloadUrl));
+                        // Positions after this one shift; re-read the window from the index
+                        loadGallery();
+                        Toast.makeText(GalleryActivity.this,
+                                "Photo deleted",
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(GalleryActivity.this,
+                                "Error deleting photo",
+                                Toast.LENGTH_SHORT).show();
                     }
                 })
                 .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
@@ -161,39 +354,34 @@ public class GalleryActivity extends AppCompatActivity {
     }
 
     public void downloadPhoto(String downloadUrl, String photoId) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.execute(() -> {
-            try {
-                // For local files, just copy to a different location
-                File sourceFile = new File(downloadUrl);
-                if (sourceFile.exists()) {
-                    Bitmap bitmap = BitmapFactory.decodeFile(downloadUrl);
-                    
-                    // Save to device downloads
-                    File picturesDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-                    File photoFile = new File(picturesDir, "downloaded_" + photoId + ".jpg");
-                    FileOutputStream fos = new FileOutputStream(photoFile);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 95, fos);
-                    fos.close();
-
-                    runOnUiThread(() ->
-                            Toast.makeText(GalleryActivity.this,
-                                    "Photo saved to " + photoFile.getAbsolutePath(),
-                                    Toast.LENGTH_LONG).show()
-                    );
+        // For local files, just copy to a different location
+        File sourceFile = new File(downloadUrl);
+        if (!sourceFile.exists()) {
+            Toast.makeText(GalleryActivity.this,
+                    "Photo file not found",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Save to device downloads, byte for byte; nothing here changes the pixels
+        File picturesDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        File photoFile = new File(picturesDir, "downloaded_" + photoId + ".jpg");
+        photoCopier.copy(sourceFile, PhotoCopier.file(photoFile), null, new PhotoCopier.Callback() {
+            @Override
+            public void onProgress(int completed, int total) {
+            }
+
+            @Override
+            public void onComplete(int copiedCount, int total, long bytes, long bytesPerSecond) {
+                if (copiedCount > 0) {
+                    Toast.makeText(GalleryActivity.this,
+                            "Photo saved to " + photoFile.getAbsolutePath(),
+                            Toast.LENGTH_LONG).show();
                 } else {
-                    runOnUiThread(() ->
-                            Toast.makeText(GalleryActivity.this,
-                                    "Photo file not found",
-                                    Toast.LENGTH_SHORT).show()
-                    );
+                    Toast.makeText(GalleryActivity.this,
+                            "Download error: could not copy photo",
+                            Toast.LENGTH_SHORT).show();
                 }
-            } catch (Exception e) {
-                runOnUiThread(() ->
-                        Toast.makeText(GalleryActivity.this,
-                                "Download error: " + e.getMessage(),
-                                Toast.LENGTH_SHORT).show()
-                );
             }
         });
     }
@@ -203,6 +391,10 @@ public class GalleryActivity extends AppCompatActivity {
         public String photoId;
         public String downloadUrl;
         public long timestamp;
+        public long sizeBytes; // With timestamp, identifies this version of the file for the thumbnail cache
+        public int width;
+        public int height;
+        public long dhash; // Perceptual hash, set when read from the index after DuplicateFinder ran
 
         public GalleryItem(String photoId, String downloadUrl, long timestamp) {
             this.photoId = photoId;
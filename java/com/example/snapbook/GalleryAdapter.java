@@ -2,27 +2,36 @@ package com.example.snapbook;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.*;
 import androidx.annotation.NonNull;
-import androidx.appcompat.app.AlertDialog;
 import androidx.recyclerview.widget.RecyclerView;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
 
-public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryViewHolder> {
+public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryViewHolder>
+        implements GridPrefetcher.Source {
 
-    private List<GalleryActivity.GalleryItem> galleryItems;
+    private GalleryPager pager;
     private GalleryActivity context;
+    private int cellSize;
+    // Long-pressed items by path; while any are selected, a tap toggles selection instead of opening
+    private final Map<String, GalleryActivity.GalleryItem> selection = new LinkedHashMap<>();
 
-    public GalleryAdapter(List<GalleryActivity.GalleryItem> galleryItems, GalleryActivity context) {
-        this.galleryItems = galleryItems;
+    public GalleryAdapter(GalleryPager pager, GalleryActivity context) {
+        this.pager = pager;
         this.context = context;
+        // IDs come from the path, so a reload only rebinds cells whose photo changed
+        setHasStableIds(true);
+        // Placeholders bind again once their page arrives
+        pager.setListener(this::notifyItemRangeChanged);
+        // Two-column grid, so a cell is about half the screen wide
+        this.cellSize = context.getResources().getDisplayMetrics().widthPixels / 2;
     }
 
     @NonNull
@@ -35,14 +44,24 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryV
 
     @Override
     public void onBindViewHolder(@NonNull GalleryViewHolder holder, int position) {
-        GalleryActivity.GalleryItem item = galleryItems.get(position);
+        GalleryActivity.GalleryItem item = pager.get(position);
+        if (item == null) {
+            bindPlaceholder(holder);
+            return;
+        }
+
+        holder.deleteButton.setEnabled(true);
+        holder.downloadButton.setEnabled(true);
+        boolean selected = selection.containsKey(item.downloadUrl);
+        holder.itemView.setActivated(selected);
+        holder.itemView.setAlpha(selected ? 0.5f : 1f);
 
         // Load image asynchronously
-        loadImageAsync(item.downloadUrl, holder.photoImageView, holder.loadingBar);
+        loadImageAsync(item, holder);
 
         // Delete button
         holder.deleteButton.setOnClickListener(v ->
-                context.deletePhoto(item.photoId, position)
+                context.deletePhoto(item)
         );
 
         // Download button
@@ -52,76 +71,152 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryV
 
         // Click to view full image
         holder.photoImageView.setOnClickListener(v -> {
-            showFullImage(item.downloadUrl);
+            if (!selection.isEmpty()) {
+                toggleSelection(item, holder.getAdapterPosition());
+            } else {
+                showFullImage(item.downloadUrl);
+            }
+        });
+        holder.photoImageView.setOnLongClickListener(v -> {
+            toggleSelection(item, holder.getAdapterPosition());
+            return true;
         });
     }
 
+    private void toggleSelection(GalleryActivity.GalleryItem item, int position) {
+        if (selection.remove(item.downloadUrl) == null) {
+            selection.put(item.downloadUrl, item);
+        }
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position);
+        }
+        context.onSelectionChanged(selection.size());
+    }
+
+    public List<GalleryActivity.GalleryItem> getSelectedItems() {
+        return new ArrayList<>(selection.values());
+    }
+
+    // Adds to the selection, e.g. the extra copies found by DuplicateFinder
+    public void select(List<GalleryActivity.GalleryItem> items) {
+        for (GalleryActivity.GalleryItem item : items) {
+            selection.put(item.downloadUrl, item);
+        }
+        notifyItemRangeChanged(0, getItemCount());
+        context.onSelectionChanged(selection.size());
+    }
+
+    public void clearSelection() {
+        if (selection.isEmpty()) return;
+        selection.clear();
+        // Only bound cells rebind, and their thumbnails come from memory
+        notifyItemRangeChanged(0, getItemCount());
+        context.onSelectionChanged(0);
+    }
+
     @Override
     public int getItemCount() {
-        return galleryItems.size();
+        return pager.size();
     }
 
-    private void loadImageAsync(String imagePath, ImageView imageView, ProgressBar progressBar) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        
+    @Override
+    public long getItemId(int position) {
+        return pager.getItemId(position);
+    }
+
+    @Override
+    public ImageLoader.Request prefetch(int position) {
+        if (position < 0 || position >= pager.size()) return null;
+        // Asking the pager also pulls in the page ahead of the scroll
+        GalleryActivity.GalleryItem item = pager.get(position);
+        if (item == null) return null;
+        String cacheKey = ThumbnailCache.keyFor(item.downloadUrl, item.timestamp, item.sizeBytes);
+        return ImageLoader.getInstance(context).prefetch(item.downloadUrl, cacheKey, cellSize);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull GalleryViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.cancelPendingLoad();
+    }
+
+    // Position whose page has not loaded yet: spinner only, nothing clickable
+    private void bindPlaceholder(GalleryViewHolder holder) {
+        holder.cancelPendingLoad();
+        holder.photoImageView.setImageDrawable(null);
+        holder.photoImageView.setVisibility(View.GONE);
+        holder.photoImageView.setOnClickListener(null);
+        holder.photoImageView.setOnLongClickListener(null);
+        holder.itemView.setActivated(false);
+        holder.itemView.setAlpha(1f);
+        holder.loadingBar.setVisibility(View.VISIBLE);
+        holder.deleteButton.setEnabled(false);
+        holder.deleteButton.setOnClickListener(null);
+        holder.downloadButton.setEnabled(false);
+        holder.downloadButton.setOnClickListener(null);
+    }
+
+    private void loadImageAsync(GalleryActivity.GalleryItem item, GalleryViewHolder holder) {
+        ImageView imageView = holder.photoImageView;
+        ProgressBar progressBar = holder.loadingBar;
+
+        // Whatever this cell was showing before is no longer wanted
+        holder.cancelPendingLoad();
+
+        ImageLoader loader = ImageLoader.getInstance(context);
+        String cacheKey = ThumbnailCache.keyFor(item.downloadUrl, item.timestamp, item.sizeBytes);
+
+        // Memory hit: show it now, without the spinner or a trip through the pool
+        Bitmap cached = loader.getCached(cacheKey);
+        if (cached != null) {
+            progressBar.setVisibility(View.GONE);
+            imageView.setVisibility(View.VISIBLE);
+            imageView.setImageBitmap(cached);
+            return;
+        }
+
         progressBar.setVisibility(View.VISIBLE);
         imageView.setVisibility(View.GONE);
         
-        executor.execute(() -> {
-            Bitmap bitmap = null;
-            try {
-                // Load from local file
-                File imageFile = new File(imagePath);
-                if (imageFile.exists()) {
-                    // Create a scaled down version for memory efficiency
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inSampleSize = 2; // Scale down by factor of 2
-                    bitmap = BitmapFactory.decodeFile(imagePath, options);
-                }
-            } catch (Exception e) {
-                bitmap = null;
-            }
-            
-            final Bitmap finalBitmap = bitmap;
-            
-            // Update UI on main thread
-            if (context != null) {
-                context.runOnUiThread(() -> {
-                    progressBar.setVisibility(View.GONE);
-                    imageView.setVisibility(View.VISIBLE);
-                    if (finalBitmap != null) {
-                        imageView.setImageBitmap(finalBitmap);
-                    } else {
-                        imageView.setImageResource(R.drawable.placeholder_image);
+        // Shared pool; callback arrives on the main thread and only while the request is current
+        holder.pendingLoad = loader.load(item.downloadUrl, cacheKey, cellSize, ImageLoader.PRIORITY_VISIBLE,
+                new ImageLoader.Callback() {
+                    @Override
+                    public void onPreview(Bitmap preview) {
+                        progressBar.setVisibility(View.GONE);
+                        imageView.setVisibility(View.VISIBLE);
+                        imageView.setImageBitmap(preview);
+                    }
+
+                    @Override
+                    public void onLoaded(Bitmap bitmap) {
+                        holder.pendingLoad = null;
+                        progressBar.setVisibility(View.GONE);
+                        imageView.setVisibility(View.VISIBLE);
+                        if (bitmap != null) {
+                            imageView.setImageBitmap(bitmap);
+                        } else {
+                            imageView.setImageResource(R.drawable.placeholder_image);
+                        }
                     }
                 });
-            }
-        });
     }
 
     private void showFullImage(String imagePath) {
-        AlertDialog.Builder builder = new AlertDialog.Builder(context);
-
-        ImageView imageView = new ImageView(context);
-        imageView.setScaleType(ImageView.ScaleType.FIT_CENTER);
-        imageView.setPadding(20, 20, 20, 20);
-
-        // Load image directly for full view
-        try {
-            File imageFile = new File(imagePath);
-            if (imageFile.exists()) {
-                Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
-                imageView.setImageBitmap(bitmap);
-            } else {
-                imageView.setImageResource(R.drawable.placeholder_image);
-            }
-        } catch (Exception e) {
-            imageView.setImageResource(R.drawable.placeholder_image);
+        if (!new File(imagePath).exists()) {
+            Toast.makeText(context, "Photo file not found", Toast.LENGTH_SHORT).show();
+            return;
         }
 
-        builder.setView(imageView)
-                .setPositiveButton("Close", (dialog, which) -> dialog.dismiss())
-                .show();
+        // Full screen, pinch/double-tap to zoom; tiles are decoded in the background as needed
+        android.app.Dialog dialog = new android.app.Dialog(context, android.R.style.Theme_Black_NoTitleBar_Fullscreen);
+        TiledImageView imageView = new TiledImageView(context);
+        imageView.setBackgroundColor(0xFF000000);
+        imageView.setImage(imagePath);
+        imageView.setOnClickListener(v -> dialog.dismiss());
+        dialog.setContentView(imageView);
+        dialog.setOnDismissListener(d -> imageView.release());
+        dialog.show();
     }
 
     public static class GalleryViewHolder extends RecyclerView.ViewHolder {
@@ -129,6 +224,7 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryV
         Button deleteButton;
         Button downloadButton;
         ProgressBar loadingBar;
+        ImageLoader.Request pendingLoad;
 
         public GalleryViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -137,5 +233,12 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryV
             downloadButton = itemView.findViewById(R.id.download_button);
             loadingBar = itemView.findViewById(R.id.photo_loading_bar);
         }
+
+        void cancelPendingLoad() {
+            if (pendingLoad != null) {
+                pendingLoad.cancel();
+                pendingLoad = null;
+            }
+        }
     }
 }
\ No newline at end of file
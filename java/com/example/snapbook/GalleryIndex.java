@@ -0,0 +1,339 @@
+package com.example.snapbook;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.BitmapFactory;
+import android.os.FileObserver;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Persistent index of the photos in the gallery directory, so opening the gallery
+// is one ordered query instead of listing and statting every file. It is kept
+// current by a FileObserver while the gallery is open and by reconcile(), which
+// diffs the directory against the index once per launch on a background thread.
+// The database stays open for the helper's lifetime because the observer thread
+// and the loader thread use it concurrently; call close() when done.
+public class GalleryIndex extends SQLiteOpenHelper {
+
+    private static final String TAG = "GalleryIndex";
+    private static final String DATABASE_NAME = "gallery_index.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_PHOTOS = "photos";
+    private static final String COLUMN_PATH = "path";
+    private static final String COLUMN_PHOTO_ID = "photo_id";
+    private static final String COLUMN_SIZE = "size";
+    private static final String COLUMN_MTIME = "mtime";
+    private static final String COLUMN_WIDTH = "width";
+    private static final String COLUMN_HEIGHT = "height";
+    private static final String COLUMN_THUMB_KEY = "thumb_key";
+    private static final String COLUMN_DHASH = "dhash"; // NULL until DuplicateFinder hashes the file
+
+    // Newest first; path breaks mtime ties so pages never overlap or skip rows
+    private static final String ORDER_NEWEST = COLUMN_MTIME + " DESC, " + COLUMN_PATH + " ASC";
+
+    private static final int OBSERVED_EVENTS =
+            FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO | FileObserver.DELETE | FileObserver.MOVED_FROM;
+
+    private FileObserver observer;
+
+    public GalleryIndex(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        // Page reads must not wait behind a long reconcile transaction
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PHOTOS + " (" +
+                COLUMN_PATH + " TEXT PRIMARY KEY, " +
+                COLUMN_PHOTO_ID + " TEXT NOT NULL, " +
+                COLUMN_SIZE + " INTEGER NOT NULL, " +
+                COLUMN_MTIME + " INTEGER NOT NULL, " +
+                COLUMN_WIDTH + " INTEGER NOT NULL, " +
+                COLUMN_HEIGHT + " INTEGER NOT NULL, " +
+                COLUMN_THUMB_KEY + " TEXT NOT NULL, " +
+                COLUMN_DHASH + " INTEGER)");
+        db.execSQL("CREATE INDEX idx_photos_mtime ON " + TABLE_PHOTOS + " (" + COLUMN_MTIME + " DESC)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The index is derived from the directory; rebuild rather than migrate
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PHOTOS);
+        onCreate(db);
+    }
+
+    public static boolean isPhoto(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    }
+
+    // Newest first, straight from the index; touches no photo files
+    public List<GalleryActivity.GalleryItem> loadAll() {
+        List<GalleryActivity.GalleryItem> items = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_PHOTOS, null, null, null, null, null, ORDER_NEWEST);
+        while (cursor.moveToNext()) {
+            items.add(readItem(cursor));
+        }
+        cursor.close();
+        return items;
+    }
+
+    // Photos with no perceptual hash yet; an upsert clears the hash, so this includes changed files
+    public List<GalleryActivity.GalleryItem> loadUnhashed() {
+        return query(COLUMN_DHASH + " IS NULL");
+    }
+
+    public List<GalleryActivity.GalleryItem> loadHashed() {
+        return query(COLUMN_DHASH + " IS NOT NULL");
+    }
+
+    private List<GalleryActivity.GalleryItem> query(String selection) {
+        List<GalleryActivity.GalleryItem> items = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_PHOTOS, null, selection, null, null, null, ORDER_NEWEST);
+        while (cursor.moveToNext()) {
+            items.add(readItem(cursor));
+        }
+        cursor.close();
+        return items;
+    }
+
+    // Stores item.dhash for each item, unless the file was re-indexed (changed) since it was read
+    public void setHashes(List<GalleryActivity.GalleryItem> items) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (GalleryActivity.GalleryItem item : items) {
+                values.put(COLUMN_DHASH, item.dhash);
+                db.update(TABLE_PHOTOS, values,
+                        COLUMN_PATH + "=? AND " + COLUMN_MTIME + "=? AND " + COLUMN_SIZE + "=?",
+                        new String[]{item.downloadUrl, String.valueOf(item.timestamp), String.valueOf(item.sizeBytes)});
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error storing photo hashes", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Identity and version of every photo in display order, without the rest of
+    // the row: 16 bytes a photo, enough to give the grid stable IDs and to diff
+    // one state of the index against the next
+    public static class Keys {
+        public static final Keys EMPTY = new Keys(new long[0], new long[0]);
+
+        public final long[] ids;
+        public final long[] versions;
+
+        Keys(long[] ids, long[] versions) {
+            this.ids = ids;
+            this.versions = versions;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    public Keys loadKeys() {
+        Cursor cursor = getReadableDatabase().query(TABLE_PHOTOS, new String[]{COLUMN_PATH, COLUMN_MTIME, COLUMN_SIZE},
+                null, null, null, null, ORDER_NEWEST);
+        long[] ids = new long[cursor.getCount()];
+        long[] versions = new long[ids.length];
+        for (int i = 0; cursor.moveToNext() && i < ids.length; i++) {
+            ids[i] = stableId(cursor.getString(0));
+            versions[i] = version(cursor.getLong(1), cursor.getLong(2));
+        }
+        cursor.close();
+        return new Keys(ids, versions);
+    }
+
+    public static long version(long mtime, long size) {
+        return mtime * 31 + size;
+    }
+
+    // 64-bit FNV-1a of the path; collisions across one gallery are not a practical concern
+    public static long stableId(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // One window of the newest-first order, for GalleryPager
+    public List<GalleryActivity.GalleryItem> loadRange(int offset, int limit) {
+        List<GalleryActivity.GalleryItem> items = new ArrayList<>(limit);
+        Cursor cursor = getReadableDatabase().query(TABLE_PHOTOS, null, null, null, null, null, ORDER_NEWEST,
+                offset + "," + limit);
+        while (cursor.moveToNext()) {
+            items.add(readItem(cursor));
+        }
+        cursor.close();
+        return items;
+    }
+
+    private static GalleryActivity.GalleryItem readItem(Cursor cursor) {
+        GalleryActivity.GalleryItem item = new GalleryActivity.GalleryItem(
+                cursor.getString(cursor.getColumnIndex(COLUMN_PHOTO_ID)),
+                cursor.getString(cursor.getColumnIndex(COLUMN_PATH)),
+                cursor.getLong(cursor.getColumnIndex(COLUMN_MTIME)));
+        item.sizeBytes = cursor.getLong(cursor.getColumnIndex(COLUMN_SIZE));
+        item.width = cursor.getInt(cursor.getColumnIndex(COLUMN_WIDTH));
+        item.height = cursor.getInt(cursor.getColumnIndex(COLUMN_HEIGHT));
+        int hashColumn = cursor.getColumnIndex(COLUMN_DHASH);
+        if (hashColumn >= 0 && !cursor.isNull(hashColumn)) {
+            item.dhash = cursor.getLong(hashColumn);
+        }
+        return item;
+    }
+
+    // Bring the index in line with the directory. Only new or changed files are
+    // opened (for their dimensions); returns true if anything changed.
+    public boolean reconcile(File dir) {
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("gallery_index.reconcile");
+        SQLiteDatabase db = getWritableDatabase();
+        try {
+            Map<String, long[]> indexed = new HashMap<>();
+            Cursor cursor = db.query(TABLE_PHOTOS, new String[]{COLUMN_PATH, COLUMN_SIZE, COLUMN_MTIME},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                indexed.put(cursor.getString(0), new long[]{cursor.getLong(1), cursor.getLong(2)});
+            }
+            cursor.close();
+
+            File[] files = dir != null ? dir.listFiles((d, name) -> isPhoto(name)) : null;
+            int changes = 0;
+            db.beginTransaction();
+            try {
+                if (files != null) {
+                    for (File file : files) {
+                        long[] known = indexed.remove(file.getAbsolutePath());
+                        if (known == null || known[0] != file.length() || known[1] != file.lastModified()) {
+                            upsert(db, file);
+                            changes++;
+                        }
+                    }
+                }
+                for (String missing : indexed.keySet()) {
+                    db.delete(TABLE_PHOTOS, COLUMN_PATH + "=?", new String[]{missing});
+                    changes++;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            MetricsRegistry.getInstance().increment("gallery_index.reconcile_changes", changes);
+            return changes > 0;
+        } catch (Exception e) {
+            Log.e(TAG, "Error reconciling gallery index", e);
+            return false;
+        } finally {
+            span.end();
+        }
+    }
+
+    public void upsert(File file) {
+        try {
+            upsert(getWritableDatabase(), file);
+        } catch (Exception e) {
+            Log.e(TAG, "Error indexing " + file, e);
+        }
+    }
+
+    private static void upsert(SQLiteDatabase db, File file) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+
+        String name = file.getName();
+        long size = file.length();
+        long mtime = file.lastModified();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PATH, file.getAbsolutePath());
+        values.put(COLUMN_PHOTO_ID, name.replace(".jpg", "").replace(".jpeg", ""));
+        values.put(COLUMN_SIZE, size);
+        values.put(COLUMN_MTIME, mtime);
+        values.put(COLUMN_WIDTH, Math.max(0, bounds.outWidth));
+        values.put(COLUMN_HEIGHT, Math.max(0, bounds.outHeight));
+        values.put(COLUMN_THUMB_KEY, ThumbnailCache.keyFor(file.getAbsolutePath(), mtime, size));
+        db.insertWithOnConflict(TABLE_PHOTOS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public void remove(String path) {
+        removeAll(java.util.Collections.singletonList(path));
+    }
+
+    public void removeAll(Collection<String> paths) {
+        update(paths, java.util.Collections.emptyList());
+    }
+
+    // Removals and additions from one bulk step, in a single transaction
+    public void update(Collection<String> removedPaths, Collection<File> addedFiles) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String path : removedPaths) {
+                db.delete(TABLE_PHOTOS, COLUMN_PATH + "=?", new String[]{path});
+            }
+            for (File file : addedFiles) {
+                upsert(db, file);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating gallery index", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Keep the index current while the gallery is showing. onChange runs on the
+    // observer's thread after the index has been updated.
+    public synchronized void startWatching(File dir, Runnable onChange) {
+        stopWatching();
+        if (dir == null) return;
+
+        final String dirPath = dir.getAbsolutePath();
+        observer = new FileObserver(dirPath, OBSERVED_EVENTS) {
+            @Override
+            public void onEvent(int event, String name) {
+                if (name == null || !isPhoto(name)) return;
+
+                File file = new File(dirPath, name);
+                if ((event & (FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO)) != 0) {
+                    upsert(file);
+                } else {
+                    remove(file.getAbsolutePath());
+                }
+                onChange.run();
+            }
+        };
+        observer.startWatching();
+    }
+
+    public synchronized void stopWatching() {
+        if (observer != null) {
+            observer.stopWatching();
+            observer = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        stopWatching();
+        super.close();
+    }
+}
\ No newline at end of file
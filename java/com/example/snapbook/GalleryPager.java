@@ -0,0 +1,132 @@
+package com.example.snapbook;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+// Windowed view of the gallery index for the grid. Only the keys (stable ID and
+// version per position, see GalleryIndex.Keys) are held for every photo; items
+// are read from the index a page at a time when a position is first asked for,
+// and only the most recently used pages stay in memory. A page read after the
+// index moved on no longer lines up with the keys, so it is dropped and the page
+// stays empty until the refreshed keys arrive in reset(). Main thread only.
+public class GalleryPager {
+
+    private static final String TAG = "GalleryPager";
+
+    public static final int PAGE_SIZE = 60;
+    private static final int MAX_RESIDENT_PAGES = 6;
+
+    // A page finished loading; positions [start, start + count) now have items
+    public interface Listener {
+        void onRangeLoaded(int start, int count);
+    }
+
+    private final GalleryIndex index;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<Integer, List<GalleryActivity.GalleryItem>> pages = new LruCache<>(MAX_RESIDENT_PAGES);
+    private final Set<Integer> loading = new HashSet<>(); // Also holds stale pages until the next reset
+    private Listener listener;
+    private GalleryIndex.Keys keys = GalleryIndex.Keys.EMPTY;
+    private int generation = 0; // Bumped on reset so loads for the old contents are ignored
+
+    public GalleryPager(GalleryIndex index, ExecutorService executor) {
+        this.index = index;
+        this.executor = executor;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Point the pager at new index contents, optionally with page 0 already read
+    public void reset(GalleryIndex.Keys keys, List<GalleryActivity.GalleryItem> firstPage) {
+        this.keys = keys;
+        generation++;
+        pages.evictAll();
+        loading.clear();
+        if (firstPage != null) {
+            pages.put(0, firstPage);
+        }
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public long getItemId(int position) {
+        return keys.ids[position];
+    }
+
+    // Item at the position, or null while its page loads (the listener fires when it lands)
+    public GalleryActivity.GalleryItem get(int position) {
+        GalleryActivity.GalleryItem item = peek(position);
+        if (item == null && position >= 0 && position < keys.size()) {
+            loadPage(position / PAGE_SIZE);
+        }
+        return item;
+    }
+
+    // Item if its page is resident; never starts a load
+    public GalleryActivity.GalleryItem peek(int position) {
+        List<GalleryActivity.GalleryItem> page = pages.get(position / PAGE_SIZE);
+        if (page == null) return null;
+        int offset = position % PAGE_SIZE;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    private void loadPage(int page) {
+        if (!loading.add(page)) return;
+
+        final int loadGeneration = generation;
+        final GalleryIndex.Keys loadKeys = keys;
+        executor.execute(() -> {
+            MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("gallery.page_load");
+            List<GalleryActivity.GalleryItem> items;
+            try {
+                items = index.loadRange(page * PAGE_SIZE, PAGE_SIZE);
+                if (!matches(loadKeys, page * PAGE_SIZE, items)) {
+                    MetricsRegistry.getInstance().increment("gallery.stale_pages");
+                    return;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading gallery page " + page, e);
+                items = null;
+            } finally {
+                span.end();
+            }
+
+            final List<GalleryActivity.GalleryItem> loaded = items;
+            mainHandler.post(() -> {
+                if (loadGeneration != generation) return;
+                loading.remove(page);
+                if (loaded == null) return;
+
+                pages.put(page, loaded);
+                if (listener != null) {
+                    listener.onRangeLoaded(page * PAGE_SIZE, loaded.size());
+                }
+            });
+        });
+    }
+
+    // True if the items are exactly the photos (and versions) the keys list from 'start' on
+    public static boolean matches(GalleryIndex.Keys keys, int start, List<GalleryActivity.GalleryItem> items) {
+        int expected = Math.max(0, Math.min(PAGE_SIZE, keys.size() - start));
+        if (items.size() != expected) return false;
+        for (int i = 0; i < items.size(); i++) {
+            GalleryActivity.GalleryItem item = items.get(i);
+            if (GalleryIndex.stableId(item.downloadUrl) != keys.ids[start + i]
+                    || GalleryIndex.version(item.timestamp, item.sizeBytes) != keys.versions[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
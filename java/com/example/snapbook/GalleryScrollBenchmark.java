@@ -0,0 +1,146 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+import androidx.recyclerview.widget.RecyclerView;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+// Debug-only scroll benchmark for the thumbnail cache. Seeds the gallery directory with
+// PHOTO_COUNT generated JPEGs, scrolls the grid to the bottom and back at a fixed speed,
+// then logs the cache hit rate and image_loader.decode latency of each pass and dumps
+// MetricsRegistry to a CSV (adb logcat -s GalleryScrollBenchmark). Debug builds start it
+// with a long press on the gallery's Duplicates button. The bench_*.jpg files are kept,
+// so a second run measures a warm disk cache; Clear in the gallery removes them.
+class GalleryScrollBenchmark {
+
+    private static final String TAG = "GalleryScrollBenchmark";
+
+    static final int PHOTO_COUNT = 5000;
+
+    private static final String FILE_PREFIX = "bench_";
+    private static final int PHOTO_WIDTH = 2048;
+    private static final int PHOTO_HEIGHT = 1536;
+    private static final int SCROLL_PX_PER_FRAME = 160;
+    private static final long WAIT_POLL_MS = 500;
+
+    private final GalleryActivity activity;
+    private final RecyclerView grid;
+    private final File photoDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long passStart;
+
+    GalleryScrollBenchmark(GalleryActivity activity, RecyclerView grid, File photoDir) {
+        this.activity = activity;
+        this.grid = grid;
+        this.photoDir = photoDir;
+    }
+
+    // Seeds on the given executor, then runs onSeeded on the main thread; it should
+    // reconcile the index so the grid picks the photos up
+    void start(Executor seedExecutor, Runnable onSeeded) {
+        Toast.makeText(activity, "Seeding " + PHOTO_COUNT + " photos for the scroll benchmark",
+                Toast.LENGTH_SHORT).show();
+        seedExecutor.execute(() -> {
+            try {
+                seed();
+            } catch (IOException e) {
+                Log.e(TAG, "Error seeding benchmark photos", e);
+                return;
+            }
+            mainHandler.post(() -> {
+                onSeeded.run();
+                waitForGrid();
+            });
+        });
+    }
+
+    // One encoded photo written under PHOTO_COUNT names; each file is its own cache key
+    private void seed() throws IOException {
+        Bitmap photo = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, PHOTO_WIDTH, PHOTO_HEIGHT,
+                Color.rgb(214, 160, 96), Color.rgb(48, 72, 120), Shader.TileMode.CLAMP));
+        new Canvas(photo).drawRect(0, 0, PHOTO_WIDTH, PHOTO_HEIGHT, paint);
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        photo.compress(Bitmap.CompressFormat.JPEG, 90, jpeg);
+        photo.recycle();
+        byte[] bytes = jpeg.toByteArray();
+
+        if (!photoDir.exists()) photoDir.mkdirs();
+        for (int i = 0; i < PHOTO_COUNT; i++) {
+            File file = new File(photoDir, String.format(Locale.US, "%s%05d.jpg", FILE_PREFIX, i));
+            if (file.exists()) continue;
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private void waitForGrid() {
+        if (activity.isDestroyed()) return;
+        RecyclerView.Adapter<?> adapter = grid.getAdapter();
+        if (adapter == null || adapter.getItemCount() < PHOTO_COUNT) {
+            mainHandler.postDelayed(this::waitForGrid, WAIT_POLL_MS);
+            return;
+        }
+
+        grid.scrollToPosition(0);
+        startPass(1);
+    }
+
+    private void startPass(int direction) {
+        MetricsRegistry.getInstance().reset();
+        passStart = MetricsRegistry.now();
+        grid.postOnAnimation(() -> scrollFrame(direction));
+    }
+
+    // Scrolls one step per frame until the grid cannot move any further
+    private void scrollFrame(int direction) {
+        if (activity.isDestroyed()) return;
+        if (grid.canScrollVertically(direction)) {
+            grid.scrollBy(0, direction * SCROLL_PX_PER_FRAME);
+            grid.postOnAnimation(() -> scrollFrame(direction));
+            return;
+        }
+
+        // Let the last cells finish loading before reading the counters
+        mainHandler.postDelayed(() -> {
+            report(direction > 0 ? "down" : "up");
+            if (direction > 0) {
+                startPass(-1);
+            } else {
+                MetricsRegistry.getInstance().dumpToFile(activity);
+                Toast.makeText(activity, "Scroll benchmark done, see logcat", Toast.LENGTH_SHORT).show();
+            }
+        }, 1000);
+    }
+
+    private void report(String pass) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        MetricsRegistry.Histogram decode = metrics.getHistogram("image_loader.decode");
+        double seconds = (MetricsRegistry.now() - passStart) / 1e9;
+        Log.i(TAG, String.format(Locale.US,
+                "pass=%s photos=%d seconds=%.1f hit_rate=%.3f memory_hits=%d disk_hits=%d misses=%d "
+                        + "decodes=%d decode_p50_ms=%.2f decode_p95_ms=%.2f decode_max_ms=%.2f",
+                pass, PHOTO_COUNT, seconds, ImageLoader.getInstance(activity).getCache().getHitRate(),
+                metrics.getCounter("thumb_cache.memory_hits"), metrics.getCounter("thumb_cache.disk_hits"),
+                metrics.getCounter("thumb_cache.misses"),
+                decode != null ? decode.getCount() : 0,
+                decode != null ? decode.getPercentile(50) : 0,
+                decode != null ? decode.getPercentile(95) : 0,
+                decode != null ? decode.getMax() : 0));
+    }
+}
\ No newline at end of file
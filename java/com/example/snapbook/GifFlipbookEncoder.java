@@ -0,0 +1,204 @@
+package com.example.snapbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Incremental looping GIF writer. Frames are mapped through a shared palette and
+// LZW-compressed as they are added; only the current frame's indices are kept.
+public class GifFlipbookEncoder {
+
+    private static final int MAX_CODE = 4096;
+    private static final int HASH_SIZE = 5003;
+    private static final int MIN_CODE_SIZE = 8;
+    private static final int CLEAR_CODE = 1 << MIN_CODE_SIZE;
+    private static final int END_CODE = CLEAR_CODE + 1;
+
+    private final OutputStream out;
+    private int width;
+    private int height;
+    private int delayCentis;
+    private MedianCutPalette palette;
+    private byte[] indices;
+
+    // LZW state
+    private final int[] hashKeys = new int[HASH_SIZE];
+    private final int[] hashCodes = new int[HASH_SIZE];
+    private int codeSize;
+    private int nextCode;
+    private int bitBuffer;
+    private int bitCount;
+    private final byte[] block = new byte[255];
+    private int blockLength;
+
+    public GifFlipbookEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    public void begin(int width, int height, MedianCutPalette palette, int frameDelayMs, int loopCount)
+            throws IOException {
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        this.delayCentis = Math.max(1, frameDelayMs / 10);
+        this.indices = new byte[width * height];
+
+        out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(width);
+        writeShort(height);
+        out.write(0xF7); // Global color table, 8-bit color resolution, 256 entries
+        out.write(0);    // Background color index
+        out.write(0);    // Pixel aspect ratio
+
+        int[] colors = palette.getColors();
+        for (int i = 0; i < 256; i++) {
+            int color = i < colors.length ? colors[i] : 0;
+            out.write((color >> 16) & 0xFF);
+            out.write((color >> 8) & 0xFF);
+            out.write(color & 0xFF);
+        }
+
+        // NETSCAPE2.0 application extension makes the animation loop
+        out.write(0x21);
+        out.write(0xFF);
+        out.write(11);
+        out.write(new byte[]{'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0'});
+        out.write(3);
+        out.write(1);
+        writeShort(loopCount);
+        out.write(0);
+    }
+
+    public void addFrame(int[] argb) throws IOException {
+        int pixelCount = width * height;
+        for (int i = 0; i < pixelCount; i++) {
+            indices[i] = (byte) palette.getIndex(argb[i]);
+        }
+
+        // Graphic control extension - frame delay, no transparency
+        out.write(0x21);
+        out.write(0xF9);
+        out.write(4);
+        out.write(0x04); // Disposal: do not dispose
+        writeShort(delayCentis);
+        out.write(0);
+        out.write(0);
+
+        // Image descriptor covering the full canvas, using the global palette
+        out.write(0x2C);
+        writeShort(0);
+        writeShort(0);
+        writeShort(width);
+        writeShort(height);
+        out.write(0);
+
+        out.write(MIN_CODE_SIZE);
+        compress(indices, pixelCount);
+        out.write(0); // Block terminator
+    }
+
+    public void finish() throws IOException {
+        out.write(0x3B);
+        out.flush();
+    }
+
+    private void compress(byte[] pixels, int count) throws IOException {
+        bitBuffer = 0;
+        bitCount = 0;
+        blockLength = 0;
+        resetTable();
+        writeCode(CLEAR_CODE);
+
+        int prefix = pixels[0] & 0xFF;
+        for (int i = 1; i < count; i++) {
+            int c = pixels[i] & 0xFF;
+            int key = (prefix << 8) | c;
+
+            int code = lookup(key);
+            if (code >= 0) {
+                prefix = code;
+                continue;
+            }
+
+            writeCode(prefix);
+            if (nextCode < MAX_CODE) {
+                insert(key, nextCode++);
+                // The decoder lags one code behind, so widen once nextCode passes the limit
+                if (nextCode > (1 << codeSize) && codeSize < 12) {
+                    codeSize++;
+                }
+            } else {
+                writeCode(CLEAR_CODE);
+                resetTable();
+            }
+            prefix = c;
+        }
+
+        writeCode(prefix);
+        writeCode(END_CODE);
+
+        if (bitCount > 0) {
+            addByte(bitBuffer & 0xFF);
+        }
+        flushBlock();
+    }
+
+    private void resetTable() {
+        Arrays.fill(hashKeys, -1);
+        codeSize = MIN_CODE_SIZE + 1;
+        nextCode = END_CODE + 1;
+    }
+
+    private int lookup(int key) {
+        int slot = hash(key);
+        while (hashKeys[slot] != -1) {
+            if (hashKeys[slot] == key) return hashCodes[slot];
+            slot = (slot + 1) % HASH_SIZE;
+        }
+        return -1;
+    }
+
+    private void insert(int key, int code) {
+        int slot = hash(key);
+        while (hashKeys[slot] != -1) {
+            slot = (slot + 1) % HASH_SIZE;
+        }
+        hashKeys[slot] = key;
+        hashCodes[slot] = code;
+    }
+
+    private static int hash(int key) {
+        return ((key * 0x9E3779B1) >>> 1) % HASH_SIZE;
+    }
+
+    // GIF packs codes least significant bit first
+    private void writeCode(int code) throws IOException {
+        bitBuffer |= code << bitCount;
+        bitCount += codeSize;
+        while (bitCount >= 8) {
+            addByte(bitBuffer & 0xFF);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void addByte(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+        if (blockLength == block.length) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockLength > 0) {
+            out.write(blockLength);
+            out.write(block, 0, blockLength);
+            blockLength = 0;
+        }
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+}
\ No newline at end of file
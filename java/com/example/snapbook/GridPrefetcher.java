@@ -0,0 +1,151 @@
+package com.example.snapbook;
+
+import android.os.SystemClock;
+import android.view.View;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.List;
+
+// Warms the thumbnail cache for the rows just past the edge of a grid in the
+// direction it is scrolling. During a fast fling nothing is prefetched (the rows
+// would be skipped anyway); once it slows, the lookahead depth is picked from the
+// scroll speed and the loader's measured decode time, so slow devices do not
+// queue rows they could not finish in time.
+public class GridPrefetcher extends RecyclerView.OnScrollListener {
+
+    // Implemented by adapters; starts a PRIORITY_PREFETCH load for the position, or returns null if cached
+    public interface Source {
+        ImageLoader.Request prefetch(int position);
+    }
+
+    private static final int MIN_ROWS = 1;
+    private static final int MAX_ROWS = 6;
+    // How far ahead of the viewport a prefetch should land, in scroll time
+    private static final long LOOKAHEAD_MS = 600;
+    // Faster than this (in dp per second) counts as a fling and pauses prefetching
+    private static final float FLING_DP_PER_SECOND = 3000f;
+
+    private final GridLayoutManager layoutManager;
+    private final Source source;
+    private final ImageLoader loader;
+    private final float flingPxPerSecond;
+
+    private final List<ImageLoader.Request> pending = new ArrayList<>();
+    private int direction = 0;
+    private int prefetchedUpTo = RecyclerView.NO_POSITION; // Furthest position requested in the current direction
+    private long lastScrollTime = 0;
+    private float velocity = 0; // px/s, smoothed
+
+    public GridPrefetcher(RecyclerView recyclerView, Source source, ImageLoader loader) {
+        this.layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+        this.source = source;
+        this.loader = loader;
+        this.flingPxPerSecond = FLING_DP_PER_SECOND * recyclerView.getResources().getDisplayMetrics().density;
+    }
+
+    public static GridPrefetcher attach(RecyclerView recyclerView, Source source, ImageLoader loader) {
+        GridPrefetcher prefetcher = new GridPrefetcher(recyclerView, source, loader);
+        recyclerView.addOnScrollListener(prefetcher);
+        return prefetcher;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) return;
+
+        long now = SystemClock.uptimeMillis();
+        if (lastScrollTime > 0 && now > lastScrollTime) {
+            float instant = Math.abs(dy) * 1000f / (now - lastScrollTime);
+            velocity = velocity * 0.6f + instant * 0.4f;
+        }
+        lastScrollTime = now;
+
+        int newDirection = dy > 0 ? 1 : -1;
+        if (newDirection != direction) {
+            // Rows queued for the other direction are no longer ahead of us
+            cancelPending();
+            direction = newDirection;
+            prefetchedUpTo = RecyclerView.NO_POSITION;
+        }
+
+        if (velocity > flingPxPerSecond) {
+            MetricsRegistry.getInstance().increment("prefetch.paused_for_fling");
+            return;
+        }
+        prefetch(recyclerView);
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            // Fling over: prefetch at the resting position with the minimum speed-based depth
+            velocity = 0;
+            lastScrollTime = 0;
+            if (direction != 0) {
+                prefetch(recyclerView);
+            }
+        }
+    }
+
+    public void cancelPending() {
+        for (ImageLoader.Request request : pending) {
+            request.cancel();
+        }
+        pending.clear();
+    }
+
+    private void prefetch(RecyclerView recyclerView) {
+        int itemCount = layoutManager.getItemCount();
+        int spanCount = layoutManager.getSpanCount();
+        int edge = direction > 0
+                ? layoutManager.findLastVisibleItemPosition()
+                : layoutManager.findFirstVisibleItemPosition();
+        if (edge == RecyclerView.NO_POSITION || itemCount == 0) return;
+
+        int rows = lookaheadRows(recyclerView, spanCount);
+        int limit = direction > 0
+                ? Math.min(itemCount - 1, edge + rows * spanCount)
+                : Math.max(0, edge - rows * spanCount);
+
+        int start = edge + direction;
+        if (prefetchedUpTo != RecyclerView.NO_POSITION) {
+            // Skip what an earlier pass already asked for
+            start = direction > 0 ? Math.max(start, prefetchedUpTo + 1) : Math.min(start, prefetchedUpTo - 1);
+        }
+
+        for (int position = start; direction > 0 ? position <= limit : position >= limit; position += direction) {
+            ImageLoader.Request request = source.prefetch(position);
+            if (request != null) {
+                pending.add(request);
+                MetricsRegistry.getInstance().increment("prefetch.requests");
+            }
+            prefetchedUpTo = position;
+        }
+        prunePending();
+    }
+
+    // Enough rows to cover LOOKAHEAD_MS of scrolling at the current speed, but no
+    // more than the loader can decode in that time
+    private int lookaheadRows(RecyclerView recyclerView, int spanCount) {
+        View first = recyclerView.getChildAt(0);
+        int rowHeight = first != null ? Math.max(1, first.getHeight()) : 1;
+        int scrollRows = (int) Math.ceil(velocity * LOOKAHEAD_MS / 1000f / rowHeight) + 1;
+
+        double decodeMs = Math.max(1, loader.getAverageDecodeMillis());
+        int decodableRows = (int) (LOOKAHEAD_MS * loader.getThreadCount() / (decodeMs * spanCount));
+
+        int rows = Math.max(MIN_ROWS, Math.min(MAX_ROWS, Math.min(scrollRows, decodableRows)));
+        MetricsRegistry.getInstance().setGauge("prefetch.depth_rows", rows);
+        return rows;
+    }
+
+    private void prunePending() {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).isDone()) {
+                pending.remove(i);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,289 @@
+package com.example.snapbook;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shared, bounded loader for grid thumbnails. A fixed pool of decode threads pulls
+// from one priority queue: visible cells before prefetches, and within a priority
+// the newest request first, so after a scroll the cells now on screen load before
+// the ones that were scrolled past. The queue is capped by dropping the oldest,
+// lowest-priority request. Results go through a ThumbnailCache, so a photo is
+// decoded from its full JPEG at most once per change. Every load returns a Request
+// the caller cancels when its view is rebound or recycled; a cancelled request is
+// pulled from the queue before decode starts, and its result is never delivered.
+public class ImageLoader {
+
+    private static final String TAG = "ImageLoader";
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+
+    private static final int MAX_QUEUED = 96;
+    // An embedded EXIF thumbnail that covers the cell is used and cached; a smaller one
+    // covering at least this much of it is only shown while the sampled decode runs
+    private static final float MIN_EXIF_PREVIEW_COVERAGE = 0.5f;
+    private static final int THREAD_COUNT =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static ImageLoader instance;
+
+    // Called on the main thread with the decoded bitmap, or null if it could not be read.
+    // onPreview() may come first with a low-resolution stand-in; onLoaded() always follows.
+    public interface Callback {
+        void onLoaded(Bitmap bitmap);
+
+        default void onPreview(Bitmap preview) {
+        }
+    }
+
+    private final ThumbnailCache cache;
+    // Handle for one load. Cancelling is idempotent and safe from any thread.
+    public class Request {
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private Task task;
+
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            if (task != null && queue.remove(task)) {
+                // Never started, so this is a decode we did not waste
+                MetricsRegistry.getInstance().increment("image_loader.cancelled_before_decode");
+                updateGauges();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Finished, cancelled or dropped from the queue; nothing more will happen
+        public boolean isDone() {
+            return done || cancelled;
+        }
+    }
+
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile double averageLoadMillis = 30; // Smoothed; seeded with a typical mid-range decode
+
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageLoader(new File(context.getApplicationContext().getCacheDir(), "thumbnails"));
+        }
+        return instance;
+    }
+
+    private ImageLoader(File thumbnailDir) {
+        cache = new ThumbnailCache(thumbnailDir);
+        executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 30, TimeUnit.SECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "ImageLoader");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Memory-cached thumbnail for the key, or null. Safe on the main thread, so a
+    // hit can be shown during bind with no spinner and no task.
+    public Bitmap getCached(String cacheKey) {
+        return cache.getFromMemory(cacheKey);
+    }
+
+    public ThumbnailCache getCache() {
+        return cache;
+    }
+
+    // cacheKey comes from ThumbnailCache.keyFor() for the same photo; cellSize is the
+    // long edge of the view the thumbnail is shown in
+    public Request load(String imagePath, String cacheKey, int cellSize, int priority, Callback callback) {
+        Request request = new Request();
+        request.task = new Task(request, imagePath, cacheKey, cellSize, priority, sequence.incrementAndGet(), callback);
+        // execute() rather than submit(): the queue orders Task itself, not a FutureTask wrapper
+        executor.execute(request.task);
+        trimQueue();
+        updateGauges();
+        return request;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    public int getThreadCount() {
+        return THREAD_COUNT;
+    }
+
+    // Recent average time to produce a thumbnail, across cache hits and decodes
+    public double getAverageDecodeMillis() {
+        return averageLoadMillis;
+    }
+
+    // Warm the cache for a photo without a callback; skipped if it is already in memory
+    public Request prefetch(String imagePath, String cacheKey, int cellSize) {
+        if (cache.isInMemory(cacheKey)) return null;
+        return load(imagePath, cacheKey, cellSize, PRIORITY_PREFETCH, null);
+    }
+
+    private void trimQueue() {
+        while (queue.size() > MAX_QUEUED) {
+            Task worst = null;
+            for (Iterator<Runnable> it = queue.iterator(); it.hasNext(); ) {
+                Task task = (Task) it.next();
+                if (worst == null || task.compareTo(worst) > 0) {
+                    worst = task;
+                }
+            }
+            if (worst == null || !queue.remove(worst)) return;
+            worst.request.cancelled = true;
+            MetricsRegistry.getInstance().increment("image_loader.dropped");
+        }
+    }
+
+    private void updateGauges() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.setGauge("image_loader.in_flight", inFlight.get());
+        metrics.setGauge("image_loader.queued", queue.size());
+    }
+
+    private Bitmap loadThumbnail(Task task) {
+        String imagePath = task.imagePath;
+        String cacheKey = task.cacheKey;
+        Bitmap thumbnail = cache.getFromDisk(cacheKey);
+        if (thumbnail != null) return thumbnail;
+
+        // Small cells can usually make do with the thumbnail embedded in the JPEG. It is
+        // only kept if it covers the cell, so the cache never pins a blurry thumbnail.
+        int minLongEdge = task.callback != null
+                ? Math.round(task.cellSize * MIN_EXIF_PREVIEW_COVERAGE)
+                : task.cellSize;
+        Bitmap exifThumbnail;
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("image_loader.exif_thumbnail");
+        try {
+            exifThumbnail = BitmapDecoder.decodeExifThumbnail(imagePath, minLongEdge);
+        } finally {
+            span.end();
+        }
+        if (exifThumbnail != null) {
+            if (Math.max(exifThumbnail.getWidth(), exifThumbnail.getHeight()) >= task.cellSize) {
+                MetricsRegistry.getInstance().increment("image_loader.exif_thumbnails");
+                thumbnail = exifThumbnail;
+            } else {
+                MetricsRegistry.getInstance().increment("image_loader.exif_previews");
+                task.deliverPreview(exifThumbnail);
+            }
+        }
+
+        if (thumbnail == null) {
+            thumbnail = decodeThumbnail(imagePath);
+        }
+        if (thumbnail != null) {
+            cache.putInMemory(cacheKey, thumbnail);
+            cache.putOnDisk(cacheKey, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    private Bitmap decodeThumbnail(String imagePath) {
+        File imageFile = new File(imagePath);
+        if (!imageFile.exists()) return null;
+
+        Bitmap decoded = BitmapDecoder.decodeToFit(imagePath, ThumbnailCache.THUMBNAIL_SIZE, ThumbnailCache.THUMBNAIL_SIZE);
+        if (decoded == null) return null;
+        // Keep the sampled decode upright like the EXIF path
+        return BitmapDecoder.applyOrientation(decoded, BitmapDecoder.readOrientation(imagePath));
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        final Request request;
+        final String imagePath;
+        final String cacheKey;
+        final int cellSize;
+        final int priority;
+        final long sequence;
+        final Callback callback;
+
+        Task(Request request, String imagePath, String cacheKey, int cellSize, int priority, long sequence,
+             Callback callback) {
+            this.request = request;
+            this.imagePath = imagePath;
+            this.cacheKey = cacheKey;
+            this.cellSize = cellSize;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+
+        // Lower priority value first, then newest first
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) return Integer.compare(priority, other.priority);
+            return Long.compare(other.sequence, sequence);
+        }
+
+        @Override
+        public void run() {
+            // Cancelled between being taken off the queue and starting
+            if (request.isCancelled()) {
+                MetricsRegistry.getInstance().increment("image_loader.cancelled_before_decode");
+                return;
+            }
+
+            inFlight.incrementAndGet();
+            updateGauges();
+            MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("image_loader.decode");
+            long start = MetricsRegistry.now();
+            Bitmap bitmap = null;
+            try {
+                bitmap = loadThumbnail(this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error decoding " + imagePath, e);
+            } finally {
+                span.end();
+                averageLoadMillis = averageLoadMillis * 0.8 + (MetricsRegistry.now() - start) / 1e6 * 0.2;
+                request.done = true;
+                inFlight.decrementAndGet();
+                updateGauges();
+            }
+
+            // The thumbnail is cached either way; only delivery is dropped
+            final Bitmap result = bitmap;
+            if (callback != null && !request.isCancelled()) {
+                mainHandler.post(() -> {
+                    if (request.isCancelled()) {
+                        MetricsRegistry.getInstance().increment("image_loader.results_dropped");
+                        return;
+                    }
+                    callback.onLoaded(result);
+                });
+            }
+        }
+
+        // First paint for a cell still waiting on its decode; never cached
+        void deliverPreview(Bitmap preview) {
+            if (callback == null || request.isCancelled()) return;
+            mainHandler.post(() -> {
+                if (!request.isCancelled() && !request.done) {
+                    callback.onPreview(preview);
+                }
+            });
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,385 @@
+package com.example.snapbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Baseline JPEG writer (YCbCr 4:4:4, standard Huffman tables). Incoming rows
+// are buffered until a full 8-row MCU row is available, which is then encoded
+// and written out, so memory stays at one MCU row regardless of image height.
+public class JpegBandEncoder extends BandedImageEncoder {
+
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static final int[] LUMA_QUANT = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    private static final int[] CHROMA_QUANT = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    // Standard Huffman tables from ITU T.81 Annex K.3
+    private static final int[] DC_LUMA_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_LUMA_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] DC_CHROMA_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private static final int[] AC_LUMA_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMA_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    private static final int[] AC_CHROMA_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    // cosTable[u * 8 + x] = C(u) / 2 * cos((2x + 1) * u * pi / 16)
+    private static final float[] COS_TABLE = new float[64];
+
+    static {
+        for (int u = 0; u < 8; u++) {
+            double scale = (u == 0 ? Math.sqrt(0.5) : 1.0) / 2.0;
+            for (int x = 0; x < 8; x++) {
+                COS_TABLE[u * 8 + x] = (float) (scale * Math.cos((2 * x + 1) * u * Math.PI / 16.0));
+            }
+        }
+    }
+
+    private final int quality;
+    private final int[] lumaQuant = new int[64];
+    private final int[] chromaQuant = new int[64];
+
+    private final HuffmanTable dcLuma = new HuffmanTable(DC_LUMA_BITS, DC_LUMA_VALUES);
+    private final HuffmanTable acLuma = new HuffmanTable(AC_LUMA_BITS, AC_LUMA_VALUES);
+    private final HuffmanTable dcChroma = new HuffmanTable(DC_CHROMA_BITS, DC_CHROMA_VALUES);
+    private final HuffmanTable acChroma = new HuffmanTable(AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+    private int[] mcuRows;
+    private int bufferedRows;
+
+    private final float[] yBlock = new float[64];
+    private final float[] cbBlock = new float[64];
+    private final float[] crBlock = new float[64];
+    private final float[] dctTemp = new float[64];
+    private final int[] quantized = new int[64];
+    private int prevDcY, prevDcCb, prevDcCr;
+
+    private long bitBuffer;
+    private int bitCount;
+
+    public JpegBandEncoder(OutputStream out, int quality) {
+        super(out);
+        this.quality = Math.max(1, Math.min(100, quality));
+        scaleQuantTable(LUMA_QUANT, lumaQuant);
+        scaleQuantTable(CHROMA_QUANT, chromaQuant);
+    }
+
+    // IJG quality scaling of the Annex K tables
+    private void scaleQuantTable(int[] base, int[] target) {
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        for (int i = 0; i < 64; i++) {
+            target[i] = Math.max(1, Math.min(255, (base[i] * scale + 50) / 100));
+        }
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        mcuRows = new int[width * 8];
+        bufferedRows = 0;
+        prevDcY = prevDcCb = prevDcCr = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+
+        // SOI
+        writeMarker(0xD8);
+
+        // APP0 / JFIF
+        writeMarker(0xE0);
+        writeShort(16);
+        out.write(new byte[]{'J', 'F', 'I', 'F', 0});
+        out.write(1);
+        out.write(1);
+        out.write(0);
+        writeShort(1);
+        writeShort(1);
+        out.write(0);
+        out.write(0);
+
+        // DQT - both tables in zigzag order
+        writeMarker(0xDB);
+        writeShort(2 + 2 * 65);
+        out.write(0);
+        for (int k = 0; k < 64; k++) out.write(lumaQuant[ZIGZAG[k]]);
+        out.write(1);
+        for (int k = 0; k < 64; k++) out.write(chromaQuant[ZIGZAG[k]]);
+
+        // SOF0 - three components, no subsampling
+        writeMarker(0xC0);
+        writeShort(17);
+        out.write(8);
+        writeShort(height);
+        writeShort(width);
+        out.write(3);
+        for (int component = 1; component <= 3; component++) {
+            out.write(component);
+            out.write(0x11);
+            out.write(component == 1 ? 0 : 1);
+        }
+
+        // DHT
+        writeMarker(0xC4);
+        writeShort(2 + dcLuma.sizeInHeader() + acLuma.sizeInHeader()
+                + dcChroma.sizeInHeader() + acChroma.sizeInHeader());
+        dcLuma.writeTo(0x00);
+        acLuma.writeTo(0x10);
+        dcChroma.writeTo(0x01);
+        acChroma.writeTo(0x11);
+
+        // SOS
+        writeMarker(0xDA);
+        writeShort(12);
+        out.write(3);
+        out.write(1);
+        out.write(0x00);
+        out.write(2);
+        out.write(0x11);
+        out.write(3);
+        out.write(0x11);
+        out.write(0);
+        out.write(63);
+        out.write(0);
+    }
+
+    @Override
+    protected void encodeRows(int[] argb, int rowCount) throws IOException {
+        int row = 0;
+        while (row < rowCount) {
+            int n = Math.min(8 - bufferedRows, rowCount - row);
+            System.arraycopy(argb, row * width, mcuRows, bufferedRows * width, n * width);
+            bufferedRows += n;
+            row += n;
+
+            if (bufferedRows == 8) {
+                encodeMcuRow();
+                bufferedRows = 0;
+            }
+        }
+    }
+
+    @Override
+    protected void writeTrailer() throws IOException {
+        if (bufferedRows > 0) {
+            // Pad the last partial MCU row by repeating its final row
+            int lastRow = (bufferedRows - 1) * width;
+            for (int r = bufferedRows; r < 8; r++) {
+                System.arraycopy(mcuRows, lastRow, mcuRows, r * width, width);
+            }
+            encodeMcuRow();
+            bufferedRows = 0;
+        }
+
+        // Pad the final byte with 1-bits, then EOI
+        if (bitCount > 0) {
+            writeBits((1 << (8 - bitCount)) - 1, 8 - bitCount);
+        }
+        writeMarker(0xD9);
+    }
+
+    private void encodeMcuRow() throws IOException {
+        for (int blockX = 0; blockX < width; blockX += 8) {
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    // Replicate the last column when the width is not a multiple of 8
+                    int pixel = mcuRows[y * width + Math.min(blockX + x, width - 1)];
+                    int r = (pixel >> 16) & 0xFF;
+                    int g = (pixel >> 8) & 0xFF;
+                    int b = pixel & 0xFF;
+
+                    int i = y * 8 + x;
+                    yBlock[i] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+                    cbBlock[i] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                    crBlock[i] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+                }
+            }
+
+            prevDcY = encodeBlock(yBlock, lumaQuant, dcLuma, acLuma, prevDcY);
+            prevDcCb = encodeBlock(cbBlock, chromaQuant, dcChroma, acChroma, prevDcCb);
+            prevDcCr = encodeBlock(crBlock, chromaQuant, dcChroma, acChroma, prevDcCr);
+        }
+    }
+
+    private int encodeBlock(float[] block, int[] quant, HuffmanTable dcTable, HuffmanTable acTable,
+                            int prevDc) throws IOException {
+        forwardDct(block);
+        for (int k = 0; k < 64; k++) {
+            int n = ZIGZAG[k];
+            quantized[k] = Math.round(block[n] / quant[n]);
+        }
+
+        // DC coefficient is coded as a difference from the previous block
+        int dc = quantized[0];
+        int diff = dc - prevDc;
+        int category = bitLength(diff);
+        dcTable.encode(category);
+        if (category > 0) {
+            writeBits(diff < 0 ? diff + (1 << category) - 1 : diff, category);
+        }
+
+        // AC coefficients as (zero run, size) pairs
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = quantized[k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                acTable.encode(0xF0);
+                run -= 16;
+            }
+            int size = bitLength(value);
+            acTable.encode((run << 4) | size);
+            writeBits(value < 0 ? value + (1 << size) - 1 : value, size);
+            run = 0;
+        }
+        if (run > 0) {
+            acTable.encode(0x00);
+        }
+        return dc;
+    }
+
+    // Separable 2D DCT-II: rows into dctTemp, then columns back into block
+    private void forwardDct(float[] block) {
+        for (int y = 0; y < 8; y++) {
+            for (int u = 0; u < 8; u++) {
+                float sum = 0;
+                for (int x = 0; x < 8; x++) {
+                    sum += COS_TABLE[u * 8 + x] * block[y * 8 + x];
+                }
+                dctTemp[y * 8 + u] = sum;
+            }
+        }
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                float sum = 0;
+                for (int y = 0; y < 8; y++) {
+                    sum += COS_TABLE[v * 8 + y] * dctTemp[y * 8 + u];
+                }
+                block[v * 8 + u] = sum;
+            }
+        }
+    }
+
+    private static int bitLength(int value) {
+        int magnitude = Math.abs(value);
+        int bits = 0;
+        while (magnitude != 0) {
+            bits++;
+            magnitude >>= 1;
+        }
+        return bits;
+    }
+
+    private void writeBits(int value, int size) throws IOException {
+        bitBuffer = (bitBuffer << size) | (value & ((1L << size) - 1));
+        bitCount += size;
+        while (bitCount >= 8) {
+            int b = (int) ((bitBuffer >> (bitCount - 8)) & 0xFF);
+            out.write(b);
+            if (b == 0xFF) {
+                // Byte stuffing so entropy data never looks like a marker
+                out.write(0);
+            }
+            bitCount -= 8;
+        }
+        bitBuffer &= (1L << bitCount) - 1;
+    }
+
+    private void writeMarker(int marker) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write((value >> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+
+    private class HuffmanTable {
+        private final int[] bits;
+        private final int[] values;
+        private final int[] codes = new int[256];
+        private final int[] sizes = new int[256];
+
+        HuffmanTable(int[] bits, int[] values) {
+            this.bits = bits;
+            this.values = values;
+
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length - 1]; i++) {
+                    codes[values[k]] = code;
+                    sizes[values[k]] = length;
+                    code++;
+                    k++;
+                }
+                code <<= 1;
+            }
+        }
+
+        int sizeInHeader() {
+            return 1 + 16 + values.length;
+        }
+
+        void writeTo(int classAndId) throws IOException {
+            out.write(classAndId);
+            for (int count : bits) out.write(count);
+            for (int value : values) out.write(value);
+        }
+
+        void encode(int symbol) throws IOException {
+            writeBits(codes[symbol], sizes[symbol]);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,250 @@
+package com.example.snapbook;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Reference collaboration hub. Peers say HELLO with a session code and every frame
+// they send is relayed to the addressed peer (or the rest of the room). Only rooms
+// opened with openRoom() exist, and a HELLO must carry the room's key; each peer
+// also sends a private peer key, and only a connection with the same key may take
+// over a peer ID that is already connected (a reconnect). start(port)
+// binds to loopback so sessions can be exercised fully offline; hosts that other
+// devices should reach pass their local network address to start(address, port).
+public class LoopbackSyncServer {
+
+    public static final int DEFAULT_PORT = 47800;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final Map<String, Map<String, Connection>> rooms = new HashMap<>();
+    private final Map<String, String> sessionKeys = new HashMap<>(); // Guarded by rooms
+    private ServerSocket serverSocket;
+
+    private static class Connection {
+        final Socket socket;
+        final DataOutputStream out;
+        final String sessionCode;
+        final String peerId;
+        final String peerKey;
+
+        Connection(Socket socket, String sessionCode, String peerId, String peerKey) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            this.sessionCode = sessionCode;
+            this.peerId = peerId;
+            this.peerKey = peerKey;
+        }
+
+        synchronized void send(SyncFrame frame) {
+            try {
+                frame.writeTo(out);
+                out.flush();
+            } catch (IOException e) {
+                // The reader side notices the broken socket and removes the peer
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // Returns the bound port, which differs from the argument when 0 is passed
+    public int start(int port) throws IOException {
+        return start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public int start(InetAddress bindAddress, int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, bindAddress);
+        pool.execute(this::acceptLoop);
+        return serverSocket.getLocalPort();
+    }
+
+    public void openRoom(String sessionCode, String sessionKey) {
+        synchronized (rooms) {
+            sessionKeys.put(sessionCode, sessionKey);
+        }
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {
+        }
+
+        synchronized (rooms) {
+            for (Map<String, Connection> room : rooms.values()) {
+                for (Connection connection : room.values()) {
+                    try {
+                        connection.socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            rooms.clear();
+            sessionKeys.clear();
+        }
+        pool.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                pool.execute(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Connection connection = null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            SyncFrame hello = SyncFrame.readFrom(in);
+            if (hello.type != SyncFrame.HELLO) {
+                socket.close();
+                return;
+            }
+
+            DataInputStream helloIn = new DataInputStream(new ByteArrayInputStream(hello.payload));
+            String sessionCode = helloIn.readUTF();
+            String sessionKey = helloIn.readUTF();
+            String peerKey = helloIn.readUTF();
+
+            Connection candidate = new Connection(socket, sessionCode, hello.from, peerKey);
+            if (!join(candidate, sessionKey)) {
+                candidate.send(new SyncFrame(SyncFrame.DENIED, "", hello.from, new byte[0]));
+                socket.close();
+                return;
+            }
+            connection = candidate;
+
+            while (true) {
+                route(connection, SyncFrame.readFrom(in));
+            }
+        } catch (IOException e) {
+            // Peer went away
+        } finally {
+            if (connection != null) {
+                leave(connection);
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // False if the key is wrong or the peer ID is held by a connection with another peer key
+    private boolean join(Connection connection, String sessionKey) {
+        List<Connection> others;
+        synchronized (rooms) {
+            String expectedKey = sessionKeys.get(connection.sessionCode);
+            if (expectedKey == null || !sameKey(expectedKey, sessionKey)) {
+                return false;
+            }
+
+            Map<String, Connection> room = rooms.get(connection.sessionCode);
+            if (room == null) {
+                room = new HashMap<>();
+                rooms.put(connection.sessionCode, room);
+            }
+
+            // A reconnecting peer replaces its stale connection
+            Connection stale = room.get(connection.peerId);
+            if (stale != null) {
+                if (!sameKey(stale.peerKey, connection.peerKey)) {
+                    return false;
+                }
+                try {
+                    stale.socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+            room.put(connection.peerId, connection);
+            others = othersIn(room, connection);
+        }
+
+        for (Connection other : others) {
+            other.send(new SyncFrame(SyncFrame.PEER_JOINED, connection.peerId, other.peerId, new byte[0]));
+            connection.send(new SyncFrame(SyncFrame.PEER_JOINED, other.peerId, connection.peerId, new byte[0]));
+        }
+        return true;
+    }
+
+    // Constant time, so a wrong key cannot be narrowed down by timing
+    private static boolean sameKey(String expected, String actual) {
+        try {
+            return MessageDigest.isEqual(expected.getBytes("UTF-8"), actual.getBytes("UTF-8"));
+        } catch (java.io.UnsupportedEncodingException e) {
+            return false;
+        }
+    }
+
+    private void leave(Connection connection) {
+        List<Connection> others;
+        synchronized (rooms) {
+            Map<String, Connection> room = rooms.get(connection.sessionCode);
+            if (room == null || room.get(connection.peerId) != connection) {
+                return;
+            }
+            room.remove(connection.peerId);
+            if (room.isEmpty()) {
+                rooms.remove(connection.sessionCode);
+            }
+            others = othersIn(room, connection);
+        }
+
+        for (Connection other : others) {
+            other.send(new SyncFrame(SyncFrame.PEER_LEFT, connection.peerId, other.peerId, new byte[0]));
+        }
+    }
+
+    private void route(Connection sender, SyncFrame frame) {
+        // Never trust the sender field from the wire
+        SyncFrame relayed = new SyncFrame(frame.type, sender.peerId, frame.to, frame.payload);
+
+        List<Connection> targets = new ArrayList<>();
+        synchronized (rooms) {
+            Map<String, Connection> room = rooms.get(sender.sessionCode);
+            if (room == null) return;
+
+            if (relayed.isBroadcast()) {
+                targets.addAll(othersIn(room, sender));
+            } else if (room.containsKey(relayed.to)) {
+                targets.add(room.get(relayed.to));
+            }
+        }
+
+        for (Connection target : targets) {
+            target.send(relayed);
+        }
+    }
+
+    private static List<Connection> othersIn(Map<String, Connection> room, Connection self) {
+        List<Connection> others = new ArrayList<>();
+        for (Connection connection : room.values()) {
+            if (connection != self) {
+                others.add(connection);
+            }
+        }
+        return others;
+    }
+}
\ No newline at end of file
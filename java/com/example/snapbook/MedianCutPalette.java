@@ -0,0 +1,158 @@
+package com.example.snapbook;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Median-cut palette shared by every frame of an animation. Frames are sampled
+// one at a time, so only the bounded sample buffer is kept between frames.
+public class MedianCutPalette {
+
+    private static final int MAX_SAMPLES = 64 * 1024;
+    private static final int LOOKUP_BITS = 5;
+
+    private final int[] samples;
+    private final int samplesPerFrame;
+    private int sampleCount = 0;
+
+    private int[] colors;
+    private byte[] lookup;
+
+    public MedianCutPalette(int expectedFrames) {
+        this.samples = new int[MAX_SAMPLES];
+        this.samplesPerFrame = MAX_SAMPLES / Math.max(1, expectedFrames);
+    }
+
+    // Takes an evenly spaced subset of the frame's pixels
+    public void addFrame(int[] argb, int pixelCount) {
+        int budget = Math.min(samplesPerFrame, MAX_SAMPLES - sampleCount);
+        if (budget <= 0 || pixelCount <= 0) return;
+
+        int step = Math.max(1, pixelCount / budget);
+        for (int i = 0; i < pixelCount && sampleCount < MAX_SAMPLES && budget > 0; i += step) {
+            samples[sampleCount++] = argb[i] & 0xFFFFFF;
+            budget--;
+        }
+    }
+
+    public void build(int maxColors) {
+        List<int[]> boxes = new ArrayList<>(); // {start, end} ranges into samples
+        if (sampleCount > 0) {
+            boxes.add(new int[]{0, sampleCount});
+        }
+
+        while (boxes.size() < maxColors) {
+            // Split the box with the widest channel range
+            int bestIndex = -1;
+            int bestRange = 0;
+            int bestChannel = 0;
+            for (int i = 0; i < boxes.size(); i++) {
+                int[] box = boxes.get(i);
+                if (box[1] - box[0] < 2) continue;
+                for (int channel = 0; channel < 3; channel++) {
+                    int range = channelRange(box, channel);
+                    if (range > bestRange) {
+                        bestRange = range;
+                        bestIndex = i;
+                        bestChannel = channel;
+                    }
+                }
+            }
+            if (bestIndex < 0) break;
+
+            int[] box = boxes.get(bestIndex);
+            sortByChannel(box[0], box[1], bestChannel);
+            int median = (box[0] + box[1]) / 2;
+            boxes.set(bestIndex, new int[]{box[0], median});
+            boxes.add(new int[]{median, box[1]});
+        }
+
+        colors = new int[Math.max(1, boxes.size())];
+        for (int i = 0; i < boxes.size(); i++) {
+            colors[i] = averageColor(boxes.get(i));
+        }
+
+        buildLookup();
+    }
+
+    public int[] getColors() {
+        return colors;
+    }
+
+    public int getIndex(int argb) {
+        int r = (argb >> (16 + 8 - LOOKUP_BITS)) & 0x1F;
+        int g = (argb >> (8 + 8 - LOOKUP_BITS)) & 0x1F;
+        int b = (argb >> (8 - LOOKUP_BITS)) & 0x1F;
+        return lookup[(r << (2 * LOOKUP_BITS)) | (g << LOOKUP_BITS) | b] & 0xFF;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    private int channelRange(int[] box, int channel) {
+        int shift = 16 - channel * 8;
+        int min = 255, max = 0;
+        for (int i = box[0]; i < box[1]; i++) {
+            int value = (samples[i] >> shift) & 0xFF;
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+        return max - min;
+    }
+
+    // Counting sort of samples[start, end) on one 8-bit channel
+    private void sortByChannel(int start, int end, int channel) {
+        int shift = 16 - channel * 8;
+        int[] counts = new int[257];
+        for (int i = start; i < end; i++) {
+            counts[((samples[i] >> shift) & 0xFF) + 1]++;
+        }
+        for (int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
+
+        int[] sorted = new int[end - start];
+        for (int i = start; i < end; i++) {
+            sorted[counts[(samples[i] >> shift) & 0xFF]++] = samples[i];
+        }
+        System.arraycopy(sorted, 0, samples, start, sorted.length);
+    }
+
+    private int averageColor(int[] box) {
+        long r = 0, g = 0, b = 0;
+        int count = box[1] - box[0];
+        for (int i = box[0]; i < box[1]; i++) {
+            r += (samples[i] >> 16) & 0xFF;
+            g += (samples[i] >> 8) & 0xFF;
+            b += samples[i] & 0xFF;
+        }
+        return (int) ((r / count) << 16 | (g / count) << 8 | (b / count));
+    }
+
+    // Nearest palette entry for every 15-bit color, so mapping a pixel is a table read
+    private void buildLookup() {
+        int size = 1 << (3 * LOOKUP_BITS);
+        lookup = new byte[size];
+        int half = 1 << (7 - LOOKUP_BITS);
+
+        for (int key = 0; key < size; key++) {
+            int r = ((key >> (2 * LOOKUP_BITS)) & 0x1F) << (8 - LOOKUP_BITS) | half;
+            int g = ((key >> LOOKUP_BITS) & 0x1F) << (8 - LOOKUP_BITS) | half;
+            int b = (key & 0x1F) << (8 - LOOKUP_BITS) | half;
+
+            int best = 0;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int i = 0; i < colors.length; i++) {
+                int dr = ((colors[i] >> 16) & 0xFF) - r;
+                int dg = ((colors[i] >> 8) & 0xFF) - g;
+                int db = (colors[i] & 0xFF) - b;
+                int distance = 2 * dr * dr + 4 * dg * dg + 3 * db * db;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = i;
+                }
+            }
+            lookup[key] = (byte) best;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,241 @@
+package com.example.snapbook;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// In-app latency registry: every span emits an android.os.Trace section and
+// feeds a per-stage histogram that can be dumped to CSV for build comparison.
+// Counters and gauges cover values that are not latencies (evictions, bytes held).
+public class MetricsRegistry {
+
+    private static final String TAG = "MetricsRegistry";
+    private static final int MAX_SAMPLES = 1024;
+    private static final String METRICS_DIR = "metrics";
+
+    private static MetricsRegistry instance;
+
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final Map<String, Long> gauges = new LinkedHashMap<>();
+    private int nextAsyncCookie = 1;
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry();
+        }
+        return instance;
+    }
+
+    private MetricsRegistry() {
+    }
+
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    // Synchronous span - must be ended on the thread that started it
+    public Span startSpan(String name) {
+        Trace.beginSection(name);
+        return new Span(name, now(), -1);
+    }
+
+    // Span that may end on another thread or callback (e.g. shutter -> onImageSaved)
+    public Span startAsyncSpan(String name) {
+        int cookie;
+        synchronized (this) {
+            cookie = nextAsyncCookie++;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+        return new Span(name, now(), cookie);
+    }
+
+    public void recordSince(String name, long startNanos) {
+        record(name, (now() - startNanos) / 1_000_000.0);
+    }
+
+    public synchronized void record(String name, double millis) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram(name);
+            histograms.put(name, histogram);
+        }
+        histogram.add(millis);
+    }
+
+    public synchronized Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    public synchronized List<Histogram> getHistograms() {
+        return new ArrayList<>(histograms.values());
+    }
+
+    public void increment(String name) {
+        increment(name, 1);
+    }
+
+    public synchronized void increment(String name, long delta) {
+        Long current = counters.get(name);
+        counters.put(name, current == null ? delta : current + delta);
+    }
+
+    public synchronized long getCounter(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    // Last-value metric; also shows up as a counter track in system traces
+    public void setGauge(String name, long value) {
+        synchronized (this) {
+            gauges.put(name, value);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.setCounter(name, value);
+        }
+    }
+
+    public synchronized long getGauge(String name) {
+        Long value = gauges.get(name);
+        return value == null ? 0 : value;
+    }
+
+    public synchronized void reset() {
+        histograms.clear();
+        counters.clear();
+        gauges.clear();
+    }
+
+    public File dumpToFile(Context context) {
+        File dir = new File(context.getFilesDir(), METRICS_DIR);
+        if (!dir.exists()) dir.mkdirs();
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "metrics_" + timestamp + ".csv");
+
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write("# app_version=" + getVersionName(context) +
+                    " device=" + Build.MODEL + " sdk=" + Build.VERSION.SDK_INT + "\n");
+            writer.write("stage,count,p50_ms,p95_ms,p99_ms,max_ms\n");
+            for (Histogram histogram : getHistograms()) {
+                writer.write(histogram.toCsvRow() + "\n");
+            }
+
+            writer.write("\nmetric,type,value\n");
+            synchronized (this) {
+                for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                    writer.write(entry.getKey() + ",counter," + entry.getValue() + "\n");
+                }
+                for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+                    writer.write(entry.getKey() + ",gauge," + entry.getValue() + "\n");
+                }
+            }
+            Log.d(TAG, "Metrics dumped to " + file.getAbsolutePath());
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "Error dumping metrics", e);
+            return null;
+        }
+    }
+
+    private String getVersionName(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionName;
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    public class Span {
+        private final String name;
+        private final long startNanos;
+        private final int asyncCookie;
+        private boolean ended = false;
+
+        private Span(String name, long startNanos, int asyncCookie) {
+            this.name = name;
+            this.startNanos = startNanos;
+            this.asyncCookie = asyncCookie;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public void end() {
+            if (ended) return;
+            ended = true;
+
+            if (asyncCookie < 0) {
+                Trace.endSection();
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(name, asyncCookie);
+            }
+            recordSince(name, startNanos);
+        }
+    }
+
+    // Keeps the most recent MAX_SAMPLES values; percentiles are computed on read
+    public static class Histogram {
+        private final String name;
+        private final double[] samples = new double[MAX_SAMPLES];
+        private int size = 0;
+        private int next = 0;
+        private long totalCount = 0;
+        private double max = 0;
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(double value) {
+            samples[next] = value;
+            next = (next + 1) % MAX_SAMPLES;
+            if (size < MAX_SAMPLES) size++;
+            totalCount++;
+            if (value > max) max = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized long getCount() {
+            return totalCount;
+        }
+
+        public synchronized double getMax() {
+            return max;
+        }
+
+        public synchronized double getPercentile(double percentile) {
+            if (size == 0) return 0;
+            double[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+
+        String toCsvRow() {
+            return String.format(Locale.US, "%s,%d,%.2f,%.2f,%.2f,%.2f",
+                    name, getCount(), getPercentile(50), getPercentile(95), getPercentile(99), getMax());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,50 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+
+// 64-bit difference hash (dHash) of a photo. The image is shrunk to 9x8 grey
+// pixels and each bit records whether a pixel is brighter than its right-hand
+// neighbour, so re-encodes, resizes and small exposure changes barely move the
+// hash while different pictures land about 32 bits apart.
+public final class PerceptualHash {
+
+    // Decode only this far; the 9x8 shrink that follows smooths away the rest
+    private static final int DECODE_EDGE = 32;
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    // Hash of the stored pixels (EXIF orientation is not applied), or null if the file cannot be decoded
+    public static Long dHash(String path) {
+        Bitmap small = BitmapDecoder.decodeToFit(path, DECODE_EDGE, DECODE_EDGE);
+        if (small == null) return null;
+
+        Bitmap tiny = Bitmap.createScaledBitmap(small, HASH_WIDTH, HASH_HEIGHT, true);
+        int[] pixels = new int[HASH_WIDTH * HASH_HEIGHT];
+        tiny.getPixels(pixels, 0, HASH_WIDTH, 0, 0, HASH_WIDTH, HASH_HEIGHT);
+        if (tiny != small) tiny.recycle();
+        BitmapPool.getInstance().put(small);
+
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            int row = y * HASH_WIDTH;
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (luminance(pixels[row + x]) > luminance(pixels[row + x + 1])) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static int luminance(int color) {
+        return (((color >> 16) & 0xFF) * 299 + ((color >> 8) & 0xFF) * 587 + (color & 0xFF) * 114) / 1000;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.example.snapbook;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Copies photo files without touching their pixels. The bytes move channel to
+// channel with FileChannel.transferTo, which the kernel can do without copying
+// through the Java heap, and the original JPEG (quality, EXIF) is kept exactly.
+// Only a copy with a Transform decodes and re-encodes. Copies run one at a time
+// on a single worker, since parallel writes to the same storage do not go faster.
+// Callbacks run on the main thread.
+public class PhotoCopier {
+
+    private static final String TAG = "PhotoCopier";
+    private static final int TRANSFORM_QUALITY = 95;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Changes the pixels; forces a decode and re-encode
+    public interface Transform {
+        Bitmap apply(Bitmap source);
+    }
+
+    public interface Target {
+        void write(File source, Transform transform) throws IOException;
+    }
+
+    public interface Callback {
+        void onProgress(int completed, int total);
+        // bytesPerSecond covers the whole batch, failures included
+        void onComplete(int copiedCount, int total, long bytes, long bytesPerSecond);
+    }
+
+    public static class Copy {
+        final File source;
+        final Target target;
+
+        public Copy(File source, Target target) {
+            this.source = source;
+            this.target = target;
+        }
+    }
+
+    public void copy(File source, Target target, Transform transform, Callback callback) {
+        List<Copy> copies = new ArrayList<>();
+        copies.add(new Copy(source, target));
+        copyAll(copies, transform, callback);
+    }
+
+    public void copyAll(List<Copy> copies, Transform transform, Callback callback) {
+        List<Copy> batch = new ArrayList<>(copies);
+        executor.execute(() -> {
+            long start = MetricsRegistry.now();
+            long bytes = 0;
+            int copied = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Copy copy = batch.get(i);
+                MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan(
+                        transform == null ? "copy.transfer" : "copy.transform");
+                try {
+                    copy.target.write(copy.source, transform);
+                    bytes += copy.source.length();
+                    copied++;
+                } catch (Exception e) {
+                    Log.e(TAG, "Error copying " + copy.source, e);
+                } finally {
+                    span.end();
+                }
+
+                int done = i + 1;
+                mainHandler.post(() -> callback.onProgress(done, batch.size()));
+            }
+
+            long elapsedNanos = Math.max(1, MetricsRegistry.now() - start);
+            long bytesPerSecond = bytes * 1_000_000_000L / elapsedNanos;
+            MetricsRegistry.getInstance().increment("copy.bytes", bytes);
+            MetricsRegistry.getInstance().setGauge("copy.bytes_per_second", bytesPerSecond);
+            Log.d(TAG, "Copied " + copied + "/" + batch.size() + " files, " + bytes + " bytes at "
+                    + (bytesPerSecond / 1024) + " KB/s");
+
+            int copiedCount = copied;
+            long totalBytes = bytes;
+            mainHandler.post(() -> callback.onComplete(copiedCount, batch.size(), totalBytes, bytesPerSecond));
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // Writes to a temporary sibling and renames it into place, so watchers of the
+    // directory only ever see the finished file
+    public static Target file(File destination) {
+        return (source, transform) -> {
+            File temp = new File(destination.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                if (transform == null) {
+                    transfer(source, out.getChannel());
+                } else {
+                    encodeTransformed(source, transform, out);
+                }
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+            if (!temp.renameTo(destination)) {
+                temp.delete();
+                throw new IOException("Cannot move copy into place at " + destination);
+            }
+        };
+    }
+
+    // A new MediaStore image; its file descriptor takes the channel transfer directly
+    public static Target mediaStore(ContentResolver resolver, String fileName) {
+        return (source, transform) -> {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.Images.Media.DISPLAY_NAME, fileName);
+            values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                values.put(MediaStore.Images.Media.RELATIVE_PATH, Environment.DIRECTORY_PICTURES);
+                values.put(MediaStore.Images.Media.IS_PENDING, 1);
+            }
+
+            Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+            if (uri == null) {
+                throw new IOException("MediaStore insert failed for " + fileName);
+            }
+
+            try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "w")) {
+                if (descriptor == null) {
+                    throw new IOException("Cannot open MediaStore entry for " + fileName);
+                }
+                try (FileOutputStream out = new FileOutputStream(descriptor.getFileDescriptor())) {
+                    if (transform == null) {
+                        transfer(source, out.getChannel());
+                    } else {
+                        encodeTransformed(source, transform, out);
+                    }
+                }
+            } catch (IOException e) {
+                resolver.delete(uri, null, null);
+                throw e;
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                values.clear();
+                values.put(MediaStore.Images.Media.IS_PENDING, 0);
+                resolver.update(uri, values, null, null);
+            }
+        };
+    }
+
+    // transferTo may move fewer bytes than asked, so loop until the whole file is across
+    static void transfer(File source, FileChannel out) throws IOException {
+        try (FileInputStream in = new FileInputStream(source)) {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long moved = channel.transferTo(position, size - position, out);
+                if (moved <= 0) {
+                    throw new IOException("Copy of " + source + " stalled at " + position + "/" + size);
+                }
+                position += moved;
+            }
+        }
+    }
+
+    private static void encodeTransformed(File source, Transform transform, FileOutputStream out) throws IOException {
+        Bitmap raw = android.graphics.BitmapFactory.decodeFile(source.getAbsolutePath());
+        if (raw == null) {
+            throw new IOException("Cannot decode " + source);
+        }
+        // The re-encoded file carries no EXIF, so bake the orientation into the pixels
+        Bitmap decoded = BitmapDecoder.applyOrientation(raw, BitmapDecoder.readOrientation(source.getAbsolutePath()));
+
+        Bitmap transformed = transform.apply(decoded);
+        try {
+            if (transformed == null || !transformed.compress(Bitmap.CompressFormat.JPEG, TRANSFORM_QUALITY, out)) {
+                throw new IOException("Failed to encode transformed " + source);
+            }
+        } finally {
+            if (transformed != decoded && transformed != null) transformed.recycle();
+            decoded.recycle();
+        }
+    }
+}
\ No newline at end of file
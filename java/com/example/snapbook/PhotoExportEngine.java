@@ -0,0 +1,185 @@
+package com.example.snapbook;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Encodes every export item exactly once into memory, in parallel across cores,
+// then fans the same bytes out to each destination. Callbacks run on the main thread.
+public class PhotoExportEngine {
+
+    private static final String TAG = "PhotoExportEngine";
+    private static final int INITIAL_BUFFER_SIZE = 512 * 1024;
+
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+
+    public interface Destination {
+        void write(String fileName, String mimeType, byte[] data, int length) throws IOException;
+    }
+
+    public interface Callback {
+        void onProgress(int completed, int total);
+        void onComplete(int savedCount, int total);
+    }
+
+    public static class Item {
+        final String fileName;
+        final String mimeType;
+        final Encoder encoder;
+
+        public Item(String fileName, String mimeType, Encoder encoder) {
+            this.fileName = fileName;
+            this.mimeType = mimeType;
+            this.encoder = encoder;
+        }
+
+        // The photo is fetched on the worker, so a spilled session photo is restored off the UI thread
+        public static Item jpeg(String fileName, List<Bitmap> photos, int index, int quality) {
+            return new Item(fileName, "image/jpeg", out -> {
+                Bitmap bitmap = photos.get(index);
+                if (bitmap == null || !bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                    throw new IOException("Failed to encode " + fileName);
+                }
+            });
+        }
+    }
+
+    public PhotoExportEngine() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public void export(List<Item> items, List<Destination> destinations, Callback callback) {
+        int total = items.size();
+        if (total == 0) {
+            mainHandler.post(() -> callback.onComplete(0, 0));
+            return;
+        }
+
+        List<Destination> targets = new ArrayList<>(destinations);
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger saved = new AtomicInteger();
+
+        for (Item item : items) {
+            executor.execute(() -> {
+                if (exportItem(item, targets)) {
+                    saved.incrementAndGet();
+                }
+
+                int done = completed.incrementAndGet();
+                mainHandler.post(() -> callback.onProgress(done, total));
+                if (done == total) {
+                    int savedCount = saved.get();
+                    mainHandler.post(() -> callback.onComplete(savedCount, total));
+                }
+            });
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private boolean exportItem(Item item, List<Destination> destinations) {
+        ExportBuffer buffer = new ExportBuffer();
+
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("export.encode");
+        try {
+            item.encoder.encode(buffer);
+        } catch (Exception e) {
+            Log.e(TAG, "Error encoding " + item.fileName, e);
+            return false;
+        } finally {
+            span.end();
+        }
+
+        long writeStart = MetricsRegistry.now();
+        boolean written = true;
+        for (Destination destination : destinations) {
+            try {
+                destination.write(item.fileName, item.mimeType, buffer.getBuffer(), buffer.size());
+            } catch (Exception e) {
+                Log.e(TAG, "Error writing " + item.fileName, e);
+                written = false;
+            }
+        }
+        MetricsRegistry.getInstance().recordSince("export.write", writeStart);
+        return written;
+    }
+
+    public static Destination directory(File dir) {
+        return (fileName, mimeType, data, length) -> {
+            try (FileOutputStream fos = new FileOutputStream(new File(dir, fileName))) {
+                fos.write(data, 0, length);
+            }
+        };
+    }
+
+    // Writes the encoded bytes straight into a MediaStore entry. On pre-Q this replaces
+    // insertImage, which decodes the file again and re-compresses it.
+    public static Destination mediaStore(ContentResolver resolver) {
+        return (fileName, mimeType, data, length) -> {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.Images.Media.DISPLAY_NAME, fileName);
+            values.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                values.put(MediaStore.Images.Media.RELATIVE_PATH, Environment.DIRECTORY_PICTURES);
+                values.put(MediaStore.Images.Media.IS_PENDING, 1);
+            }
+
+            Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+            if (uri == null) {
+                throw new IOException("MediaStore insert failed for " + fileName);
+            }
+
+            try (OutputStream outputStream = resolver.openOutputStream(uri)) {
+                if (outputStream == null) {
+                    throw new IOException("Cannot open MediaStore entry for " + fileName);
+                }
+                outputStream.write(data, 0, length);
+            } catch (IOException e) {
+                resolver.delete(uri, null, null);
+                throw e;
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                values.clear();
+                values.put(MediaStore.Images.Media.IS_PENDING, 0);
+                resolver.update(uri, values, null, null);
+            }
+        };
+    }
+
+    // Exposes the backing array so destinations can write it without another copy
+    private static class ExportBuffer extends ByteArrayOutputStream {
+        ExportBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
\ No newline at end of file
@@ -4,68 +4,93 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.util.Log;
+import android.util.LruCache;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class PhotoStripCreator {
 
     private static final String TAG = "PhotoStripCreator";
-    private static final int BORDER_WIDTH = 50;
-    private static final int SPACING = 15;
-    private static final int HEADER_HEIGHT = 80;
-    private static final int FOOTER_HEIGHT = 60;
+    private static final int FRAME_STROKE = 2;
+
+    // 2x6" strip at 300 DPI is 600px wide; bands keep peak memory to width x BAND_HEIGHT
+    public static final int PRINT_DPI = 300;
+    public static final float PRINT_WIDTH_INCHES = 2f;
+    private static final int BAND_HEIGHT = 128;
+
+    // Templates are a few MB each; only a handful of photo counts are ever used
+    private static final int MAX_CACHED_TEMPLATES = 3;
+
+    private static final int BACKGROUND_COLOR = Color.parseColor("#faf8f5");
+    private static final Paint BORDER_PAINT = createStrokePaint("#8b6914", 8);
+    private static final Paint INNER_BORDER_PAINT = createStrokePaint("#c4a747", 3);
+    private static final Paint FRAME_PAINT = createStrokePaint("#3e2723", FRAME_STROKE);
+    private static final Paint HEADER_PAINT = createTextPaint("#6b4423", 32, Typeface.BOLD);
+    private static final Paint FOOTER_PAINT = createTextPaint("#8b6914", 14, Typeface.ITALIC);
+    private static final Paint CARD_PAINT = createFillPaint("#ffffff");
+    private static final Paint SPROCKET_PAINT = createFillPaint("#3e2723");
+    private static final Paint PHOTO_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    private static final LruCache<String, Bitmap> templateCache = new LruCache<>(MAX_CACHED_TEMPLATES);
+    private static final Map<String, StripLayout> layoutCache = new HashMap<>();
+
+    public interface ProgressListener {
+        void onProgress(int photosDrawn, int totalPhotos);
+    }
 
     public static Bitmap createPhotoStrip(List<Bitmap> photos) {
+        return createPhotoStrip(photos, StripLayout.Type.VERTICAL_STRIP);
+    }
+
+    public static Bitmap createPhotoStrip(List<Bitmap> photos, StripLayout.Type layoutType) {
+        return createPhotoStrip(photos, layoutType, null);
+    }
+
+    // Checks for thread interruption between photos so a cancelled render stops early
+    public static Bitmap createPhotoStrip(List<Bitmap> photos, StripLayout.Type layoutType,
+                                          ProgressListener listener) {
         if (photos == null || photos.isEmpty()) {
             Log.e(TAG, "No photos provided");
             return null;
         }
 
         try {
-            int photoWidth = 350;
-            int photoHeight = 280;
-            int stripWidth = 400;
-            int stripHeight = HEADER_HEIGHT + (photoHeight * photos.size()) + (SPACING * (photos.size() + 1)) + FOOTER_HEIGHT + (BORDER_WIDTH * 2);
+            StripLayout layout = getLayout(layoutType, photos.size());
+            int stripWidth = layout.getWidth();
+            int stripHeight = layout.getHeight();
 
-            Log.d(TAG, "Creating photo strip: " + stripWidth + "x" + stripHeight);
+            Log.d(TAG, "Creating " + layoutType.getDisplayName() + " photo strip: " + stripWidth + "x" + stripHeight);
 
-            Bitmap stripBitmap = Bitmap.createBitmap(stripWidth, stripHeight, Bitmap.Config.ARGB_8888);
+            // Background, borders, header and frames come from the cached template
+            Bitmap template = getTemplate(layout);
+            Bitmap stripBitmap = template.copy(Bitmap.Config.ARGB_8888, true);
             Canvas canvas = new Canvas(stripBitmap);
 
-            // Draw background
-            canvas.drawColor(Color.parseColor("#faf8f5"));
-
-            // Draw border
-            drawVintageBorder(canvas, stripWidth, stripHeight);
-
-            // Draw header
-            drawHeader(canvas, stripWidth, BORDER_WIDTH);
-
-            // Draw photos
-            int yOffset = HEADER_HEIGHT + BORDER_WIDTH;
+            // Draw photos and footer
+            Rect srcRect = new Rect();
+            Rect dstRect = new Rect();
             for (int i = 0; i < photos.size(); i++) {
-                Bitmap photo = photos.get(i);
-                if (photo != null) {
-                    int xOffset = (stripWidth - photoWidth) / 2;
-                    canvas.drawBitmap(photo, xOffset, yOffset, null);
-
-                    // Draw photo frame
-                    Paint framePaint = new Paint();
-                    framePaint.setColor(Color.parseColor("#3e2723"));
-                    framePaint.setStrokeWidth(2);
-                    framePaint.setStyle(Paint.Style.STROKE);
-                    canvas.drawRect(xOffset, yOffset, xOffset + photoWidth, yOffset + photoHeight, framePaint);
-
-                    yOffset += photoHeight + SPACING;
+                if (Thread.currentThread().isInterrupted()) {
+                    Log.d(TAG, "Photo strip creation cancelled");
+                    stripBitmap.recycle();
+                    return null;
+                }
+                drawPhoto(canvas, layout, i, photos.get(i), srcRect, dstRect);
+                if (listener != null) {
+                    listener.onProgress(i + 1, photos.size());
                 }
             }
-
-            // Draw footer
-            drawFooter(canvas, stripWidth, stripHeight);
+            drawFooter(canvas, stripWidth, layout.getFooterBaseline());
 
             Log.d(TAG, "Photo strip created successfully");
             return stripBitmap;
@@ -76,40 +101,205 @@ public class PhotoStripCreator {
         }
     }
 
-    private static void drawVintageBorder(Canvas canvas, int width, int height) {
-        Paint borderPaint = new Paint();
-        borderPaint.setColor(Color.parseColor("#8b6914"));
-        borderPaint.setStrokeWidth(8);
-        borderPaint.setStyle(Paint.Style.STROKE);
+    // Small, quick render straight from vector drawing - shown while the full strip is composed
+    public static Bitmap createPreviewStrip(List<Bitmap> photos, StripLayout.Type layoutType, float scale) {
+        if (photos == null || photos.isEmpty()) {
+            return null;
+        }
 
-        canvas.drawRect(10, 10, width - 10, height - 10, borderPaint);
+        try {
+            StripLayout layout = getLayout(layoutType, photos.size());
+            int previewWidth = Math.max(1, Math.round(layout.getWidth() * scale));
+            int previewHeight = Math.max(1, Math.round(layout.getHeight() * scale));
+
+            Bitmap preview = Bitmap.createBitmap(previewWidth, previewHeight, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(preview);
+            canvas.scale(scale, scale);
+            drawStaticLayer(canvas, layout);
+            drawPhotos(canvas, layout, photos);
+            return preview;
 
-        Paint innerBorderPaint = new Paint();
-        innerBorderPaint.setColor(Color.parseColor("#c4a747"));
-        innerBorderPaint.setStrokeWidth(3);
-        innerBorderPaint.setStyle(Paint.Style.STROKE);
+        } catch (Exception e) {
+            Log.e(TAG, "Error creating preview strip", e);
+            return null;
+        }
+    }
 
-        canvas.drawRect(15, 15, width - 15, height - 15, innerBorderPaint);
+    public static int getPrintWidth() {
+        return Math.round(PRINT_WIDTH_INCHES * PRINT_DPI);
     }
 
-    private static void drawHeader(Canvas canvas, int stripWidth, int yOffset) {
-        Paint headerPaint = new Paint();
-        headerPaint.setColor(Color.parseColor("#6b4423"));
-        headerPaint.setTextSize(32);
-        headerPaint.setTypeface(Typeface.create("serif", Typeface.BOLD));
-        headerPaint.setTextAlign(Paint.Align.CENTER);
+    // Renders the strip at outputWidth in horizontal bands and streams each band
+    // straight into the encoder, so the full-size strip is never allocated
+    public static boolean exportPhotoStrip(List<Bitmap> photos, StripLayout.Type layoutType, int outputWidth,
+                                           BandedImageEncoder.Format format, int quality, OutputStream out) {
+        if (photos == null || photos.isEmpty()) {
+            Log.e(TAG, "No photos provided");
+            return false;
+        }
+
+        Bitmap band = null;
+        try {
+            StripLayout layout = getLayout(layoutType, photos.size());
+            float scale = (float) outputWidth / layout.getWidth();
+            int outputHeight = Math.round(layout.getHeight() * scale);
+
+            Log.d(TAG, "Exporting " + layoutType.getDisplayName() + " strip: " + outputWidth + "x" + outputHeight);
+
+            BufferedOutputStream bufferedOut = new BufferedOutputStream(out, 64 * 1024);
+            BandedImageEncoder encoder = BandedImageEncoder.create(format, bufferedOut, quality);
+            encoder.begin(outputWidth, outputHeight);
+
+            int bandHeight = Math.min(BAND_HEIGHT, outputHeight);
+            band = Bitmap.createBitmap(outputWidth, bandHeight, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(band);
+            int[] pixels = new int[outputWidth * bandHeight];
+
+            for (int bandTop = 0; bandTop < outputHeight; bandTop += bandHeight) {
+                int rows = Math.min(bandHeight, outputHeight - bandTop);
+
+                // Draw the whole scene shifted up; the canvas clips everything outside this band
+                canvas.save();
+                canvas.translate(0, -bandTop);
+                canvas.scale(scale, scale);
+                drawStaticLayer(canvas, layout);
+                drawPhotos(canvas, layout, photos);
+                drawFooter(canvas, layout.getWidth(), layout.getFooterBaseline());
+                canvas.restore();
+
+                band.getPixels(pixels, 0, outputWidth, 0, 0, outputWidth, rows);
+                encoder.writeRows(pixels, rows);
+            }
+
+            encoder.finish();
+            Log.d(TAG, "Photo strip exported successfully");
+            return true;
 
-        canvas.drawText("VINTAGE MEMORIES", stripWidth / 2, yOffset + 50, headerPaint);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error exporting photo strip", e);
+            return false;
+        } finally {
+            if (band != null) band.recycle();
+        }
+    }
+
+    public static void clearTemplateCache() {
+        templateCache.evictAll();
+    }
+
+    static synchronized StripLayout getLayout(StripLayout.Type type, int photoCount) {
+        String key = type.name() + ":" + photoCount;
+        StripLayout layout = layoutCache.get(key);
+        if (layout == null) {
+            layout = StripLayout.create(type, photoCount);
+            layoutCache.put(key, layout);
+        }
+        return layout;
     }
 
-    private static void drawFooter(Canvas canvas, int stripWidth, int stripHeight) {
-        Paint footerPaint = new Paint();
-        footerPaint.setColor(Color.parseColor("#8b6914"));
-        footerPaint.setTextSize(14);
-        footerPaint.setTypeface(Typeface.create("serif", Typeface.ITALIC));
-        footerPaint.setTextAlign(Paint.Align.CENTER);
+    private static synchronized Bitmap getTemplate(StripLayout layout) {
+        String key = layout.getCacheKey();
+        Bitmap template = templateCache.get(key);
+        if (template == null) {
+            Log.d(TAG, "Rendering strip template " + key);
+            template = renderTemplate(layout);
+            templateCache.put(key, template);
+        }
+        return template;
+    }
+
+    private static Bitmap renderTemplate(StripLayout layout) {
+        Bitmap template = Bitmap.createBitmap(layout.getWidth(), layout.getHeight(), Bitmap.Config.ARGB_8888);
+        drawStaticLayer(new Canvas(template), layout);
+        return template;
+    }
 
+    // Everything that does not depend on the photos or the date
+    private static void drawStaticLayer(Canvas canvas, StripLayout layout) {
+        int stripWidth = layout.getWidth();
+        int stripHeight = layout.getHeight();
+
+        // Draw background
+        canvas.drawColor(BACKGROUND_COLOR);
+
+        // Draw border
+        drawVintageBorder(canvas, stripWidth, stripHeight);
+
+        // Draw header
+        drawHeader(canvas, stripWidth, layout.getHeaderBaseline());
+
+        // Layout-specific decorations (polaroid cards, film sprocket holes)
+        for (StripLayout.Box card : layout.getCards()) {
+            canvas.drawRect(card.left, card.top, card.right, card.bottom, CARD_PAINT);
+            canvas.drawRect(card.left, card.top, card.right, card.bottom, FRAME_PAINT);
+        }
+        for (StripLayout.Box hole : layout.getSprockets()) {
+            canvas.drawRect(hole.left, hole.top, hole.right, hole.bottom, SPROCKET_PAINT);
+        }
+
+        // Draw photo frames just outside each slot so photo blits never cover them
+        float inset = FRAME_STROKE / 2f;
+        for (StripLayout.Box slot : layout.getSlots()) {
+            canvas.drawRect(slot.left - inset, slot.top - inset,
+                    slot.right + inset, slot.bottom + inset, FRAME_PAINT);
+        }
+    }
+
+    private static void drawPhotos(Canvas canvas, StripLayout layout, List<Bitmap> photos) {
+        Rect srcRect = new Rect();
+        Rect dstRect = new Rect();
+        for (int i = 0; i < photos.size(); i++) {
+            drawPhoto(canvas, layout, i, photos.get(i), srcRect, dstRect);
+        }
+    }
+
+    // One scaled, filtered blit of the photo's center crop into its slot
+    private static void drawPhoto(Canvas canvas, StripLayout layout, int index, Bitmap photo,
+                                  Rect srcRect, Rect dstRect) {
+        if (photo == null) return;
+
+        StripLayout.Box crop = layout.getSourceCrop(index, photo.getWidth(), photo.getHeight());
+        StripLayout.Box slot = layout.getSlots().get(index);
+        srcRect.set(crop.left, crop.top, crop.right, crop.bottom);
+        dstRect.set(slot.left, slot.top, slot.right, slot.bottom);
+        canvas.drawBitmap(photo, srcRect, dstRect, PHOTO_PAINT);
+    }
+
+    private static void drawVintageBorder(Canvas canvas, int width, int height) {
+        canvas.drawRect(10, 10, width - 10, height - 10, BORDER_PAINT);
+        canvas.drawRect(15, 15, width - 15, height - 15, INNER_BORDER_PAINT);
+    }
+
+    private static void drawHeader(Canvas canvas, int stripWidth, int baseline) {
+        canvas.drawText("VINTAGE MEMORIES", stripWidth / 2, baseline, HEADER_PAINT);
+    }
+
+    private static void drawFooter(Canvas canvas, int stripWidth, int baseline) {
         String dateString = new SimpleDateFormat("MMMM dd, yyyy", Locale.getDefault()).format(new Date());
-        canvas.drawText(dateString, stripWidth / 2, stripHeight - 35, footerPaint);
+        canvas.drawText(dateString, stripWidth / 2, baseline, FOOTER_PAINT);
+    }
+
+    private static Paint createStrokePaint(String color, float strokeWidth) {
+        Paint paint = new Paint();
+        paint.setColor(Color.parseColor(color));
+        paint.setStrokeWidth(strokeWidth);
+        paint.setStyle(Paint.Style.STROKE);
+        return paint;
+    }
+
+    private static Paint createFillPaint(String color) {
+        Paint paint = new Paint();
+        paint.setColor(Color.parseColor(color));
+        paint.setStyle(Paint.Style.FILL);
+        return paint;
+    }
+
+    private static Paint createTextPaint(String color, float textSize, int style) {
+        Paint paint = new Paint();
+        paint.setColor(Color.parseColor(color));
+        paint.setTextSize(textSize);
+        paint.setTypeface(Typeface.create("serif", style));
+        paint.setTextAlign(Paint.Align.CENTER);
+        return paint;
     }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package com.example.snapbook;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Streaming 8-bit RGB PNG writer. Rows are Sub-filtered and deflated as they
+// arrive; compressed data is emitted as a sequence of bounded IDAT chunks.
+public class PngBandEncoder extends BandedImageEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+    private static final int FILTER_SUB = 1;
+
+    private Deflater deflater;
+    private DeflaterOutputStream deflaterStream;
+    private byte[] rowBytes;
+
+    public PngBandEncoder(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8); // Bit depth
+        header.write(2); // Color type: truecolor RGB
+        header.write(0); // Compression
+        header.write(0); // Filter method
+        header.write(0); // No interlace
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+
+        rowBytes = new byte[1 + width * 3];
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        deflaterStream = new DeflaterOutputStream(new IdatOutputStream(), deflater, 8192);
+    }
+
+    @Override
+    protected void encodeRows(int[] argb, int rowCount) throws IOException {
+        for (int row = 0; row < rowCount; row++) {
+            int base = row * width;
+            rowBytes[0] = FILTER_SUB;
+
+            int prevR = 0, prevG = 0, prevB = 0;
+            for (int x = 0; x < width; x++) {
+                int pixel = argb[base + x];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+
+                int i = 1 + x * 3;
+                rowBytes[i] = (byte) (r - prevR);
+                rowBytes[i + 1] = (byte) (g - prevG);
+                rowBytes[i + 2] = (byte) (b - prevB);
+                prevR = r;
+                prevG = g;
+                prevB = b;
+            }
+            deflaterStream.write(rowBytes, 0, rowBytes.length);
+        }
+    }
+
+    @Override
+    protected void writeTrailer() throws IOException {
+        // Closing the deflater stream flushes the final IDAT chunk
+        deflaterStream.close();
+        deflater.end();
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    private static void writeChunk(OutputStream target, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        writeInt(target, length);
+        target.write(typeBytes);
+        target.write(data, 0, length);
+        writeInt(target, (int) crc.getValue());
+    }
+
+    private static void writeInt(OutputStream target, int value) throws IOException {
+        target.write((value >>> 24) & 0xFF);
+        target.write((value >>> 16) & 0xFF);
+        target.write((value >>> 8) & 0xFF);
+        target.write(value & 0xFF);
+    }
+
+    // Buffers deflated bytes and writes them out as IDAT chunks
+    private class IdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int count = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) flushChunk();
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
\ No newline at end of file
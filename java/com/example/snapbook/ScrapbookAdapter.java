@@ -2,12 +2,14 @@ package com.example.snapbook;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.*;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import java.io.File;
 import java.text.SimpleDateFormat;
@@ -15,16 +17,46 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
-public class ScrapbookAdapter extends RecyclerView.Adapter<ScrapbookAdapter.ScrapbookViewHolder> {
+public class ScrapbookAdapter extends RecyclerView.Adapter<ScrapbookAdapter.ScrapbookViewHolder>
+        implements GridPrefetcher.Source {
 
-    private List<ScrapbookPage> pages;
+    // A reloaded page is a new object, so compare what the cell shows rather than identity
+    private static final DiffUtil.ItemCallback<ScrapbookPage> PAGE_DIFF = new DiffUtil.ItemCallback<ScrapbookPage>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ScrapbookPage oldPage, @NonNull ScrapbookPage newPage) {
+            return oldPage.id == newPage.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ScrapbookPage oldPage, @NonNull ScrapbookPage newPage) {
+            return oldPage.lastModified == newPage.lastModified
+                    && oldPage.createdDate == newPage.createdDate
+                    && java.util.Objects.equals(oldPage.title, newPage.title)
+                    && oldPage.getImageCount() == newPage.getImageCount()
+                    && oldPage.getTextCount() == newPage.getTextCount()
+                    && oldPage.getPreviewText().equals(newPage.getPreviewText())
+                    && java.util.Objects.equals(oldPage.getFirstImagePath(), newPage.getFirstImagePath());
+        }
+    };
+
+    // Diffs run on a background thread; lists handed to it must not be modified afterwards
+    private final AsyncListDiffer<ScrapbookPage> differ = new AsyncListDiffer<>(this, PAGE_DIFF);
     private ScrapbookJournalActivity context;
     private SimpleDateFormat dateFormat;
+    private int previewWidth;
+    private int previewHeight;
+    private ImageLoader imageLoader;
 
-    public ScrapbookAdapter(List<ScrapbookPage> pages, ScrapbookJournalActivity context) {
-        this.pages = pages;
+    public ScrapbookAdapter(ScrapbookJournalActivity context) {
         this.context = context;
+        setHasStableIds(true);
         this.dateFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
+
+        // Preview cells are half the screen wide (two columns) and 120dp tall
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        this.previewWidth = metrics.widthPixels / 2;
+        this.previewHeight = Math.round(120 * metrics.density);
+        this.imageLoader = ImageLoader.getInstance(context);
     }
 
     @NonNull
@@ -37,7 +69,7 @@ public class ScrapbookAdapter extends RecyclerView.Adapter<ScrapbookAdapter.Scra
 
     @Override
     public void onBindViewHolder(@NonNull ScrapbookViewHolder holder, int position) {
-        ScrapbookPage page = pages.get(position);
+        ScrapbookPage page = differ.getCurrentList().get(position);
 
         // Set title
         holder.titleText.setText(page.title);
@@ -53,20 +85,24 @@ public class ScrapbookAdapter extends RecyclerView.Adapter<ScrapbookAdapter.Scra
         // Set preview text
         holder.previewText.setText(page.getPreviewText());
 
-        // Load preview image
+        // Load preview image through the shared thumbnail cache, off the main thread
+        holder.cancelPendingLoad();
         String firstImagePath = page.getFirstImagePath();
-        if (firstImagePath != null && new File(firstImagePath).exists()) {
-            try {
-                Bitmap bitmap = BitmapFactory.decodeFile(firstImagePath);
-                if (bitmap != null) {
-                    holder.previewImage.setImageBitmap(bitmap);
-                    holder.previewImage.setVisibility(View.VISIBLE);
-                    holder.placeholderIcon.setVisibility(View.GONE);
-                } else {
-                    setPlaceholderImage(holder);
-                }
-            } catch (Exception e) {
+        File imageFile = firstImagePath != null ? new File(firstImagePath) : null;
+        if (imageFile != null && imageFile.exists()) {
+            String cacheKey = ThumbnailCache.keyFor(firstImagePath, imageFile.lastModified(), imageFile.length());
+            Bitmap cached = imageLoader.getCached(cacheKey);
+            if (cached != null) {
+                showPreview(holder, cached);
+            } else {
                 setPlaceholderImage(holder);
+                holder.pendingLoad = imageLoader.load(firstImagePath, cacheKey, previewLongEdge(),
+                        ImageLoader.PRIORITY_VISIBLE, bitmap -> {
+                            holder.pendingLoad = null;
+                            if (bitmap != null) {
+                                showPreview(holder, bitmap);
+                            }
+                        });
             }
         } else {
             setPlaceholderImage(holder);
@@ -80,14 +116,54 @@ public class ScrapbookAdapter extends RecyclerView.Adapter<ScrapbookAdapter.Scra
         holder.deleteButton.setOnClickListener(v -> context.deletePage(page));
     }
 
+    @Override
+    public void onViewRecycled(@NonNull ScrapbookViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.cancelPendingLoad();
+    }
+
+    @Override
+    public ImageLoader.Request prefetch(int position) {
+        List<ScrapbookPage> pages = differ.getCurrentList();
+        if (position < 0 || position >= pages.size()) return null;
+        String imagePath = pages.get(position).getFirstImagePath();
+        if (imagePath == null) return null;
+
+        File imageFile = new File(imagePath);
+        if (!imageFile.exists()) return null;
+        String cacheKey = ThumbnailCache.keyFor(imagePath, imageFile.lastModified(), imageFile.length());
+        return imageLoader.prefetch(imagePath, cacheKey, previewLongEdge());
+    }
+
+    private int previewLongEdge() {
+        return Math.max(previewWidth, previewHeight);
+    }
+
+    private void showPreview(ScrapbookViewHolder holder, Bitmap bitmap) {
+        holder.previewImage.setImageBitmap(bitmap);
+        holder.previewImage.setVisibility(View.VISIBLE);
+        holder.placeholderIcon.setVisibility(View.GONE);
+    }
+
     private void setPlaceholderImage(ScrapbookViewHolder holder) {
+        holder.previewImage.setImageDrawable(null);
         holder.previewImage.setVisibility(View.GONE);
         holder.placeholderIcon.setVisibility(View.VISIBLE);
     }
 
     @Override
     public int getItemCount() {
-        return pages.size();
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).id;
+    }
+
+    // Only pages that were added, removed or changed are rebound; onCommitted runs once the update is applied
+    public void submitPages(List<ScrapbookPage> pages, Runnable onCommitted) {
+        differ.submitList(new java.util.ArrayList<>(pages), onCommitted);
     }
 
     public static class ScrapbookViewHolder extends RecyclerView.ViewHolder {
@@ -99,6 +175,7 @@ public class ScrapbookAdapter extends RecyclerView.Adapter<ScrapbookAdapter.Scra
         TextView placeholderIcon;
         Button editButton;
         Button deleteButton;
+        ImageLoader.Request pendingLoad;
 
         public ScrapbookViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -111,5 +188,12 @@ public class ScrapbookAdapter extends RecyclerView.Adapter<ScrapbookAdapter.Scra
             editButton = itemView.findViewById(R.id.edit_button);
             deleteButton = itemView.findViewById(R.id.delete_button);
         }
+
+        void cancelPendingLoad() {
+            if (pendingLoad != null) {
+                pendingLoad.cancel();
+                pendingLoad = null;
+            }
+        }
     }
 }
\ No newline at end of file
@@ -7,10 +7,21 @@ import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 public class ScrapbookCanvasView extends View {
 
     private static final String TAG = "ScrapbookCanvasView";
+
+    // Reports finished user edits so they can be recorded as page ops
+    public interface OnItemChangeListener {
+        void onItemMoved(ScrapbookItem item);
+        void onItemDeleted(ScrapbookItem item);
+    }
     
     private ScrapbookPage page;
     private Paint backgroundPaint;
@@ -21,7 +32,14 @@ public class ScrapbookCanvasView extends View {
     
     private ScrapbookItem selectedItem;
     private boolean isDragging = false;
+    private boolean hasMoved = false;
     private float lastTouchX, lastTouchY;
+    private OnItemChangeListener itemChangeListener;
+
+    // Images decoded at their drawn size, keyed by path and size. Entries not drawn
+    // in a frame go back to the BitmapPool, so onDraw only decodes on a change.
+    private final Map<String, Bitmap> decodedImages = new HashMap<>();
+    private final Set<String> drawnThisFrame = new HashSet<>();
     
     public ScrapbookCanvasView(Context context) {
         super(context);
@@ -68,11 +86,16 @@ public class ScrapbookCanvasView extends View {
         invalidate();
     }
 
+    public void setOnItemChangeListener(OnItemChangeListener listener) {
+        this.itemChangeListener = listener;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
         if (page == null) return;
+        drawnThisFrame.clear();
 
         // Draw background
         canvas.drawColor(page.backgroundColor);
@@ -91,17 +114,52 @@ public class ScrapbookCanvasView extends View {
         if (selectedItem != null) {
             drawSelectionBorder(canvas, selectedItem);
         }
+
+        releaseUndrawnImages();
+    }
+
+    private Bitmap getImage(String path, float drawnWidth, float drawnHeight) {
+        int width = Math.max(1, Math.round(drawnWidth));
+        int height = Math.max(1, Math.round(drawnHeight));
+        String key = path + "@" + width + "x" + height;
+        drawnThisFrame.add(key);
+
+        Bitmap bitmap = decodedImages.get(key);
+        if (bitmap == null && new File(path).exists()) {
+            bitmap = BitmapDecoder.decodeToFill(path, width, height);
+            if (bitmap != null) {
+                decodedImages.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    private void releaseUndrawnImages() {
+        Iterator<Map.Entry<String, Bitmap>> it = decodedImages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Bitmap> entry = it.next();
+            if (!drawnThisFrame.contains(entry.getKey())) {
+                BitmapPool.getInstance().put(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        for (Bitmap bitmap : decodedImages.values()) {
+            BitmapPool.getInstance().put(bitmap);
+        }
+        decodedImages.clear();
     }
 
     private void drawBackgroundImage(Canvas canvas, String imagePath) {
         try {
-            File imageFile = new File(imagePath);
-            if (imageFile.exists()) {
-                Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
-                if (bitmap != null) {
-                    Rect destRect = new Rect(0, 0, getWidth(), getHeight());
-                    canvas.drawBitmap(bitmap, null, destRect, itemPaint);
-                }
+            Bitmap bitmap = getImage(imagePath, getWidth(), getHeight());
+            if (bitmap != null) {
+                Rect destRect = new Rect(0, 0, getWidth(), getHeight());
+                canvas.drawBitmap(bitmap, null, destRect, itemPaint);
             }
         } catch (Exception e) {
             Log.e(TAG, "Error drawing background image", e);
@@ -151,12 +209,9 @@ public class ScrapbookCanvasView extends View {
     private void drawImageItem(Canvas canvas, ScrapbookItem item, RectF rect) {
         if (item.imagePath != null) {
             try {
-                File imageFile = new File(item.imagePath);
-                if (imageFile.exists()) {
-                    Bitmap bitmap = BitmapFactory.decodeFile(item.imagePath);
-                    if (bitmap != null) {
-                        canvas.drawBitmap(bitmap, null, rect, itemPaint);
-                    }
+                Bitmap bitmap = getImage(item.imagePath, item.width * item.scale, item.height * item.scale);
+                if (bitmap != null) {
+                    canvas.drawBitmap(bitmap, null, rect, itemPaint);
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Error drawing image item", e);
@@ -214,13 +269,10 @@ public class ScrapbookCanvasView extends View {
         if (item.doodlePath != null) {
             // TODO: Load and draw doodle bitmap
             try {
-                File doodleFile = new File(item.doodlePath);
-                if (doodleFile.exists()) {
-                    Bitmap bitmap = BitmapFactory.decodeFile(item.doodlePath);
-                    if (bitmap != null) {
-                        canvas.drawBitmap(bitmap, null, rect, itemPaint);
-                        return;
-                    }
+                Bitmap bitmap = getImage(item.doodlePath, item.width * item.scale, item.height * item.scale);
+                if (bitmap != null) {
+                    canvas.drawBitmap(bitmap, null, rect, itemPaint);
+                    return;
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Error drawing doodle", e);
@@ -260,6 +312,7 @@ public class ScrapbookCanvasView extends View {
                 selectedItem = findItemAt(x, y);
                 if (selectedItem != null) {
                     isDragging = true;
+                    hasMoved = false;
                     lastTouchX = x;
                     lastTouchY = y;
                     invalidate();
@@ -273,6 +326,7 @@ public class ScrapbookCanvasView extends View {
                     float deltaY = y - lastTouchY;
                     
                     selectedItem.move(deltaX, deltaY);
+                    hasMoved = true;
                     
                     lastTouchX = x;
                     lastTouchY = y;
@@ -282,6 +336,10 @@ public class ScrapbookCanvasView extends View {
                 break;
 
             case MotionEvent.ACTION_UP:
+                // One op per drag, not per touch sample
+                if (isDragging && hasMoved && selectedItem != null && itemChangeListener != null) {
+                    itemChangeListener.onItemMoved(selectedItem);
+                }
                 isDragging = false;
                 break;
         }
@@ -312,6 +370,9 @@ public class ScrapbookCanvasView extends View {
     public void deleteSelectedItem() {
         if (selectedItem != null && page != null) {
             page.items.remove(selectedItem);
+            if (itemChangeListener != null) {
+                itemChangeListener.onItemDeleted(selectedItem);
+            }
             selectedItem = null;
             invalidate();
         }
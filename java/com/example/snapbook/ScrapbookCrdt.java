@@ -0,0 +1,579 @@
+package com.example.snapbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Operation-based CRDT for the items on one scrapbook page. Every item property
+// (position, size, each style key) is a last-writer-wins register stamped with
+// (lamport, replica), and deletes are permanent tombstones, so any two replicas
+// that have seen the same set of ops end up with identical items regardless of
+// the order the ops arrived in. Ops from one replica are applied in the order that
+// replica made them; one that arrives ahead of a gap is held back until the gap fills.
+public class ScrapbookCrdt {
+
+    // Fold the op log into the snapshot once it grows past this many ops
+    public static final int SNAPSHOT_INTERVAL = 256;
+    // Ops held back per replica while waiting for a gap; later ones are dropped and
+    // fetched again through getOpsSince(), as the version vector does not cover them
+    private static final int MAX_PENDING_PER_REPLICA = SNAPSHOT_INTERVAL;
+
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int STYLE_COUNT = ScrapbookItem.STYLE_KEYS.length;
+    private static final Map<String, Integer> STYLE_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < STYLE_COUNT; i++) {
+            STYLE_INDEX.put(ScrapbookItem.STYLE_KEYS[i], i);
+        }
+    }
+
+    // One register stamp per property; stamps of (0, "") belong to the base state
+    private static class ItemState {
+        final ScrapbookItem item;
+        boolean added;
+        boolean deleted;
+        long addLamport;
+        String addReplica = "";
+        long posLamport;
+        String posReplica = "";
+        long sizeLamport;
+        String sizeReplica = "";
+        final long[] styleLamport = new long[STYLE_COUNT];
+        final String[] styleReplica = new String[STYLE_COUNT];
+
+        ItemState(ScrapbookItem item) {
+            this.item = item;
+            for (int i = 0; i < STYLE_COUNT; i++) {
+                styleReplica[i] = "";
+            }
+        }
+
+        boolean isVisible() {
+            return added && !deleted;
+        }
+    }
+
+    private final String replicaId;
+    private final Map<String, ItemState> states = new LinkedHashMap<>();
+    private final Map<String, Long> versionVector = new HashMap<>();
+    private final Map<String, java.util.TreeMap<Long, ScrapbookOp>> pendingOps = new HashMap<>();
+    private long clock = 0;
+    private long localSeq = 0;
+
+    private final List<ScrapbookOp> opLog = new ArrayList<>();
+    private Map<String, Long> snapshotVector = new HashMap<>();
+    private byte[] snapshot;
+
+    private final List<ScrapbookItem> visibleItems = new ArrayList<>();
+    private boolean visibleDirty = true;
+
+    public ScrapbookCrdt(String replicaId) {
+        this.replicaId = replicaId;
+    }
+
+    // Seed a document from items saved before the page was ever synced. The add
+    // stamps follow the saved order, so the stacking order survives and items added
+    // later land on top.
+    public static ScrapbookCrdt fromItems(String replicaId, List<ScrapbookItem> items) {
+        ScrapbookCrdt crdt = new ScrapbookCrdt(replicaId);
+        for (int i = 0; i < items.size(); i++) {
+            ScrapbookItem item = items.get(i);
+            ItemState state = new ItemState(item);
+            state.added = true;
+            state.addLamport = i;
+            crdt.states.put(item.uid, state);
+        }
+        crdt.clock = items.size();
+        crdt.compact();
+        return crdt;
+    }
+
+    // Restore a document from a saved snapshot plus the ops logged after it
+    public static ScrapbookCrdt restore(String replicaId, byte[] snapshot, byte[] ops) throws IOException {
+        ScrapbookCrdt crdt = new ScrapbookCrdt(replicaId);
+        if (snapshot != null) {
+            crdt.mergeSnapshot(snapshot);
+        }
+        if (ops != null) {
+            crdt.merge(decodeOps(ops));
+        }
+        Long ownSeq = crdt.versionVector.get(replicaId);
+        crdt.localSeq = ownSeq != null ? ownSeq : 0;
+        return crdt;
+    }
+
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    // Items currently on the page, in insertion order. The returned list is shared
+    // and only valid until the next op is applied.
+    public List<ScrapbookItem> getItems() {
+        if (visibleDirty) {
+            List<ItemState> visible = new ArrayList<>();
+            for (ItemState state : states.values()) {
+                if (state.isVisible()) visible.add(state);
+            }
+            Collections.sort(visible, (a, b) -> {
+                if (a.addLamport != b.addLamport) return Long.compare(a.addLamport, b.addLamport);
+                int byReplica = a.addReplica.compareTo(b.addReplica);
+                return byReplica != 0 ? byReplica : a.item.uid.compareTo(b.item.uid);
+            });
+
+            visibleItems.clear();
+            for (ItemState state : visible) {
+                visibleItems.add(state.item);
+            }
+            visibleDirty = false;
+        }
+        return visibleItems;
+    }
+
+    public ScrapbookOp addItem(ScrapbookItem item) {
+        if (!states.containsKey(item.uid)) {
+            // Keep the caller's instance so views holding it see later remote edits
+            states.put(item.uid, new ItemState(item));
+        }
+
+        ScrapbookOp op = newLocalOp(ScrapbookOp.ADD, item.uid);
+        op.itemType = item.type;
+        op.x = item.x;
+        op.y = item.y;
+        op.width = item.width;
+        op.height = item.height;
+        op.rotation = item.rotation;
+        op.scale = item.scale;
+        op.styleValues = new String[STYLE_COUNT];
+        for (int i = 0; i < STYLE_COUNT; i++) {
+            op.styleValues[i] = item.getStyle(ScrapbookItem.STYLE_KEYS[i]);
+        }
+        return commitLocal(op);
+    }
+
+    public ScrapbookOp moveItem(String uid, float x, float y) {
+        ScrapbookOp op = newLocalOp(ScrapbookOp.MOVE, uid);
+        op.x = x;
+        op.y = y;
+        return commitLocal(op);
+    }
+
+    public ScrapbookOp resizeItem(String uid, float width, float height, float rotation, float scale) {
+        ScrapbookOp op = newLocalOp(ScrapbookOp.RESIZE, uid);
+        op.width = width;
+        op.height = height;
+        op.rotation = rotation;
+        op.scale = scale;
+        return commitLocal(op);
+    }
+
+    public ScrapbookOp restyleItem(String uid, String key, String value) {
+        if (!STYLE_INDEX.containsKey(key)) {
+            throw new IllegalArgumentException("Unknown style key " + key);
+        }
+        ScrapbookOp op = newLocalOp(ScrapbookOp.RESTYLE, uid);
+        op.styleKey = key;
+        op.styleValue = value;
+        return commitLocal(op);
+    }
+
+    public ScrapbookOp deleteItem(String uid) {
+        return commitLocal(newLocalOp(ScrapbookOp.DELETE, uid));
+    }
+
+    // Apply remote ops. Ops already seen are skipped, so replaying a backlog is safe.
+    // Returns the number of ops that were applied, including held-back ones a gap was
+    // waiting for.
+    public int merge(List<ScrapbookOp> ops) {
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("scrapbook.crdt_merge");
+        int applied = 0;
+        try {
+            for (ScrapbookOp op : ops) {
+                long seen = seenSeq(op.replica);
+                if (op.seq <= seen) continue;
+
+                if (op.seq == seen + 1) {
+                    applyRemote(op);
+                    applied += 1 + drainPending(op.replica);
+                } else {
+                    holdBack(op);
+                }
+            }
+            maybeCompact();
+        } finally {
+            span.end();
+        }
+        MetricsRegistry.getInstance().increment("scrapbook.crdt_ops_merged", applied);
+        return applied;
+    }
+
+    // Ops a peer with the given version vector is missing, or null if some of them
+    // have already been folded into the snapshot and the peer needs that instead
+    public List<ScrapbookOp> getOpsSince(Map<String, Long> remoteVector) {
+        for (Map.Entry<String, Long> entry : snapshotVector.entrySet()) {
+            Long remoteSeq = remoteVector.get(entry.getKey());
+            if (remoteSeq == null || remoteSeq < entry.getValue()) {
+                return null;
+            }
+        }
+
+        List<ScrapbookOp> missing = new ArrayList<>();
+        for (ScrapbookOp op : opLog) {
+            Long remoteSeq = remoteVector.get(op.replica);
+            if (remoteSeq == null || op.seq > remoteSeq) {
+                missing.add(op);
+            }
+        }
+        return missing;
+    }
+
+    public Map<String, Long> getVersionVector() {
+        return new HashMap<>(versionVector);
+    }
+
+    public List<ScrapbookOp> getOpLog() {
+        return Collections.unmodifiableList(opLog);
+    }
+
+    // Full state as of the last compaction; getOpLog() holds everything after it
+    public byte[] getSnapshot() {
+        return snapshot;
+    }
+
+    // Fold the op log into a fresh snapshot
+    public void compact() {
+        snapshot = encodeSnapshot();
+        snapshotVector = new HashMap<>(versionVector);
+        opLog.clear();
+    }
+
+    private void maybeCompact() {
+        if (opLog.size() >= SNAPSHOT_INTERVAL) {
+            compact();
+        }
+    }
+
+    private long seenSeq(String replica) {
+        Long seen = versionVector.get(replica);
+        return seen != null ? seen : 0;
+    }
+
+    private void applyRemote(ScrapbookOp op) {
+        versionVector.put(op.replica, op.seq);
+        clock = Math.max(clock, op.lamport);
+        apply(op);
+        opLog.add(op);
+    }
+
+    private void holdBack(ScrapbookOp op) {
+        java.util.TreeMap<Long, ScrapbookOp> pending = pendingOps.get(op.replica);
+        if (pending == null) {
+            pending = new java.util.TreeMap<>();
+            pendingOps.put(op.replica, pending);
+        }
+        if (pending.size() < MAX_PENDING_PER_REPLICA || pending.containsKey(op.seq)) {
+            pending.put(op.seq, op);
+        }
+    }
+
+    // Applies the replica's held-back ops that now follow on from the version vector
+    private int drainPending(String replica) {
+        java.util.TreeMap<Long, ScrapbookOp> pending = pendingOps.get(replica);
+        if (pending == null) return 0;
+
+        int applied = 0;
+        long seen = seenSeq(replica);
+        pending.headMap(seen, true).clear();
+        while (!pending.isEmpty() && pending.firstKey() == seen + 1) {
+            ScrapbookOp op = pending.pollFirstEntry().getValue();
+            applyRemote(op);
+            seen = op.seq;
+            applied++;
+        }
+        if (pending.isEmpty()) {
+            pendingOps.remove(replica);
+        }
+        return applied;
+    }
+
+    private ScrapbookOp newLocalOp(byte type, String uid) {
+        return new ScrapbookOp(type, replicaId, ++localSeq, ++clock, uid);
+    }
+
+    private ScrapbookOp commitLocal(ScrapbookOp op) {
+        versionVector.put(replicaId, op.seq);
+        apply(op);
+        opLog.add(op);
+        maybeCompact();
+        return op;
+    }
+
+    private void apply(ScrapbookOp op) {
+        ItemState state = states.get(op.itemUid);
+        if (state == null) {
+            // An edit can outrun its ADD when it came through a different peer;
+            // hold it in a hidden placeholder until the ADD lands
+            ScrapbookItem item = new ScrapbookItem();
+            item.uid = op.itemUid;
+            state = new ItemState(item);
+            states.put(op.itemUid, state);
+        }
+        ScrapbookItem item = state.item;
+
+        switch (op.type) {
+            case ScrapbookOp.ADD:
+                if (!state.added) {
+                    state.added = true;
+                    state.addLamport = op.lamport;
+                    state.addReplica = op.replica;
+                    item.type = op.itemType;
+                    visibleDirty = true;
+                }
+                if (op.isNewerThan(state.posLamport, state.posReplica)) {
+                    item.setPosition(op.x, op.y);
+                    state.posLamport = op.lamport;
+                    state.posReplica = op.replica;
+                }
+                if (op.isNewerThan(state.sizeLamport, state.sizeReplica)) {
+                    applySize(item, op);
+                    state.sizeLamport = op.lamport;
+                    state.sizeReplica = op.replica;
+                }
+                for (int i = 0; i < STYLE_COUNT; i++) {
+                    applyStyle(state, i, op.styleValues[i], op);
+                }
+                break;
+
+            case ScrapbookOp.MOVE:
+                if (op.isNewerThan(state.posLamport, state.posReplica)) {
+                    item.setPosition(op.x, op.y);
+                    state.posLamport = op.lamport;
+                    state.posReplica = op.replica;
+                }
+                break;
+
+            case ScrapbookOp.RESIZE:
+                if (op.isNewerThan(state.sizeLamport, state.sizeReplica)) {
+                    applySize(item, op);
+                    state.sizeLamport = op.lamport;
+                    state.sizeReplica = op.replica;
+                }
+                break;
+
+            case ScrapbookOp.RESTYLE:
+                Integer index = STYLE_INDEX.get(op.styleKey);
+                if (index != null) {
+                    applyStyle(state, index, op.styleValue, op);
+                }
+                break;
+
+            case ScrapbookOp.DELETE:
+                if (!state.deleted) {
+                    state.deleted = true;
+                    visibleDirty = true;
+                }
+                break;
+        }
+    }
+
+    private static void applySize(ScrapbookItem item, ScrapbookOp op) {
+        item.setSize(op.width, op.height);
+        item.rotation = op.rotation;
+        item.scale = op.scale;
+    }
+
+    private static void applyStyle(ItemState state, int index, String value, ScrapbookOp op) {
+        if (!op.isNewerThan(state.styleLamport[index], state.styleReplica[index])) return;
+        if (value != null || isNullable(index)) {
+            state.item.setStyle(ScrapbookItem.STYLE_KEYS[index], value);
+        }
+        state.styleLamport[index] = op.lamport;
+        state.styleReplica[index] = op.replica;
+    }
+
+    // Only the string-valued style keys can hold null; the rest are primitives
+    private static boolean isNullable(int index) {
+        String key = ScrapbookItem.STYLE_KEYS[index];
+        return key.equals("imagePath") || key.equals("text") || key.equals("fontFamily")
+                || key.equals("doodlePath");
+    }
+
+    // Merge another replica's full state register by register, for peers that
+    // fell behind the op log or when first opening a page someone else shares
+    public void mergeSnapshot(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readInt();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        clock = Math.max(clock, in.readLong());
+        int replicas = in.readInt();
+        for (int i = 0; i < replicas; i++) {
+            String replica = in.readUTF();
+            long seq = in.readLong();
+            Long seen = versionVector.get(replica);
+            if (seen == null || seq > seen) {
+                versionVector.put(replica, seq);
+            }
+        }
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String uid = in.readUTF();
+            ItemState state = states.get(uid);
+            if (state == null) {
+                ScrapbookItem item = new ScrapbookItem();
+                item.uid = uid;
+                state = new ItemState(item);
+                states.put(uid, state);
+            }
+            ScrapbookItem item = state.item;
+
+            boolean added = in.readBoolean();
+            boolean deleted = in.readBoolean();
+            int type = in.readInt();
+            long addLamport = in.readLong();
+            String addReplica = in.readUTF();
+            if (added && !state.added) {
+                state.added = true;
+                state.addLamport = addLamport;
+                state.addReplica = addReplica;
+                item.type = type;
+                visibleDirty = true;
+            }
+            if (deleted && !state.deleted) {
+                state.deleted = true;
+                visibleDirty = true;
+            }
+
+            long lamport = in.readLong();
+            String replica = in.readUTF();
+            float x = in.readFloat();
+            float y = in.readFloat();
+            if (isNewer(lamport, replica, state.posLamport, state.posReplica)) {
+                item.setPosition(x, y);
+                state.posLamport = lamport;
+                state.posReplica = replica;
+            }
+
+            lamport = in.readLong();
+            replica = in.readUTF();
+            float width = in.readFloat();
+            float height = in.readFloat();
+            float rotation = in.readFloat();
+            float scale = in.readFloat();
+            if (isNewer(lamport, replica, state.sizeLamport, state.sizeReplica)) {
+                item.setSize(width, height);
+                item.rotation = rotation;
+                item.scale = scale;
+                state.sizeLamport = lamport;
+                state.sizeReplica = replica;
+            }
+
+            for (int s = 0; s < STYLE_COUNT; s++) {
+                lamport = in.readLong();
+                replica = in.readUTF();
+                String value = ScrapbookOp.readNullable(in);
+                if (isNewer(lamport, replica, state.styleLamport[s], state.styleReplica[s])) {
+                    if (value != null || isNullable(s)) {
+                        item.setStyle(ScrapbookItem.STYLE_KEYS[s], value);
+                    }
+                    state.styleLamport[s] = lamport;
+                    state.styleReplica[s] = replica;
+                }
+            }
+        }
+
+        // The snapshot may have closed gaps that held-back ops were waiting on
+        for (String replica : new ArrayList<>(pendingOps.keySet())) {
+            drainPending(replica);
+        }
+
+        // Our log no longer describes everything we hold, so start a new one
+        compact();
+    }
+
+    private static boolean isNewer(long lamport, String replica, long otherLamport, String otherReplica) {
+        if (lamport != otherLamport) return lamport > otherLamport;
+        return replica.compareTo(otherReplica) > 0;
+    }
+
+    private byte[] encodeSnapshot() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(clock);
+
+            out.writeInt(versionVector.size());
+            for (Map.Entry<String, Long> entry : versionVector.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+
+            out.writeInt(states.size());
+            for (ItemState state : states.values()) {
+                ScrapbookItem item = state.item;
+                out.writeUTF(item.uid);
+                out.writeBoolean(state.added);
+                out.writeBoolean(state.deleted);
+                out.writeInt(item.type);
+                out.writeLong(state.addLamport);
+                out.writeUTF(state.addReplica);
+
+                out.writeLong(state.posLamport);
+                out.writeUTF(state.posReplica);
+                out.writeFloat(item.x);
+                out.writeFloat(item.y);
+
+                out.writeLong(state.sizeLamport);
+                out.writeUTF(state.sizeReplica);
+                out.writeFloat(item.width);
+                out.writeFloat(item.height);
+                out.writeFloat(item.rotation);
+                out.writeFloat(item.scale);
+
+                for (int s = 0; s < STYLE_COUNT; s++) {
+                    out.writeLong(state.styleLamport[s]);
+                    out.writeUTF(state.styleReplica[s]);
+                    ScrapbookOp.writeNullable(out, item.getStyle(ScrapbookItem.STYLE_KEYS[s]));
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] encodeOps(List<ScrapbookOp> ops) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ops.size());
+        for (ScrapbookOp op : ops) {
+            op.writeTo(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static List<ScrapbookOp> decodeOps(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int count = in.readInt();
+        List<ScrapbookOp> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ops.add(ScrapbookOp.readFrom(in));
+        }
+        return ops;
+    }
+}
\ No newline at end of file
@@ -10,17 +10,20 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ScrapbookDataManager extends SQLiteOpenHelper {
 
     private static final String TAG = "ScrapbookDataManager";
     private static final String DATABASE_NAME = "scrapbook.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     // Tables
     private static final String TABLE_PAGES = "pages";
     private static final String TABLE_ITEMS = "items";
+    private static final String TABLE_PAGE_SYNC = "page_sync";
 
     // Pages table columns
     private static final String COLUMN_PAGE_ID = "id";
@@ -36,6 +39,21 @@ public class ScrapbookDataManager extends SQLiteOpenHelper {
     private static final String COLUMN_ITEM_TYPE = "type";
     private static final String COLUMN_ITEM_DATA = "data"; // JSON data for all item properties
 
+    // Page sync table columns (CRDT snapshot plus the ops logged since it)
+    private static final String COLUMN_SYNC_PAGE_ID = "page_id";
+    private static final String COLUMN_SYNC_SNAPSHOT = "snapshot";
+    private static final String COLUMN_SYNC_OPS = "ops";
+
+    public static class SyncState {
+        public final byte[] snapshot;
+        public final byte[] ops;
+
+        SyncState(byte[] snapshot, byte[] ops) {
+            this.snapshot = snapshot;
+            this.ops = ops;
+        }
+    }
+
     public ScrapbookDataManager(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -62,18 +80,35 @@ public class ScrapbookDataManager extends SQLiteOpenHelper {
 
         db.execSQL(createPagesTable);
         db.execSQL(createItemsTable);
+        createPageSyncTable(db);
 
         Log.d(TAG, "Database created successfully");
     }
 
+    private void createPageSyncTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PAGE_SYNC + " (" +
+                COLUMN_SYNC_PAGE_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_SYNC_SNAPSHOT + " BLOB, " +
+                COLUMN_SYNC_OPS + " BLOB, " +
+                "FOREIGN KEY(" + COLUMN_SYNC_PAGE_ID + ") REFERENCES " +
+                TABLE_PAGES + "(" + COLUMN_PAGE_ID + ") ON DELETE CASCADE)");
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ITEMS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PAGES);
-        onCreate(db);
+        // Upgrade step by step so existing pages survive
+        if (oldVersion < 2) {
+            createPageSyncTable(db);
+        }
     }
 
     public long savePage(ScrapbookPage page) {
+        return savePage(page, null, null);
+    }
+
+    // Page, items and (when given) the CRDT sync state in one transaction, so the
+    // stored items never disagree with the stored snapshot and op log
+    public long savePage(ScrapbookPage page, byte[] snapshot, byte[] ops) {
         SQLiteDatabase db = this.getWritableDatabase();
         
         try {
@@ -92,18 +127,24 @@ public class ScrapbookDataManager extends SQLiteOpenHelper {
                 db.update(TABLE_PAGES, pageValues, COLUMN_PAGE_ID + "=?", 
                          new String[]{String.valueOf(page.id)});
                 pageId = page.id;
-                
-                // Delete existing items
-                db.delete(TABLE_ITEMS, COLUMN_ITEM_PAGE_ID + "=?", 
-                         new String[]{String.valueOf(pageId)});
             } else {
                 // Insert new page
                 pageId = db.insert(TABLE_PAGES, null, pageValues);
             }
 
-            // Save items
+            // Upsert items by uid so rows another editor saved are updated in
+            // place, then drop rows for items no longer on the page
+            Map<String, Long> existingRows = loadItemRowIds(db, pageId);
             for (ScrapbookItem item : page.items) {
-                saveItem(db, pageId, item);
+                Long rowId = existingRows.remove(item.uid);
+                item.id = saveItem(db, pageId, item, rowId != null ? rowId : -1);
+            }
+            for (long staleRowId : existingRows.values()) {
+                db.delete(TABLE_ITEMS, COLUMN_ITEM_ID + "=?",
+                         new String[]{String.valueOf(staleRowId)});
+            }
+            if (snapshot != null) {
+                writeSyncState(db, pageId, snapshot, ops);
             }
 
             db.setTransactionSuccessful();
@@ -119,9 +160,35 @@ public class ScrapbookDataManager extends SQLiteOpenHelper {
         }
     }
 
-    private void saveItem(SQLiteDatabase db, long pageId, ScrapbookItem item) {
+    private Map<String, Long> loadItemRowIds(SQLiteDatabase db, long pageId) {
+        Map<String, Long> rowIds = new HashMap<>();
+        Cursor cursor = db.query(TABLE_ITEMS, new String[]{COLUMN_ITEM_ID, COLUMN_ITEM_DATA},
+                                COLUMN_ITEM_PAGE_ID + "=?", new String[]{String.valueOf(pageId)},
+                                null, null, null);
+
+        while (cursor.moveToNext()) {
+            long rowId = cursor.getLong(0);
+            rowIds.put(readItemUid(cursor.getString(1), rowId), rowId);
+        }
+        cursor.close();
+        return rowIds;
+    }
+
+    // Rows written before items had uids get a stable one derived from the row id
+    private static String readItemUid(String dataJson, long rowId) {
+        try {
+            String uid = new JSONObject(dataJson).optString("uid", null);
+            if (uid != null) return uid;
+        } catch (JSONException e) {
+            Log.e(TAG, "Error parsing item data", e);
+        }
+        return "legacy-" + rowId;
+    }
+
+    private long saveItem(SQLiteDatabase db, long pageId, ScrapbookItem item, long rowId) {
         try {
             JSONObject itemData = new JSONObject();
+            itemData.put("uid", item.uid);
             itemData.put("x", item.x);
             itemData.put("y", item.y);
             itemData.put("width", item.width);
@@ -155,10 +222,16 @@ public class ScrapbookDataManager extends SQLiteOpenHelper {
             itemValues.put(COLUMN_ITEM_TYPE, item.type);
             itemValues.put(COLUMN_ITEM_DATA, itemData.toString());
 
-            db.insert(TABLE_ITEMS, null, itemValues);
+            if (rowId > 0) {
+                db.update(TABLE_ITEMS, itemValues, COLUMN_ITEM_ID + "=?",
+                         new String[]{String.valueOf(rowId)});
+                return rowId;
+            }
+            return db.insert(TABLE_ITEMS, null, itemValues);
             
         } catch (JSONException e) {
             Log.e(TAG, "Error saving item data", e);
+            return rowId;
         }
     }
 
@@ -233,6 +306,7 @@ public class ScrapbookDataManager extends SQLiteOpenHelper {
                     
                     String dataJson = cursor.getString(cursor.getColumnIndex(COLUMN_ITEM_DATA));
                     JSONObject data = new JSONObject(dataJson);
+                    item.uid = data.optString("uid", "legacy-" + item.id);
                     
                     item.x = (float) data.getDouble("x");
                     item.y = (float) data.getDouble("y");
@@ -280,9 +354,11 @@ public class ScrapbookDataManager extends SQLiteOpenHelper {
         try {
             db.beginTransaction();
             
-            // Delete items first (foreign key constraint)
+            // Delete items and sync state first (foreign key constraint)
             db.delete(TABLE_ITEMS, COLUMN_ITEM_PAGE_ID + "=?", 
                      new String[]{String.valueOf(pageId)});
+            db.delete(TABLE_PAGE_SYNC, COLUMN_SYNC_PAGE_ID + "=?",
+                     new String[]{String.valueOf(pageId)});
             
             // Delete page
             int rowsDeleted = db.delete(TABLE_PAGES, COLUMN_PAGE_ID + "=?", 
@@ -301,6 +377,32 @@ public class ScrapbookDataManager extends SQLiteOpenHelper {
         }
     }
 
+    // Replaces the row; callers merge the stored state into theirs before writing
+    private static void writeSyncState(SQLiteDatabase db, long pageId, byte[] snapshot, byte[] ops) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SYNC_PAGE_ID, pageId);
+        values.put(COLUMN_SYNC_SNAPSHOT, snapshot);
+        values.put(COLUMN_SYNC_OPS, ops);
+        db.insertWithOnConflict(TABLE_PAGE_SYNC, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public SyncState loadSyncState(long pageId) {
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        Cursor cursor = db.query(TABLE_PAGE_SYNC, null, COLUMN_SYNC_PAGE_ID + "=?",
+                                new String[]{String.valueOf(pageId)}, null, null, null);
+
+        SyncState state = null;
+        if (cursor.moveToFirst()) {
+            state = new SyncState(cursor.getBlob(cursor.getColumnIndex(COLUMN_SYNC_SNAPSHOT)),
+                                  cursor.getBlob(cursor.getColumnIndex(COLUMN_SYNC_OPS)));
+        }
+
+        cursor.close();
+        db.close();
+        return state;
+    }
+
     public int getPageCount() {
         SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_PAGES, null);
@@ -1,11 +1,21 @@
 package com.example.snapbook;
 
+import java.util.UUID;
+
 public class ScrapbookItem {
     public static final int TYPE_IMAGE = 1;
     public static final int TYPE_TEXT = 2;
     public static final int TYPE_DOODLE = 3;
 
+    // Style properties that can be edited independently (see getStyle/setStyle)
+    public static final String[] STYLE_KEYS = {
+            "imagePath", "text", "textColor", "textSize", "fontFamily", "isBold", "isItalic",
+            "doodlePath", "strokeColor", "strokeWidth",
+            "backgroundColor", "hasBorder", "borderColor", "borderWidth", "cornerRadius"
+    };
+
     public long id;
+    public String uid; // Stable across devices and saves, unlike the database row id
     public int type;
     public float x, y; // Position
     public float width, height; // Size
@@ -36,10 +46,11 @@ public class ScrapbookItem {
     public float cornerRadius = 0f;
 
     public ScrapbookItem() {
-        // Default constructor
+        this.uid = UUID.randomUUID().toString();
     }
 
     public ScrapbookItem(int type) {
+        this();
         this.type = type;
         setDefaultsForType(type);
     }
@@ -102,6 +113,56 @@ public class ScrapbookItem {
         this.height = Math.max(20f, newHeight);
     }
 
+    public String getStyle(String key) {
+        switch (key) {
+            case "imagePath": return imagePath;
+            case "text": return text;
+            case "textColor": return String.valueOf(textColor);
+            case "textSize": return String.valueOf(textSize);
+            case "fontFamily": return fontFamily;
+            case "isBold": return String.valueOf(isBold);
+            case "isItalic": return String.valueOf(isItalic);
+            case "doodlePath": return doodlePath;
+            case "strokeColor": return String.valueOf(strokeColor);
+            case "strokeWidth": return String.valueOf(strokeWidth);
+            case "backgroundColor": return String.valueOf(backgroundColor);
+            case "hasBorder": return String.valueOf(hasBorder);
+            case "borderColor": return String.valueOf(borderColor);
+            case "borderWidth": return String.valueOf(borderWidth);
+            case "cornerRadius": return String.valueOf(cornerRadius);
+            default: return null;
+        }
+    }
+
+    // Values come from other devices too; one that does not parse leaves the style as it was
+    public void setStyle(String key, String value) {
+        try {
+            applyStyle(key, value);
+        } catch (NumberFormatException e) {
+            android.util.Log.w("ScrapbookItem", "Ignoring bad value for " + key + ": " + value);
+        }
+    }
+
+    private void applyStyle(String key, String value) {
+        switch (key) {
+            case "imagePath": imagePath = value; break;
+            case "text": text = value; break;
+            case "textColor": textColor = Integer.parseInt(value); break;
+            case "textSize": textSize = Float.parseFloat(value); break;
+            case "fontFamily": fontFamily = value; break;
+            case "isBold": isBold = Boolean.parseBoolean(value); break;
+            case "isItalic": isItalic = Boolean.parseBoolean(value); break;
+            case "doodlePath": doodlePath = value; break;
+            case "strokeColor": strokeColor = Integer.parseInt(value); break;
+            case "strokeWidth": strokeWidth = Float.parseFloat(value); break;
+            case "backgroundColor": backgroundColor = Integer.parseInt(value); break;
+            case "hasBorder": hasBorder = Boolean.parseBoolean(value); break;
+            case "borderColor": borderColor = Integer.parseInt(value); break;
+            case "borderWidth": borderWidth = Float.parseFloat(value); break;
+            case "cornerRadius": cornerRadius = Float.parseFloat(value); break;
+        }
+    }
+
     public ScrapbookItem copy() {
         ScrapbookItem copy = new ScrapbookItem();
         copy.type = this.type;
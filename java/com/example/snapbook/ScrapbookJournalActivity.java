@@ -58,8 +58,9 @@ public class ScrapbookJournalActivity extends AppCompatActivity {
         scrapbookRecyclerView.setLayoutManager(layoutManager);
 
         scrapbookPages = new ArrayList<>();
-        scrapbookAdapter = new ScrapbookAdapter(scrapbookPages, this);
+        scrapbookAdapter = new ScrapbookAdapter(this);
         scrapbookRecyclerView.setAdapter(scrapbookAdapter);
+        GridPrefetcher.attach(scrapbookRecyclerView, scrapbookAdapter, ImageLoader.getInstance(this));
     }
 
     private void initializeData() {
@@ -77,19 +78,20 @@ public class ScrapbookJournalActivity extends AppCompatActivity {
     }
 
     private void loadScrapbookPages() {
-        scrapbookPages.clear();
-        scrapbookPages.addAll(dataManager.loadAllPages());
-        scrapbookAdapter.notifyDataSetChanged();
-
-        // Show empty state if no pages
-        TextView emptyText = findViewById(R.id.empty_scrapbook_text);
-        if (scrapbookPages.isEmpty()) {
-            emptyText.setVisibility(TextView.VISIBLE);
-            scrapbookRecyclerView.setVisibility(RecyclerView.GONE);
-        } else {
-            emptyText.setVisibility(TextView.GONE);
-            scrapbookRecyclerView.setVisibility(RecyclerView.VISIBLE);
-        }
+        List<ScrapbookPage> pages = dataManager.loadAllPages();
+        scrapbookPages = pages;
+
+        // Show empty state once the diffed list is in place
+        scrapbookAdapter.submitPages(pages, () -> {
+            TextView emptyText = findViewById(R.id.empty_scrapbook_text);
+            if (pages.isEmpty()) {
+                emptyText.setVisibility(TextView.VISIBLE);
+                scrapbookRecyclerView.setVisibility(RecyclerView.GONE);
+            } else {
+                emptyText.setVisibility(TextView.GONE);
+                scrapbookRecyclerView.setVisibility(RecyclerView.VISIBLE);
+            }
+        });
     }
 
     private void createNewPage() {
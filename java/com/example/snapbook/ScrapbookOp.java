@@ -0,0 +1,133 @@
+package com.example.snapbook;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// One edit to a scrapbook page item, addressed by the item's stable uid. Ops are
+// identified by (replica, seq) and totally ordered by (lamport, replica).
+public class ScrapbookOp {
+
+    public static final byte ADD = 1;
+    public static final byte MOVE = 2;
+    public static final byte RESIZE = 3;
+    public static final byte RESTYLE = 4;
+    public static final byte DELETE = 5;
+
+    public final byte type;
+    public final String replica;
+    public final long seq;
+    public final long lamport;
+    public final String itemUid;
+
+    // MOVE: x, y. RESIZE: width, height, rotation, scale. ADD: all geometry.
+    public float x, y, width, height, rotation, scale;
+    // RESTYLE: a single style key/value. ADD: the item type plus every style value.
+    public int itemType;
+    public String styleKey;
+    public String styleValue;
+    public String[] styleValues;
+
+    public ScrapbookOp(byte type, String replica, long seq, long lamport, String itemUid) {
+        this.type = type;
+        this.replica = replica;
+        this.seq = seq;
+        this.lamport = lamport;
+        this.itemUid = itemUid;
+    }
+
+    // True if this op wins a last-writer-wins race against the given stamp
+    boolean isNewerThan(long otherLamport, String otherReplica) {
+        if (lamport != otherLamport) return lamport > otherLamport;
+        return replica.compareTo(otherReplica) > 0;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(replica);
+        out.writeLong(seq);
+        out.writeLong(lamport);
+        out.writeUTF(itemUid);
+
+        switch (type) {
+            case ADD:
+                out.writeInt(itemType);
+                writeGeometry(out);
+                for (String value : styleValues) {
+                    writeNullable(out, value);
+                }
+                break;
+            case MOVE:
+                out.writeFloat(x);
+                out.writeFloat(y);
+                break;
+            case RESIZE:
+                out.writeFloat(width);
+                out.writeFloat(height);
+                out.writeFloat(rotation);
+                out.writeFloat(scale);
+                break;
+            case RESTYLE:
+                out.writeUTF(styleKey);
+                writeNullable(out, styleValue);
+                break;
+        }
+    }
+
+    public static ScrapbookOp readFrom(DataInputStream in) throws IOException {
+        ScrapbookOp op = new ScrapbookOp(in.readByte(), in.readUTF(), in.readLong(), in.readLong(), in.readUTF());
+
+        switch (op.type) {
+            case ADD:
+                op.itemType = in.readInt();
+                op.x = in.readFloat();
+                op.y = in.readFloat();
+                op.width = in.readFloat();
+                op.height = in.readFloat();
+                op.rotation = in.readFloat();
+                op.scale = in.readFloat();
+                op.styleValues = new String[ScrapbookItem.STYLE_KEYS.length];
+                for (int i = 0; i < op.styleValues.length; i++) {
+                    op.styleValues[i] = readNullable(in);
+                }
+                break;
+            case MOVE:
+                op.x = in.readFloat();
+                op.y = in.readFloat();
+                break;
+            case RESIZE:
+                op.width = in.readFloat();
+                op.height = in.readFloat();
+                op.rotation = in.readFloat();
+                op.scale = in.readFloat();
+                break;
+            case RESTYLE:
+                op.styleKey = in.readUTF();
+                op.styleValue = readNullable(in);
+                break;
+            case DELETE:
+                break;
+            default:
+                throw new IOException("Unknown op type " + op.type);
+        }
+        return op;
+    }
+
+    private void writeGeometry(DataOutputStream out) throws IOException {
+        out.writeFloat(x);
+        out.writeFloat(y);
+        out.writeFloat(width);
+        out.writeFloat(height);
+        out.writeFloat(rotation);
+        out.writeFloat(scale);
+    }
+
+    static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
\ No newline at end of file
@@ -18,10 +18,13 @@ public class ScrapbookPageEditorActivity extends AppCompatActivity {
 
     private static final String TAG = "ScrapbookPageEditor";
     private static final int PICK_IMAGE_REQUEST = 2001;
+    private static final String PREFS_NAME = "scrapbook_sync";
+    private static final String PREF_REPLICA_ID = "replica_id";
 
     private ScrapbookPage currentPage;
     private ScrapbookDataManager dataManager;
     private ScrapbookCanvasView canvasView;
+    private ScrapbookCrdt pageDoc; // Source of truth for the page's items
     
     private EditText titleInput;
     private Button saveBtn;
@@ -69,6 +72,19 @@ public class ScrapbookPageEditorActivity extends AppCompatActivity {
         addImageBtn.setOnClickListener(v -> addImage());
         addTextBtn.setOnClickListener(v -> addText());
         addDoodleBtn.setOnClickListener(v -> addDoodle());
+
+        canvasView.setOnItemChangeListener(new ScrapbookCanvasView.OnItemChangeListener() {
+            @Override
+            public void onItemMoved(ScrapbookItem item) {
+                pageDoc.moveItem(item.uid, item.x, item.y);
+            }
+
+            @Override
+            public void onItemDeleted(ScrapbookItem item) {
+                pageDoc.deleteItem(item.uid);
+                refreshItems();
+            }
+        });
     }
 
     private void loadPage() {
@@ -88,6 +104,66 @@ public class ScrapbookPageEditorActivity extends AppCompatActivity {
             titleInput.setText(currentPage.title);
             canvasView.setPage(currentPage);
         }
+
+        loadPageDoc();
+    }
+
+    private void loadPageDoc() {
+        String replicaId = getReplicaId();
+        if (currentPage.id > 0) {
+            ScrapbookDataManager.SyncState syncState = dataManager.loadSyncState(currentPage.id);
+            if (syncState != null) {
+                try {
+                    pageDoc = ScrapbookCrdt.restore(replicaId, syncState.snapshot, syncState.ops);
+                    refreshItems();
+                    return;
+                } catch (java.io.IOException e) {
+                    Log.e(TAG, "Error restoring page sync state, reseeding from items", e);
+                }
+            }
+        }
+        pageDoc = ScrapbookCrdt.fromItems(replicaId, currentPage.items);
+    }
+
+    // Another editor may have saved this page since it was loaded here, so fold the
+    // stored state into ours rather than overwriting it
+    private void mergeStoredState() {
+        if (pageDoc == null || currentPage.id <= 0) return;
+
+        ScrapbookDataManager.SyncState stored = dataManager.loadSyncState(currentPage.id);
+        if (stored == null) return;
+        try {
+            if (stored.snapshot != null) {
+                pageDoc.mergeSnapshot(stored.snapshot);
+            }
+            if (stored.ops != null) {
+                pageDoc.merge(ScrapbookCrdt.decodeOps(stored.ops));
+            }
+            refreshItems();
+        } catch (java.io.IOException e) {
+            Log.e(TAG, "Error merging stored page sync state", e);
+        }
+    }
+
+    // Each install edits as its own replica so concurrent ops never share a stamp
+    private String getReplicaId() {
+        android.content.SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String replicaId = prefs.getString(PREF_REPLICA_ID, null);
+        if (replicaId == null) {
+            replicaId = java.util.UUID.randomUUID().toString();
+            prefs.edit().putString(PREF_REPLICA_ID, replicaId).apply();
+        }
+        return replicaId;
+    }
+
+    private void addItem(ScrapbookItem item) {
+        pageDoc.addItem(item);
+        refreshItems();
+    }
+
+    private void refreshItems() {
+        currentPage.items = new java.util.ArrayList<>(pageDoc.getItems());
+        canvasView.invalidate();
     }
 
     private void savePage() {
@@ -98,7 +174,16 @@ public class ScrapbookPageEditorActivity extends AppCompatActivity {
             }
             
             currentPage.updateModified();
-            long savedId = dataManager.savePage(currentPage);
+            mergeStoredState();
+
+            long savedId;
+            try {
+                savedId = dataManager.savePage(currentPage, pageDoc.getSnapshot(),
+                        ScrapbookCrdt.encodeOps(pageDoc.getOpLog()));
+            } catch (java.io.IOException e) {
+                Log.e(TAG, "Error encoding page sync state", e);
+                return;
+            }
             if (savedId > 0) {
                 currentPage.id = savedId;
                 Log.d(TAG, "Page saved with ID: " + savedId);
@@ -144,8 +229,7 @@ public class ScrapbookPageEditorActivity extends AppCompatActivity {
                 textItem.x = 50;
                 textItem.y = 200;
                 
-                currentPage.items.add(textItem);
-                canvasView.invalidate();
+                addItem(textItem);
                 
                 Toast.makeText(this, "Text added! Tap to edit position.", Toast.LENGTH_SHORT).show();
             }
@@ -163,8 +247,7 @@ public class ScrapbookPageEditorActivity extends AppCompatActivity {
         doodleItem.width = 100;
         doodleItem.height = 100;
         
-        currentPage.items.add(doodleItem);
-        canvasView.invalidate();
+        addItem(doodleItem);
         
         Toast.makeText(this, "Doodle area added! (Drawing feature coming soon)", Toast.LENGTH_SHORT).show();
     }
@@ -202,8 +285,7 @@ public class ScrapbookPageEditorActivity extends AppCompatActivity {
                         imageItem.x = 50;
                         imageItem.y = 100;
                         
-                        currentPage.items.add(imageItem);
-                        canvasView.invalidate();
+                        addItem(imageItem);
                         
                         Toast.makeText(this, "Image added! Tap to move or resize.", Toast.LENGTH_SHORT).show();
                         
@@ -216,6 +298,13 @@ public class ScrapbookPageEditorActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Pick up edits saved while this page was in the background
+        mergeStoredState();
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
@@ -0,0 +1,296 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+// Crash-safe record of the running photobooth session. Each capture is appended to
+// a data file (thumbnail JPEG followed by the full JPEG) and only then indexed, so
+// a kill at any point leaves a readable prefix. Writes run on a single background thread.
+// Every session gets its own data file, named in the index header, because photos of an
+// earlier session may still be read through openPhoto() (e.g. by an export) after the
+// next one begins; releaseUnused() deletes the old files once nothing reads them.
+public class SessionJournal {
+
+    private static final String TAG = "SessionJournal";
+    private static final String DATA_PREFIX = "session_";
+    private static final String DATA_SUFFIX = ".dat";
+    private static final String INDEX_FILE = "session.idx";
+    private static final int MAGIC = 0x534A4E32; // "SJN2"
+    private static final int RECORD_SIZE = 28;
+    private static final int THUMB_WIDTH = 240;
+    private static final int THUMB_QUALITY = 80;
+    private static final int FULL_QUALITY = 95;
+
+    private final File dir;
+    private final File indexFile;
+    private volatile File dataFile; // Current session's data, null when there is none
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    public static class Record {
+        public final int width;
+        public final int height;
+        final long offset;
+        final int thumbLength;
+        final int fullLength;
+        File dataFile;
+
+        Record(long offset, int thumbLength, int fullLength, int width, int height) {
+            this.offset = offset;
+            this.thumbLength = thumbLength;
+            this.fullLength = fullLength;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    public static class ResumedSession {
+        public final String sessionCode;
+        public final int photoCount;
+        public final List<Record> records;
+        public final List<Bitmap> thumbnails;
+
+        ResumedSession(String sessionCode, int photoCount, List<Record> records, List<Bitmap> thumbnails) {
+            this.sessionCode = sessionCode;
+            this.photoCount = photoCount;
+            this.records = records;
+            this.thumbnails = thumbnails;
+        }
+    }
+
+    public SessionJournal(File dir) {
+        if (!dir.exists()) dir.mkdirs();
+        this.dir = dir;
+        this.indexFile = new File(dir, INDEX_FILE);
+    }
+
+    public void begin(String sessionCode, int photoCount) {
+        writer.execute(() -> {
+            try {
+                indexFile.delete();
+                File sessionData = new File(dir, DATA_PREFIX + System.currentTimeMillis() + DATA_SUFFIX);
+                dataFile = sessionData;
+
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(header);
+                out.writeInt(MAGIC);
+                out.writeInt(photoCount);
+                out.writeUTF(sessionCode != null ? sessionCode : "");
+                out.writeUTF(sessionData.getName());
+                out.flush();
+
+                try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+                    index.write(header.toByteArray());
+                    index.getChannel().force(false);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error starting session journal", e);
+            }
+        });
+    }
+
+    public void append(Bitmap photo) {
+        writer.execute(() -> {
+            MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("session.journal_append");
+            try {
+                appendRecord(photo);
+            } catch (IOException e) {
+                Log.e(TAG, "Error journaling capture", e);
+            } finally {
+                span.end();
+            }
+        });
+    }
+
+    // The data file is left to releaseUnused(), as snapshots may still read its photos
+    public void discard() {
+        writer.execute(() -> {
+            indexFile.delete();
+            dataFile = null;
+        });
+    }
+
+    // The session was delivered or left on purpose, so recover() will not offer it
+    // again. The data file stays for photos still read through openPhoto().
+    public void complete() {
+        writer.execute(indexFile::delete);
+    }
+
+    // Deletes the data files of earlier sessions. Call it once nothing can read their
+    // photos any more, e.g. from SessionPhotoStore's release listener.
+    public void releaseUnused() {
+        // The store lets go of its photos when it is closed, after shutdown()
+        if (writer.isShutdown()) return;
+        writer.execute(() -> {
+            File current = dataFile;
+            File[] files = dir.listFiles((d, name) -> name.endsWith(DATA_SUFFIX));
+            if (files == null) return;
+            for (File file : files) {
+                if (!file.equals(current)) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    // Lets queued appends finish so the last capture is not lost on a normal exit
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    // Reads the index and decodes thumbnails only; full images are loaded through
+    // openPhoto() when first needed. Returns null if there is nothing to resume.
+    public ResumedSession recover() {
+        if (!indexFile.exists()) {
+            return null;
+        }
+
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+            byte[] bytes = new byte[(int) index.length()];
+            index.readFully(bytes);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int photoCount = in.readInt();
+            String sessionCode = in.readUTF();
+            File sessionData = new File(dir, in.readUTF());
+            int headerLength = bytes.length - in.available();
+            if (!sessionData.exists()) {
+                return null;
+            }
+            // Resumed captures append to this file unless a new session began meanwhile
+            if (writer.isShutdown()) return null;
+            writer.execute(() -> {
+                if (dataFile == null) dataFile = sessionData;
+            });
+
+            long dataLength = sessionData.length();
+            List<Record> records = new ArrayList<>();
+            int position = headerLength;
+            while (position + RECORD_SIZE <= bytes.length) {
+                Record record = decodeRecord(bytes, position);
+                if (record == null || record.offset + record.thumbLength + record.fullLength > dataLength) {
+                    break;
+                }
+                record.dataFile = sessionData;
+                records.add(record);
+                position += RECORD_SIZE;
+            }
+
+            // Drop a torn trailing record so later appends line up again
+            if (position < bytes.length) {
+                index.setLength(position);
+            }
+            if (records.isEmpty()) {
+                return null;
+            }
+
+            List<Bitmap> thumbnails = new ArrayList<>();
+            try (RandomAccessFile data = new RandomAccessFile(sessionData, "r")) {
+                for (Record record : records) {
+                    thumbnails.add(decodeRange(data, record.offset, record.thumbLength));
+                }
+            }
+            return new ResumedSession(sessionCode, photoCount, records, thumbnails);
+
+        } catch (IOException e) {
+            Log.e(TAG, "Error recovering session journal", e);
+            return null;
+        }
+    }
+
+    public SessionPhotoStore.PhotoSource openPhoto(Record record) {
+        return () -> {
+            try (RandomAccessFile data = new RandomAccessFile(record.dataFile, "r")) {
+                Bitmap bitmap = decodeRange(data, record.offset + record.thumbLength, record.fullLength);
+                if (bitmap == null) {
+                    throw new IOException("Corrupt journaled photo");
+                }
+                return bitmap;
+            }
+        };
+    }
+
+    private void appendRecord(Bitmap photo) throws IOException {
+        int thumbHeight = Math.max(1, Math.round((float) THUMB_WIDTH * photo.getHeight() / photo.getWidth()));
+        Bitmap thumbnail = Bitmap.createScaledBitmap(photo, THUMB_WIDTH, thumbHeight, true);
+        ByteArrayOutputStream thumb = new ByteArrayOutputStream();
+        thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMB_QUALITY, thumb);
+        if (thumbnail != photo) {
+            thumbnail.recycle();
+        }
+
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        photo.compress(Bitmap.CompressFormat.JPEG, FULL_QUALITY, full);
+
+        File sessionData = dataFile;
+        if (sessionData == null) {
+            throw new IOException("No session begun");
+        }
+
+        // Data must be durable before the index points at it
+        long offset;
+        try (RandomAccessFile data = new RandomAccessFile(sessionData, "rw")) {
+            offset = data.length();
+            data.seek(offset);
+            data.write(thumb.toByteArray());
+            data.write(full.toByteArray());
+            data.getChannel().force(false);
+        }
+
+        byte[] record = encodeRecord(offset, thumb.size(), full.size(), photo.getWidth(), photo.getHeight());
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+            index.seek(index.length());
+            index.write(record);
+            index.getChannel().force(false);
+        }
+    }
+
+    private static byte[] encodeRecord(long offset, int thumbLength, int fullLength, int width, int height) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putLong(offset).putInt(thumbLength).putInt(fullLength).putInt(width).putInt(height);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static Record decodeRecord(byte[] bytes, int position) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, position, RECORD_SIZE - 4);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, position, RECORD_SIZE);
+        long offset = buffer.getLong();
+        int thumbLength = buffer.getInt();
+        int fullLength = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        if (buffer.getInt() != (int) crc.getValue()) {
+            return null;
+        }
+        return new Record(offset, thumbLength, fullLength, width, height);
+    }
+
+    private static Bitmap decodeRange(RandomAccessFile data, long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        data.seek(offset);
+        data.readFully(bytes);
+        return BitmapFactory.decodeByteArray(bytes, 0, length);
+    }
+}
\ No newline at end of file
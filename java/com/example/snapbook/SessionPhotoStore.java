@@ -0,0 +1,392 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Holds the session's captured photos within a memory budget. Once the budget is
+// exceeded the least recently used photos are spilled to raw pixel files and
+// memory-mapped back in when asked for, so spilling never costs image quality.
+// Photos added with a PhotoSource are decoded lazily and never need a spill file.
+// Restores and decodes run outside the store's lock, and spill files are written on
+// a background thread while the photo stays resident, so neither a slow photo nor
+// add() on the UI thread ever waits on disk.
+public class SessionPhotoStore extends AbstractList<Bitmap> {
+
+    private static final String TAG = "SessionPhotoStore";
+
+    // Disk-backed origin of a photo that has not been decoded yet (e.g. a resumed session)
+    public interface PhotoSource {
+        Bitmap load() throws IOException;
+    }
+
+    private final File spillDir;
+    private final long budgetBytes;
+    private final ExecutorService spillExecutor = Executors.newSingleThreadExecutor();
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<Entry> retiredEntries = new ArrayList<>(); // Cleared, but still readable by snapshots
+    private int openSnapshots = 0;
+    private boolean releasePending = false;
+    private Runnable releaseListener;
+    private long residentBytes = 0;
+    private long spilledBytes = 0;
+    private long spillingBytes = 0; // Resident photos whose spill file is being written
+    private long useClock = 0;
+    private int nextFileId = 0;
+
+    private static class Entry {
+        Bitmap bitmap;
+        File spillFile;
+        final PhotoSource source;
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+        final long bytes;
+        long lastUsed;
+        boolean retired;
+        boolean spilling;
+        int pins; // Restores in progress; the spill file is not deleted under them
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.width = bitmap.getWidth();
+            this.height = bitmap.getHeight();
+            this.config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+            this.bytes = bitmap.getByteCount();
+            this.source = null;
+        }
+
+        Entry(int width, int height, PhotoSource source) {
+            this.width = width;
+            this.height = height;
+            this.config = Bitmap.Config.ARGB_8888;
+            this.bytes = (long) width * height * 4;
+            this.source = source;
+        }
+    }
+
+    public static long defaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    public SessionPhotoStore(File spillDir, long budgetBytes) {
+        this.spillDir = spillDir;
+        this.budgetBytes = budgetBytes;
+
+        // Anything left here belongs to a previous process
+        if (spillDir.exists()) {
+            File[] leftovers = spillDir.listFiles();
+            if (leftovers != null) {
+                for (File file : leftovers) {
+                    file.delete();
+                }
+            }
+        } else {
+            spillDir.mkdirs();
+        }
+    }
+
+    @Override
+    public synchronized boolean add(Bitmap bitmap) {
+        Entry entry = new Entry(bitmap);
+        entry.lastUsed = ++useClock;
+        entries.add(entry);
+        residentBytes += entry.bytes;
+
+        trimToBudget(entry);
+        updateGauges();
+        return true;
+    }
+
+    public synchronized void addDeferred(int width, int height, PhotoSource source) {
+        Entry entry = new Entry(width, height, source);
+        entry.lastUsed = ++useClock;
+        entries.add(entry);
+    }
+
+    @Override
+    public Bitmap get(int index) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(index);
+        }
+        return load(entry);
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Runs once no cleared photo can be read any more, so the owner of their
+    // PhotoSources (e.g. SessionJournal) can drop the files behind them.
+    // Called under the store's lock; keep it short.
+    public synchronized void setReleaseListener(Runnable listener) {
+        this.releaseListener = listener;
+    }
+
+    // Spill files of the cleared photos are kept until every open snapshot is closed,
+    // so exports still reading an older snapshot can finish
+    @Override
+    public synchronized void clear() {
+        for (Entry entry : entries) {
+            entry.retired = true;
+            if (entry.spillFile != null || entry.source != null) {
+                retiredEntries.add(entry);
+            }
+        }
+        releasePending = true;
+        entries.clear();
+        deleteRetiredFiles();
+        residentBytes = 0;
+        spilledBytes = 0;
+        spillingBytes = 0;
+        updateGauges();
+    }
+
+    // Stable view of the current photos; each get() restores a spilled photo lazily.
+    // Close it when done, or the spill files of cleared photos stay on disk.
+    public synchronized Snapshot snapshot() {
+        openSnapshots++;
+        return new Snapshot(new ArrayList<>(entries));
+    }
+
+    public class Snapshot extends AbstractList<Bitmap> implements Closeable {
+        private final List<Entry> copy;
+        private boolean closed;
+
+        private Snapshot(List<Entry> copy) {
+            this.copy = copy;
+        }
+
+        @Override
+        public Bitmap get(int index) {
+            return load(copy.get(index));
+        }
+
+        @Override
+        public int size() {
+            return copy.size();
+        }
+
+        @Override
+        public void close() {
+            synchronized (SessionPhotoStore.this) {
+                if (closed) return;
+                closed = true;
+                openSnapshots--;
+                deleteRetiredFiles();
+            }
+        }
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    // Spill files still needed by open snapshots are deleted when the last one closes
+    public synchronized void close() {
+        clear();
+        spillExecutor.shutdown();
+    }
+
+    // The entry is pinned while its pixels are read without the lock, then the
+    // result is accounted for under the lock again
+    private Bitmap load(Entry entry) {
+        File spillFile;
+        synchronized (this) {
+            entry.lastUsed = ++useClock;
+            if (entry.bitmap != null) {
+                return entry.bitmap;
+            }
+            spillFile = entry.spillFile;
+            entry.pins++;
+        }
+
+        Bitmap bitmap = null;
+        try {
+            bitmap = spillFile != null ? restore(entry, spillFile) : loadSource(entry);
+        } finally {
+            synchronized (this) {
+                entry.pins--;
+                if (entry.retired) {
+                    deleteRetiredFiles();
+                }
+            }
+        }
+        if (bitmap == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            // Photos of a cleared session are handed out without being cached again
+            if (entry.retired) {
+                return bitmap;
+            }
+            // Another caller restored it meanwhile; keep the copy that is already counted
+            if (entry.bitmap != null) {
+                return entry.bitmap;
+            }
+            entry.bitmap = bitmap;
+            residentBytes += entry.bytes;
+
+            trimToBudget(entry);
+            updateGauges();
+            return bitmap;
+        }
+    }
+
+    private Bitmap restore(Entry entry, File spillFile) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        MetricsRegistry.Span span = metrics.startSpan("photo_store.restore");
+        try (RandomAccessFile file = new RandomAccessFile(spillFile, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, entry.bytes);
+            Bitmap bitmap = Bitmap.createBitmap(entry.width, entry.height, entry.config);
+            bitmap.copyPixelsFromBuffer(buffer);
+            metrics.increment("photo_store.restores");
+            return bitmap;
+        } catch (IOException e) {
+            Log.e(TAG, "Error restoring spilled photo", e);
+            return null;
+        } finally {
+            span.end();
+        }
+    }
+
+    private Bitmap loadSource(Entry entry) {
+        if (entry.source == null) {
+            return null;
+        }
+
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("photo_store.source_load");
+        try {
+            return entry.source.load();
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading deferred photo", e);
+            return null;
+        } finally {
+            span.end();
+        }
+    }
+
+    // Evicts least recently used photos until the budget is met; 'keep' is never evicted.
+    // Photos that still need a spill file stay resident until their write lands.
+    private void trimToBudget(Entry keep) {
+        while (residentBytes - spillingBytes > budgetBytes) {
+            Entry victim = null;
+            for (Entry entry : entries) {
+                if (entry != keep && entry.bitmap != null && !entry.spilling &&
+                        (victim == null || entry.lastUsed < victim.lastUsed)) {
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            if (victim.spillFile == null && victim.source == null) {
+                startSpill(victim);
+            } else {
+                evict(victim);
+            }
+        }
+    }
+
+    private void startSpill(Entry entry) {
+        entry.spilling = true;
+        spillingBytes += entry.bytes;
+        Bitmap bitmap = entry.bitmap;
+        File file = new File(spillDir, "photo_" + (nextFileId++) + ".raw");
+        spillExecutor.execute(() -> finishSpill(entry, file, writeSpill(bitmap, file, entry.bytes)));
+    }
+
+    // Spill thread, without the lock; bitmaps are never recycled, so reading this one is safe
+    private static boolean writeSpill(Bitmap bitmap, File file, long bytes) {
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("photo_store.spill");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.force();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error spilling photo, keeping it in memory", e);
+            file.delete();
+            return false;
+        } finally {
+            span.end();
+        }
+    }
+
+    private synchronized void finishSpill(Entry entry, File file, boolean written) {
+        entry.spilling = false;
+        if (entry.retired) {
+            // clear() has already reset the byte counts
+            if (written) {
+                entry.spillFile = file;
+                retiredEntries.add(entry);
+                deleteRetiredFiles();
+            }
+            return;
+        }
+
+        spillingBytes -= entry.bytes;
+        // A failed write is retried by the next trim (the next add or restore), not in a loop here
+        if (written) {
+            entry.spillFile = file;
+            spilledBytes += entry.bytes;
+            // Once on disk the photo can be dropped at any time; only do it while still over budget
+            if (entry.bitmap != null && residentBytes > budgetBytes) {
+                evict(entry);
+            }
+            trimToBudget(null);
+        }
+        updateGauges();
+    }
+
+    // Callers may still be drawing the bitmap, so it is dropped rather than recycled
+    private void evict(Entry entry) {
+        entry.bitmap = null;
+        residentBytes -= entry.bytes;
+        MetricsRegistry.getInstance().increment("photo_store.evictions");
+    }
+
+    // Only once no snapshot can ask for them and no restore is reading them
+    private void deleteRetiredFiles() {
+        if (openSnapshots > 0) return;
+        Iterator<Entry> iterator = retiredEntries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.pins == 0) {
+                if (entry.spillFile != null) {
+                    entry.spillFile.delete();
+                }
+                iterator.remove();
+            }
+        }
+
+        if (releasePending && retiredEntries.isEmpty()) {
+            releasePending = false;
+            if (releaseListener != null) {
+                releaseListener.run();
+            }
+        }
+    }
+
+    private void updateGauges() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.setGauge("photo_store.resident_kb", residentBytes / 1024);
+        metrics.setGauge("photo_store.spilled_kb", spilledBytes / 1024);
+    }
+}
\ No newline at end of file
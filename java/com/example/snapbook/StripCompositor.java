@@ -0,0 +1,130 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Composes photo strips on a worker pool. A low-res preview is delivered first,
+// then the full render; callbacks run on the main thread and are dropped once
+// the returned future has been cancelled.
+public class StripCompositor {
+
+    private static final String TAG = "StripCompositor";
+    private static final float PREVIEW_SCALE = 0.25f;
+    private static final int PREVIEW_PROGRESS = 20;
+
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface Callback {
+        void onPreview(Bitmap preview);
+        void onProgress(int percent);
+        void onComplete(Bitmap strip);
+        void onError(String errorMessage);
+    }
+
+    public StripCompositor() {
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    // Callers pass a stable list (e.g. SessionPhotoStore.snapshot()) - copying it here
+    // would force every spilled photo back into memory on the calling thread. A
+    // Closeable list is closed once the job is over, including when it is cancelled.
+    public Future<?> compose(List<Bitmap> photos, StripLayout.Type layoutType, Callback callback) {
+        ComposeJob job = new ComposeJob(photos, layoutType, callback);
+        FutureTask<Void> task = new FutureTask<Void>(job, null) {
+            @Override
+            protected void done() {
+                // Cancelled before it ran; a running job closes the list itself
+                if (job.claimed.compareAndSet(false, true)) {
+                    job.closePhotos();
+                }
+            }
+        };
+        job.task = task;
+        executor.execute(task);
+        return task;
+    }
+
+    private void post(Future<?> future, Runnable runnable) {
+        mainHandler.post(() -> {
+            if (!future.isCancelled()) {
+                runnable.run();
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class ComposeJob implements Runnable {
+        private final List<Bitmap> photos;
+        private final StripLayout.Type layoutType;
+        private final Callback callback;
+        private volatile Future<?> task;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        ComposeJob(List<Bitmap> photos, StripLayout.Type layoutType, Callback callback) {
+            this.photos = photos;
+            this.layoutType = layoutType;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) return;
+            try {
+                compose();
+            } finally {
+                closePhotos();
+            }
+        }
+
+        void closePhotos() {
+            if (photos instanceof Closeable) {
+                try {
+                    ((Closeable) photos).close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing strip photos", e);
+                }
+            }
+        }
+
+        private void compose() {
+            Bitmap preview = PhotoStripCreator.createPreviewStrip(photos, layoutType, PREVIEW_SCALE);
+            if (preview != null) {
+                post(task, () -> callback.onPreview(preview));
+            }
+            post(task, () -> callback.onProgress(PREVIEW_PROGRESS));
+
+            MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("strip.create");
+            Bitmap strip = PhotoStripCreator.createPhotoStrip(photos, layoutType, (drawn, total) -> {
+                int percent = PREVIEW_PROGRESS + (100 - PREVIEW_PROGRESS) * drawn / total;
+                post(task, () -> callback.onProgress(percent));
+            });
+            span.end();
+
+            if (Thread.currentThread().isInterrupted()) {
+                Log.d(TAG, "Strip composition cancelled");
+                return;
+            }
+
+            if (strip != null) {
+                post(task, () -> callback.onComplete(strip));
+            } else {
+                post(task, () -> callback.onError("Error creating photo strip"));
+            }
+        }
+    }
+}
\ No newline at end of file
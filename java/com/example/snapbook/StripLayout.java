@@ -0,0 +1,263 @@
+package com.example.snapbook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Pure Java geometry for photo strip layouts. Slot rectangles are computed once
+// per (type, photo count); source crops are memoized per source photo size.
+public class StripLayout {
+
+    public enum Type {
+        VERTICAL_STRIP("Vertical Strip"),
+        GRID_2X2("2x2 Grid"),
+        HORIZONTAL_FILM("Film Roll"),
+        POLAROID_STACK("Polaroid Stack");
+
+        private final String displayName;
+
+        Type(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    public static final int BORDER_WIDTH = 50;
+    public static final int SIDE_MARGIN = 25;
+    public static final int SPACING = 15;
+    public static final int HEADER_HEIGHT = 80;
+    public static final int FOOTER_HEIGHT = 60;
+
+    private static final int PHOTO_WIDTH = 350;
+    private static final int PHOTO_HEIGHT = 280;
+    private static final int POLAROID_PHOTO_SIZE = 300;
+    private static final int POLAROID_PADDING = 12;
+    private static final int POLAROID_BOTTOM_PADDING = 48;
+    private static final int POLAROID_STAGGER = 15;
+    private static final int SPROCKET_SIZE = 10;
+    private static final int SPROCKET_PITCH = 30;
+
+    // Simple integer rectangle so the layout math has no Android dependencies
+    public static class Box {
+        public final int left;
+        public final int top;
+        public final int right;
+        public final int bottom;
+
+        public Box(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        public int width() {
+            return right - left;
+        }
+
+        public int height() {
+            return bottom - top;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Box)) return false;
+            Box other = (Box) o;
+            return left == other.left && top == other.top && right == other.right && bottom == other.bottom;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((left * 31 + top) * 31 + right) * 31 + bottom;
+        }
+
+        @Override
+        public String toString() {
+            return "Box(" + left + ", " + top + " - " + right + ", " + bottom + ")";
+        }
+    }
+
+    private final Type type;
+    private final int photoCount;
+    private final int width;
+    private final int height;
+    private final List<Box> slots;
+    private final List<Box> cards;
+    private final List<Box> sprockets;
+
+    private int cropSourceWidth = -1;
+    private int cropSourceHeight = -1;
+    private Box[] crops;
+
+    private StripLayout(Type type, int photoCount, int width, int height,
+                        List<Box> slots, List<Box> cards, List<Box> sprockets) {
+        this.type = type;
+        this.photoCount = photoCount;
+        this.width = width;
+        this.height = height;
+        this.slots = Collections.unmodifiableList(slots);
+        this.cards = Collections.unmodifiableList(cards);
+        this.sprockets = Collections.unmodifiableList(sprockets);
+    }
+
+    public static StripLayout create(Type type, int photoCount) {
+        if (photoCount <= 0) {
+            throw new IllegalArgumentException("photoCount must be positive: " + photoCount);
+        }
+
+        switch (type) {
+            case GRID_2X2: return createGrid(photoCount, 2);
+            case HORIZONTAL_FILM: return createFilm(photoCount);
+            case POLAROID_STACK: return createPolaroidStack(photoCount);
+            case VERTICAL_STRIP:
+            default: return createGrid(photoCount, 1);
+        }
+    }
+
+    // A vertical strip is just a single-column grid
+    private static StripLayout createGrid(int photoCount, int columns) {
+        int rows = (photoCount + columns - 1) / columns;
+        int width = columns * PHOTO_WIDTH + (columns - 1) * SPACING + 2 * SIDE_MARGIN;
+        int height = HEADER_HEIGHT + rows * PHOTO_HEIGHT + (rows + 1) * SPACING + FOOTER_HEIGHT + 2 * BORDER_WIDTH;
+
+        List<Box> slots = new ArrayList<>();
+        for (int i = 0; i < photoCount; i++) {
+            int left = SIDE_MARGIN + (i % columns) * (PHOTO_WIDTH + SPACING);
+            int top = HEADER_HEIGHT + BORDER_WIDTH + (i / columns) * (PHOTO_HEIGHT + SPACING);
+            slots.add(new Box(left, top, left + PHOTO_WIDTH, top + PHOTO_HEIGHT));
+        }
+
+        Type type = columns == 1 ? Type.VERTICAL_STRIP : Type.GRID_2X2;
+        return new StripLayout(type, photoCount, width, height, slots,
+                new ArrayList<>(), new ArrayList<>());
+    }
+
+    private static StripLayout createFilm(int photoCount) {
+        int width = photoCount * PHOTO_WIDTH + (photoCount - 1) * SPACING + 2 * SIDE_MARGIN;
+        int rowTop = HEADER_HEIGHT + BORDER_WIDTH;
+        int height = HEADER_HEIGHT + PHOTO_HEIGHT + 2 * SPACING + FOOTER_HEIGHT + 2 * BORDER_WIDTH;
+
+        List<Box> slots = new ArrayList<>();
+        for (int i = 0; i < photoCount; i++) {
+            int left = SIDE_MARGIN + i * (PHOTO_WIDTH + SPACING);
+            slots.add(new Box(left, rowTop, left + PHOTO_WIDTH, rowTop + PHOTO_HEIGHT));
+        }
+
+        // Sprocket holes run along the row, centered in the spacing above and below it
+        List<Box> sprockets = new ArrayList<>();
+        int topHoleY = rowTop - SPACING / 2 - SPROCKET_SIZE / 2;
+        int bottomHoleY = rowTop + PHOTO_HEIGHT + SPACING / 2 - SPROCKET_SIZE / 2;
+        for (int x = SIDE_MARGIN; x + SPROCKET_SIZE <= width - SIDE_MARGIN; x += SPROCKET_PITCH) {
+            sprockets.add(new Box(x, topHoleY, x + SPROCKET_SIZE, topHoleY + SPROCKET_SIZE));
+            sprockets.add(new Box(x, bottomHoleY, x + SPROCKET_SIZE, bottomHoleY + SPROCKET_SIZE));
+        }
+
+        return new StripLayout(Type.HORIZONTAL_FILM, photoCount, width, height, slots,
+                new ArrayList<>(), sprockets);
+    }
+
+    private static StripLayout createPolaroidStack(int photoCount) {
+        int cardWidth = POLAROID_PHOTO_SIZE + 2 * POLAROID_PADDING;
+        int cardHeight = POLAROID_PHOTO_SIZE + POLAROID_PADDING + POLAROID_BOTTOM_PADDING;
+        int width = cardWidth + 2 * POLAROID_STAGGER + 2 * SIDE_MARGIN;
+        int height = HEADER_HEIGHT + photoCount * cardHeight + (photoCount + 1) * SPACING + FOOTER_HEIGHT + 2 * BORDER_WIDTH;
+
+        List<Box> slots = new ArrayList<>();
+        List<Box> cards = new ArrayList<>();
+        for (int i = 0; i < photoCount; i++) {
+            // Alternate cards left and right so the stack looks hand-placed
+            int cardLeft = SIDE_MARGIN + (i % 2 == 0 ? 0 : 2 * POLAROID_STAGGER);
+            int cardTop = HEADER_HEIGHT + BORDER_WIDTH + i * (cardHeight + SPACING);
+            cards.add(new Box(cardLeft, cardTop, cardLeft + cardWidth, cardTop + cardHeight));
+
+            int photoLeft = cardLeft + POLAROID_PADDING;
+            int photoTop = cardTop + POLAROID_PADDING;
+            slots.add(new Box(photoLeft, photoTop,
+                    photoLeft + POLAROID_PHOTO_SIZE, photoTop + POLAROID_PHOTO_SIZE));
+        }
+
+        return new StripLayout(Type.POLAROID_STACK, photoCount, width, height, slots,
+                cards, new ArrayList<>());
+    }
+
+    // Center crop of a source image that fills the destination aspect ratio
+    public static Box computeCenterCrop(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || targetWidth <= 0 || targetHeight <= 0) {
+            return new Box(0, 0, Math.max(0, sourceWidth), Math.max(0, sourceHeight));
+        }
+
+        // Compare aspect ratios with cross-multiplication to avoid float rounding
+        long sourceScaled = (long) sourceWidth * targetHeight;
+        long targetScaled = (long) targetWidth * sourceHeight;
+
+        if (sourceScaled > targetScaled) {
+            // Source is wider - trim the sides
+            int cropWidth = (int) (targetScaled / targetHeight);
+            int left = (sourceWidth - cropWidth) / 2;
+            return new Box(left, 0, left + cropWidth, sourceHeight);
+        } else if (sourceScaled < targetScaled) {
+            // Source is taller - trim top and bottom
+            int cropHeight = (int) (sourceScaled / targetWidth);
+            int top = (sourceHeight - cropHeight) / 2;
+            return new Box(0, top, sourceWidth, top + cropHeight);
+        }
+        return new Box(0, 0, sourceWidth, sourceHeight);
+    }
+
+    // All captures in a session share one size, so crops are normally computed once
+    public synchronized Box getSourceCrop(int slotIndex, int sourceWidth, int sourceHeight) {
+        if (crops == null || sourceWidth != cropSourceWidth || sourceHeight != cropSourceHeight) {
+            crops = new Box[photoCount];
+            for (int i = 0; i < photoCount; i++) {
+                Box slot = slots.get(i);
+                crops[i] = computeCenterCrop(sourceWidth, sourceHeight, slot.width(), slot.height());
+            }
+            cropSourceWidth = sourceWidth;
+            cropSourceHeight = sourceHeight;
+        }
+        return crops[slotIndex];
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getPhotoCount() {
+        return photoCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public List<Box> getSlots() {
+        return slots;
+    }
+
+    public List<Box> getCards() {
+        return cards;
+    }
+
+    public List<Box> getSprockets() {
+        return sprockets;
+    }
+
+    public int getHeaderBaseline() {
+        return BORDER_WIDTH + 50;
+    }
+
+    public int getFooterBaseline() {
+        return height - 35;
+    }
+
+    public String getCacheKey() {
+        return photoCount + ":" + type.name() + ":" + width + "x" + height;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+package com.example.snapbook;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Wire unit of the collaboration protocol:
+// [int length][byte type][UTF from][UTF to][payload]. An empty 'to' means broadcast.
+public class SyncFrame {
+
+    public static final byte HELLO = 1;        // payload: UTF session code, UTF session key, UTF peer key
+    public static final byte PEER_JOINED = 2;  // from: the peer that joined
+    public static final byte PEER_LEFT = 3;    // from: the peer that left
+    public static final byte META_BATCH = 4;   // payload: int count, (UTF key, UTF value) * count
+    public static final byte CHUNK = 5;        // payload: UTF photoId, byte variant, int total, int offset, bytes
+    public static final byte ACK = 6;          // payload: UTF photoId, byte variant, int received
+    public static final byte DENIED = 7;       // hub to peer: HELLO rejected, the socket is closed next
+
+    public static final String BROADCAST = "";
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+
+    public final byte type;
+    public final String from;
+    public final String to;
+    public final byte[] payload;
+
+    public SyncFrame(byte type, String from, String to, byte[] payload) {
+        this.type = type;
+        this.from = from;
+        this.to = to;
+        this.payload = payload;
+    }
+
+    public boolean isBroadcast() {
+        return BROADCAST.equals(to);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        byte[] fromBytes = from.getBytes("UTF-8");
+        byte[] toBytes = to.getBytes("UTF-8");
+        out.writeInt(1 + 2 + fromBytes.length + 2 + toBytes.length + payload.length);
+        out.writeByte(type);
+        out.writeShort(fromBytes.length);
+        out.write(fromBytes);
+        out.writeShort(toBytes.length);
+        out.write(toBytes);
+        out.write(payload);
+    }
+
+    public static SyncFrame readFrom(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 5 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Bad frame length " + length);
+        }
+
+        byte type = in.readByte();
+        // Lengths come from the raw bytes: invalid UTF-8 decodes to a string that
+        // re-encodes to a different length and would knock the stream out of step
+        byte[] from = readBytes(in, length - 5);
+        byte[] to = readBytes(in, length - 5 - from.length);
+        int payloadLength = length - 1 - 4 - from.length - to.length;
+        if (payloadLength < 0) {
+            throw new IOException("Bad frame header");
+        }
+
+        byte[] payload = new byte[payloadLength];
+        in.readFully(payload);
+        return new SyncFrame(type, new String(from, "UTF-8"), new String(to, "UTF-8"), payload);
+    }
+
+    private static byte[] readBytes(DataInputStream in, int remaining) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length > remaining) {
+            throw new IOException("Bad frame header");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.example.snapbook;
+
+import java.io.IOException;
+
+// Connection from one peer to a collaboration hub. Implementations deliver frames
+// on their own reader thread and report the connection dropping exactly once.
+public interface SyncTransport {
+
+    interface Listener {
+        void onFrame(SyncFrame frame);
+        void onDisconnected(IOException cause);
+    }
+
+    void connect(String sessionCode, String peerId, Listener listener) throws IOException;
+
+    void send(SyncFrame frame) throws IOException;
+
+    boolean isConnected();
+
+    void close();
+}
\ No newline at end of file
@@ -0,0 +1,118 @@
+package com.example.snapbook;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.SecureRandom;
+
+// Plain TCP transport, used against LoopbackSyncServer or any hub speaking SyncFrame.
+// The peer key is random per transport, so only this transport can reclaim its
+// peer ID on the hub after a reconnect.
+public class TcpSyncTransport implements SyncTransport {
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final String sessionKey;
+    private final String peerKey = newPeerKey();
+    private Socket socket;
+    private DataOutputStream out;
+    private volatile boolean connected = false;
+
+    public TcpSyncTransport(String host, int port, String sessionKey) {
+        this.host = host;
+        this.port = port;
+        this.sessionKey = sessionKey;
+    }
+
+    @Override
+    public void connect(String sessionCode, String peerId, Listener listener) throws IOException {
+        close();
+
+        Socket newSocket = new Socket();
+        newSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        newSocket.setTcpNoDelay(true);
+
+        synchronized (this) {
+            socket = newSocket;
+            out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream(), BUFFER_SIZE));
+            connected = true;
+        }
+        ByteArrayOutputStream hello = new ByteArrayOutputStream();
+        DataOutputStream helloOut = new DataOutputStream(hello);
+        helloOut.writeUTF(sessionCode);
+        helloOut.writeUTF(sessionKey);
+        helloOut.writeUTF(peerKey);
+        helloOut.flush();
+        send(new SyncFrame(SyncFrame.HELLO, peerId, SyncFrame.BROADCAST, hello.toByteArray()));
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(newSocket.getInputStream(), BUFFER_SIZE));
+        Thread reader = new Thread(() -> {
+            IOException cause = null;
+            try {
+                while (true) {
+                    listener.onFrame(SyncFrame.readFrom(in));
+                }
+            } catch (IOException e) {
+                cause = e;
+            }
+
+            synchronized (TcpSyncTransport.this) {
+                // A newer connect() has already replaced this socket
+                if (socket != newSocket) return;
+                connected = false;
+            }
+            closeQuietly(newSocket);
+            listener.onDisconnected(cause);
+        }, "TcpSyncTransport-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public synchronized void send(SyncFrame frame) throws IOException {
+        if (!connected) {
+            throw new IOException("Not connected");
+        }
+        frame.writeTo(out);
+        out.flush();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public synchronized void close() {
+        connected = false;
+        if (socket != null) {
+            closeQuietly(socket);
+            socket = null;
+        }
+    }
+
+    private static String newPeerKey() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder key = new StringBuilder();
+        for (byte b : bytes) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.example.snapbook;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+// Two-tier cache of grid thumbnails. The memory tier is an LRU sized as a fraction
+// of the heap; the disk tier keeps pre-sized JPEG thumbnails between launches so a
+// cold gallery decodes a few KB per cell instead of the full photo. Keys include
+// the source's mtime and size, so an edited or replaced photo never hits a stale entry.
+public class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+
+    // Long edge of the stored thumbnail; roomy for a two-column grid on a 1440px screen
+    public static final int THUMBNAIL_SIZE = 512;
+
+    private static final int MEMORY_FRACTION = 8;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+    private static final int DISK_QUALITY = 85;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File diskDir;
+    private long diskBytes = -1; // Measured on first disk write
+
+    public ThumbnailCache(File diskDir) {
+        this.diskDir = diskDir;
+        int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / MEMORY_FRACTION);
+        memoryCache = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    public static String keyFor(String imagePath, long lastModified, long length) {
+        return imagePath + "|" + lastModified + "|" + length;
+    }
+
+    // Memory tier only; cheap enough to call from onBindViewHolder
+    public Bitmap getFromMemory(String key) {
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            MetricsRegistry.getInstance().increment("thumb_cache.memory_hits");
+        }
+        return bitmap;
+    }
+
+    public boolean isInMemory(String key) {
+        return memoryCache.get(key) != null;
+    }
+
+    public void putInMemory(String key, Bitmap bitmap) {
+        memoryCache.put(key, bitmap);
+    }
+
+    // Both tiers, for a photo that is gone; call from a worker thread
+    public void remove(String key) {
+        memoryCache.remove(key);
+        File file = diskFile(key);
+        long length = file.length();
+        if (file.delete()) {
+            synchronized (this) {
+                if (diskBytes >= 0) diskBytes -= length;
+            }
+        }
+    }
+
+    // Disk tier; call from a worker thread. Promotes hits into memory.
+    public Bitmap getFromDisk(String key) {
+        File file = diskFile(key);
+        if (!file.exists()) {
+            MetricsRegistry.getInstance().increment("thumb_cache.misses");
+            return null;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            file.delete();
+            MetricsRegistry.getInstance().increment("thumb_cache.misses");
+            return null;
+        }
+
+        // Age is what the disk trim evicts by
+        file.setLastModified(System.currentTimeMillis());
+        memoryCache.put(key, bitmap);
+        MetricsRegistry.getInstance().increment("thumb_cache.disk_hits");
+        return bitmap;
+    }
+
+    public void putOnDisk(String key, Bitmap thumbnail) {
+        if (!diskDir.exists() && !diskDir.mkdirs()) return;
+
+        File file = diskFile(key);
+        File temp = new File(diskDir, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, DISK_QUALITY, out);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing thumbnail", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (diskBytes < 0) {
+                diskBytes = measureDisk();
+            } else {
+                diskBytes += file.length();
+            }
+            if (diskBytes > MAX_DISK_BYTES) {
+                trimDisk();
+            }
+        }
+    }
+
+    // Fraction of lookups served without touching the source photo
+    public double getHitRate() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long memoryHits = metrics.getCounter("thumb_cache.memory_hits");
+        long diskHits = metrics.getCounter("thumb_cache.disk_hits");
+        long misses = metrics.getCounter("thumb_cache.misses");
+        long total = memoryHits + diskHits + misses;
+        return total == 0 ? 0 : (double) (memoryHits + diskHits) / total;
+    }
+
+    private long measureDisk() {
+        long total = 0;
+        File[] files = diskDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    // Drop the least recently used thumbnails down to three quarters of the limit
+    private void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long target = MAX_DISK_BYTES * 3 / 4;
+        for (File file : files) {
+            if (diskBytes <= target) break;
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private File diskFile(String key) {
+        return new File(diskDir, hash(key) + ".jpg");
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
\ No newline at end of file
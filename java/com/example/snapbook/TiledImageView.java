@@ -0,0 +1,463 @@
+package com.example.snapbook;
+
+import android.content.Context;
+import android.graphics.*;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.OverScroller;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Pan/zoom viewer for full-size photos that never holds the full-resolution image.
+// A base layer decoded once at the sample size that fits the view is always drawn;
+// when zoomed in past it, only the tiles covering the viewport are decoded with
+// BitmapRegionDecoder at the power-of-two sample matching the current zoom. Tiles
+// of every level share one LRU, and a missing tile is covered by the nearest
+// coarser one still cached until it arrives, so zooming never shows holes.
+public class TiledImageView extends View {
+
+    private static final String TAG = "TiledImageView";
+
+    // Edge of a tile in decoded (post-sample) pixels
+    private static final int TILE_SIZE = 512;
+    private static final int CACHE_MEMORY_FRACTION = 8;
+    // Zooming stops at this many screen pixels per image pixel
+    private static final float MAX_PIXEL_SCALE = 2f;
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+
+    private static class Tile {
+        final Bitmap bitmap;
+        final Rect source; // Part of the bitmap holding pixels (edge tiles are smaller than the bitmap)
+
+        Tile(Bitmap bitmap, int width, int height) {
+            this.bitmap = bitmap;
+            this.source = new Rect(0, 0, width, height);
+        }
+    }
+
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<String, Tile> tiles;
+    // Full-size tile bitmaps evicted from the cache, reused as inBitmap for the next tiles
+    private final ArrayDeque<Bitmap> spareTiles = new ArrayDeque<>();
+    private final Set<String> pendingTiles = new HashSet<>();
+    // Tiles the last frame asked for; read by the decode thread to skip stale requests
+    private volatile Set<String> wantedTiles = Collections.emptySet();
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix imageToView = new Matrix();
+    private final Matrix viewToImage = new Matrix();
+    private final RectF scratchRect = new RectF();
+
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
+    private OverScroller scroller;
+
+    private BitmapRegionDecoder decoder;
+    private String imagePath;
+    private int imageWidth; // Stored (raw) dimensions, which is what the region decoder works in
+    private int imageHeight;
+    private Matrix orientation; // Raw to upright, translated back into positive space
+    private int uprightWidth;
+    private int uprightHeight;
+
+    private Bitmap base;
+    private int baseSample;
+    private boolean released = false;
+
+    // View pixels per upright image pixel, and where the image origin sits in the view
+    private float scale;
+    private float minScale;
+    private float translateX;
+    private float translateY;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        int cacheKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / CACHE_MEMORY_FRACTION);
+        tiles = new LruCache<String, Tile>(cacheKb) {
+            @Override
+            protected int sizeOf(String key, Tile tile) {
+                return tile.bitmap.getAllocationByteCount() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Tile oldValue, Tile newValue) {
+                recycleTile(oldValue.bitmap);
+            }
+        };
+
+        scroller = new OverScroller(context);
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                scroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                translateX -= distanceX;
+                translateY -= distanceY;
+                updateMatrix();
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                int minX = (int) Math.min(0, getWidth() - uprightWidth * scale);
+                int minY = (int) Math.min(0, getHeight() - uprightHeight * scale);
+                scroller.fling((int) translateX, (int) translateY, (int) velocityX, (int) velocityY,
+                        minX, 0, minY, 0);
+                postInvalidateOnAnimation();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                float target = scale > minScale * 1.01f ? minScale : minScale * DOUBLE_TAP_ZOOM;
+                zoomTo(target, e.getX(), e.getY());
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent e) {
+                return performClick();
+            }
+        });
+    }
+
+    // Start showing the file; decoding happens off the main thread
+    public void setImage(String path) {
+        imagePath = path;
+        decodeExecutor.execute(() -> {
+            try {
+                BitmapRegionDecoder regionDecoder = BitmapRegionDecoder.newInstance(path, false);
+                int orientationTag = BitmapDecoder.readOrientation(path);
+                post(() -> onDecoderReady(path, regionDecoder, orientationTag));
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot open " + path + " for region decoding", e);
+            }
+        });
+    }
+
+    private void onDecoderReady(String path, BitmapRegionDecoder regionDecoder, int orientationTag) {
+        if (released || !path.equals(imagePath)) {
+            regionDecoder.recycle();
+            return;
+        }
+
+        decoder = regionDecoder;
+        imageWidth = regionDecoder.getWidth();
+        imageHeight = regionDecoder.getHeight();
+
+        orientation = BitmapDecoder.orientationMatrix(orientationTag);
+        if (orientation == null) orientation = new Matrix();
+        scratchRect.set(0, 0, imageWidth, imageHeight);
+        orientation.mapRect(scratchRect);
+        orientation.postTranslate(-scratchRect.left, -scratchRect.top);
+        uprightWidth = Math.round(scratchRect.width());
+        uprightHeight = Math.round(scratchRect.height());
+
+        if (getWidth() > 0 && getHeight() > 0) {
+            fitToView();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (decoder != null && w > 0 && h > 0) {
+            fitToView();
+        }
+    }
+
+    private void fitToView() {
+        minScale = Math.min((float) getWidth() / uprightWidth, (float) getHeight() / uprightHeight);
+        scale = minScale;
+        translateX = (getWidth() - uprightWidth * scale) / 2f;
+        translateY = (getHeight() - uprightHeight * scale) / 2f;
+        updateMatrix();
+
+        // The base layer is sharp at the fitted zoom; anything closer comes from tiles
+        int fitWidth = Math.max(1, Math.round(uprightWidth * minScale));
+        int fitHeight = Math.max(1, Math.round(uprightHeight * minScale));
+        int sample = BitmapDecoder.calculateSampleSize(uprightWidth, uprightHeight, fitWidth, fitHeight);
+        if (base != null && sample == baseSample) return;
+
+        BitmapRegionDecoder regionDecoder = decoder;
+        decodeExecutor.execute(() -> {
+            Bitmap decoded = decodeRegion(regionDecoder, new Rect(0, 0, imageWidth, imageHeight), sample, null);
+            post(() -> {
+                if (released || regionDecoder != decoder || decoded == null) return;
+                if (base != null) BitmapPool.getInstance().put(base);
+                base = decoded;
+                baseSample = sample;
+                invalidate();
+            });
+        });
+    }
+
+    private void zoomTo(float newScale, float focusX, float focusY) {
+        float maxScale = Math.max(minScale, MAX_PIXEL_SCALE);
+        newScale = Math.max(minScale, Math.min(maxScale, newScale));
+        float ratio = newScale / scale;
+        translateX = focusX - (focusX - translateX) * ratio;
+        translateY = focusY - (focusY - translateY) * ratio;
+        scale = newScale;
+        updateMatrix();
+    }
+
+    // Keep the image on screen (centered along an axis where it is smaller than the view)
+    private void updateMatrix() {
+        float scaledWidth = uprightWidth * scale;
+        float scaledHeight = uprightHeight * scale;
+        translateX = scaledWidth <= getWidth()
+                ? (getWidth() - scaledWidth) / 2f
+                : Math.max(getWidth() - scaledWidth, Math.min(0, translateX));
+        translateY = scaledHeight <= getHeight()
+                ? (getHeight() - scaledHeight) / 2f
+                : Math.max(getHeight() - scaledHeight, Math.min(0, translateY));
+
+        imageToView.set(orientation != null ? orientation : new Matrix());
+        imageToView.postScale(scale, scale);
+        imageToView.postTranslate(translateX, translateY);
+        imageToView.invert(viewToImage);
+        invalidate();
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            translateX = scroller.getCurrX();
+            translateY = scroller.getCurrY();
+            updateMatrix();
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (decoder == null) return super.onTouchEvent(event);
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (decoder == null || base == null) return;
+
+        canvas.save();
+        canvas.concat(imageToView);
+        RectF imageBounds = new RectF(0, 0, imageWidth, imageHeight);
+        canvas.drawBitmap(base, null, imageBounds, paint);
+
+        // Image pixels per screen pixel, rounded down to a power of two
+        int sample = 1;
+        while (sample * 2 <= 1f / scale) {
+            sample *= 2;
+        }
+        if (sample < baseSample) {
+            drawTiles(canvas, sample);
+        } else {
+            wantedTiles = Collections.emptySet();
+        }
+        canvas.restore();
+    }
+
+    private void drawTiles(Canvas canvas, int sample) {
+        scratchRect.set(0, 0, getWidth(), getHeight());
+        viewToImage.mapRect(scratchRect);
+        int span = TILE_SIZE * sample;
+        int firstColumn = Math.max(0, (int) (scratchRect.left / span));
+        int lastColumn = Math.min((imageWidth - 1) / span, (int) (scratchRect.right / span));
+        int firstRow = Math.max(0, (int) (scratchRect.top / span));
+        int lastRow = Math.min((imageHeight - 1) / span, (int) (scratchRect.bottom / span));
+
+        // Published before any request is queued so the decode thread sees this frame's set
+        Set<String> wanted = new HashSet<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                wanted.add(tileKey(sample, column, row));
+            }
+        }
+        wantedTiles = wanted;
+
+        List<Tile> ready = new ArrayList<>();
+        List<Rect> readyBounds = new ArrayList<>();
+        Set<String> fallbacks = new HashSet<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                String key = tileKey(sample, column, row);
+                Rect bounds = tileBounds(sample, column, row);
+                Tile tile = tiles.get(key);
+                if (tile != null) {
+                    ready.add(tile);
+                    readyBounds.add(bounds);
+                    continue;
+                }
+
+                requestTile(key, sample, bounds);
+                // Until it lands, cover it with the nearest coarser level still cached
+                for (int coarser = sample * 2; coarser < baseSample; coarser *= 2) {
+                    int coarserSpan = TILE_SIZE * coarser;
+                    int coarserColumn = bounds.left / coarserSpan;
+                    int coarserRow = bounds.top / coarserSpan;
+                    String coarserKey = tileKey(coarser, coarserColumn, coarserRow);
+                    Tile cover = tiles.get(coarserKey);
+                    if (cover != null) {
+                        if (fallbacks.add(coarserKey)) {
+                            canvas.drawBitmap(cover.bitmap, cover.source,
+                                    tileBounds(coarser, coarserColumn, coarserRow), paint);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Current-level tiles go on top of any coarser cover
+        for (int i = 0; i < ready.size(); i++) {
+            Tile tile = ready.get(i);
+            canvas.drawBitmap(tile.bitmap, tile.source, readyBounds.get(i), paint);
+        }
+    }
+
+    private static String tileKey(int sample, int column, int row) {
+        return sample + "/" + column + "/" + row;
+    }
+
+    // The tile's area in raw image pixels
+    private Rect tileBounds(int sample, int column, int row) {
+        int span = TILE_SIZE * sample;
+        return new Rect(column * span, row * span,
+                Math.min(imageWidth, (column + 1) * span), Math.min(imageHeight, (row + 1) * span));
+    }
+
+    private void requestTile(String key, int sample, Rect bounds) {
+        if (!pendingTiles.add(key)) return;
+
+        BitmapRegionDecoder regionDecoder = decoder;
+        Bitmap reusable = spareTiles.poll();
+        decodeExecutor.execute(() -> {
+            // Scrolled or zoomed past before its turn came
+            Bitmap decoded = wantedTiles.contains(key)
+                    ? decodeRegion(regionDecoder, bounds, sample, reusable)
+                    : null;
+            post(() -> {
+                pendingTiles.remove(key);
+                if (decoded == null) {
+                    if (reusable != null) recycleTile(reusable);
+                    return;
+                }
+                if (released || regionDecoder != decoder) {
+                    decoded.recycle();
+                    return;
+                }
+                int width = (bounds.width() + sample - 1) / sample;
+                int height = (bounds.height() + sample - 1) / sample;
+                tiles.put(key, new Tile(decoded, width, height));
+                invalidate();
+            });
+        });
+    }
+
+    // Decode thread only
+    private Bitmap decodeRegion(BitmapRegionDecoder regionDecoder, Rect region, int sample, Bitmap reusable) {
+        if (regionDecoder == null || regionDecoder.isRecycled()) return null;
+
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("viewer.tile_decode");
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        options.inMutable = true;
+        options.inBitmap = reusable;
+        try {
+            Bitmap bitmap;
+            try {
+                bitmap = regionDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                if (reusable == null) throw e;
+                // The reused bitmap was not acceptable; decode into a fresh one
+                options.inBitmap = null;
+                bitmap = regionDecoder.decodeRegion(region, options);
+            }
+            if (bitmap != null) {
+                MetricsRegistry.getInstance().increment("viewer.tiles_decoded");
+            }
+            return bitmap;
+        } catch (Exception e) {
+            Log.e(TAG, "Error decoding region of " + imagePath, e);
+            return null;
+        } finally {
+            span.end();
+        }
+    }
+
+    // Region decoding clips into inBitmap without resizing it, so only full-size tiles are kept for reuse
+    private void recycleTile(Bitmap bitmap) {
+        if (bitmap.getWidth() == TILE_SIZE && bitmap.getHeight() == TILE_SIZE && spareTiles.size() < 4) {
+            spareTiles.push(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        release();
+    }
+
+    // Drop every bitmap and the decoder; the view shows nothing afterwards
+    public void release() {
+        if (released) return;
+        released = true;
+
+        wantedTiles = Collections.emptySet();
+        BitmapRegionDecoder regionDecoder = decoder;
+        decoder = null;
+        if (regionDecoder != null) {
+            decodeExecutor.execute(regionDecoder::recycle);
+        }
+        decodeExecutor.shutdown();
+
+        tiles.evictAll();
+        for (Bitmap bitmap : spareTiles) {
+            bitmap.recycle();
+        }
+        spareTiles.clear();
+        if (base != null) {
+            BitmapPool.getInstance().put(base);
+            base = null;
+        }
+    }
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.example.snapbook;
 
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.os.Bundle;
@@ -21,6 +22,8 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
     private AuthManager authManager;
     private CameraManager cameraManager;
     private FilterManager filterManager;
+    private StripCompositor stripCompositor;
+    private PhotoExportEngine photoExportEngine;
 
     private LinearLayout authContainer;
     private LinearLayout welcomeContainer;
@@ -29,6 +32,7 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
 
     private PreviewView previewView;
     private ImageView photoStripView;
+    private ProgressBar stripProgressBar;
     private TextView currentFilterText;
     private EditText emailInput;
     private EditText passwordInput;
@@ -38,7 +42,14 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
     private boolean isGuest = false;
     private String currentSession;
     private int selectedPhotoCount = 4;
-    private final List<Bitmap> capturedPhotos = new ArrayList<>();
+    private StripLayout.Type stripLayoutType = StripLayout.Type.VERTICAL_STRIP;
+    private SessionPhotoStore capturedPhotos;
+    private SessionJournal sessionJournal;
+    private CollaborationManager collaborationManager;
+    private long lastCaptureTapNanos;
+    private java.util.concurrent.Future<?> stripTask;
+    private final java.util.concurrent.ExecutorService exportExecutor =
+            java.util.concurrent.Executors.newSingleThreadExecutor();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -62,6 +73,41 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
     private void initializeManagers() {
         authManager = new AuthManager(this, this);
         filterManager = new FilterManager();
+        stripCompositor = new StripCompositor();
+        capturedPhotos = new SessionPhotoStore(new java.io.File(getCacheDir(), "session_photos"),
+                SessionPhotoStore.defaultBudget());
+        sessionJournal = new SessionJournal(new java.io.File(getFilesDir(), "session_journal"));
+        capturedPhotos.setReleaseListener(sessionJournal::releaseUnused);
+        collaborationManager = new CollaborationManager();
+        collaborationManager.setSessionListener(new CollaborationManager.SessionListener() {
+            @Override
+            public void onSessionHosted(String joinCode) {
+                Toast.makeText(VintagePhotoBoothActivity.this, "Session Code: " + joinCode, Toast.LENGTH_LONG).show();
+            }
+
+            @Override
+            public void onConnectFailed(String error) {
+                Toast.makeText(VintagePhotoBoothActivity.this, error, Toast.LENGTH_LONG).show();
+            }
+
+            @Override
+            public void onPeerJoined(String peerId) {
+                Toast.makeText(VintagePhotoBoothActivity.this, "Photographer joined the session", Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onPeerLeft(String peerId) {
+                Toast.makeText(VintagePhotoBoothActivity.this, "Photographer left the session", Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onPhotoReceived(CollaborationManager.SharedPhoto photo, boolean fullResolution) {
+                if (!fullResolution) {
+                    Toast.makeText(VintagePhotoBoothActivity.this, "New shared photo arriving...", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+        photoExportEngine = new PhotoExportEngine();
     }
 
     private void initializeViews() {
@@ -72,6 +118,7 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
 
         previewView = findViewById(R.id.preview_view);
         photoStripView = findViewById(R.id.photo_strip_view);
+        stripProgressBar = findViewById(R.id.strip_progress_bar);
         currentFilterText = findViewById(R.id.current_filter_text);
 
         emailInput = findViewById(R.id.email_input);
@@ -103,8 +150,10 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
         findViewById(R.id.filter_vintage).setOnClickListener(v -> setFilter("vintage"));
         findViewById(R.id.filter_bw).setOnClickListener(v -> setFilter("bw"));
 
+        photoStripView.setOnClickListener(v -> cycleStripLayout());
         findViewById(R.id.download_btn).setOnClickListener(v -> downloadPhotoStrip());
         findViewById(R.id.download_all_btn).setOnClickListener(v -> downloadAllPhotos());
+        findViewById(R.id.flipbook_btn).setOnClickListener(v -> saveFlipbook());
         findViewById(R.id.new_session_btn).setOnClickListener(v -> returnToWelcome());
         
         // Back to home button
@@ -119,6 +168,7 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
         this.isGuest = isGuest;
         Log.d(TAG, "Auth success: " + userName);
         showWelcomeScreen();
+        resumeJournaledSession();
     }
 
     @Override
@@ -146,28 +196,81 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
     private void startSoloSession() {
         selectedPhotoCount = 4;
         currentSession = null;
+        sessionJournal.begin(currentSession, selectedPhotoCount);
         capturedPhotos.clear();
+        collaborationManager.leaveSession();
         showCameraScreen();
     }
 
     private void createCollaborativeSession() {
         currentSession = generateSessionCode();
+        sessionJournal.begin(currentSession, selectedPhotoCount);
         capturedPhotos.clear();
-        Toast.makeText(this, "Session Code: " + currentSession, Toast.LENGTH_LONG).show();
+        // The code is shown once the hub is up and knows the address to join at
+        collaborationManager.hostSession(currentSession);
         showCameraScreen();
     }
 
     private void joinSession() {
-        String sessionCode = sessionCodeInput.getText().toString().trim().toUpperCase();
-        if (sessionCode.isEmpty()) {
+        String joinCode = sessionCodeInput.getText().toString().trim().toUpperCase();
+        if (joinCode.isEmpty()) {
             Toast.makeText(this, "Please enter a session code", Toast.LENGTH_SHORT).show();
             return;
         }
-        currentSession = sessionCode;
+        currentSession = CollaborationManager.sessionCodeOf(joinCode);
+        sessionJournal.begin(currentSession, selectedPhotoCount);
         capturedPhotos.clear();
+        collaborationManager.joinSession(joinCode);
         showCameraScreen();
     }
 
+    // Picks up a session that was interrupted by a crash or kill. Only the index and
+    // thumbnails are read here; full photos are decoded when the strip needs them.
+    private void resumeJournaledSession() {
+        long resumeStart = MetricsRegistry.now();
+
+        exportExecutor.execute(() -> {
+            SessionJournal.ResumedSession resumed = sessionJournal.recover();
+            if (resumed == null) {
+                return;
+            }
+
+            // Thumbnails stand in for the strip until the full-resolution render is done
+            Bitmap placeholder = resumed.records.size() >= resumed.photoCount
+                    ? PhotoStripCreator.createPreviewStrip(resumed.thumbnails, stripLayoutType, 0.5f)
+                    : null;
+            runOnUiThread(() -> applyResumedSession(resumed, placeholder, resumeStart));
+        });
+    }
+
+    private void applyResumedSession(SessionJournal.ResumedSession resumed, Bitmap placeholder,
+                                     long resumeStart) {
+        // The user already started something else while the journal was being read
+        if (welcomeContainer.getVisibility() != LinearLayout.VISIBLE) {
+            return;
+        }
+
+        currentSession = resumed.sessionCode.isEmpty() ? null : resumed.sessionCode;
+        selectedPhotoCount = resumed.photoCount;
+        capturedPhotos.clear();
+        for (SessionJournal.Record record : resumed.records) {
+            capturedPhotos.addDeferred(record.width, record.height, sessionJournal.openPhoto(record));
+        }
+
+        if (capturedPhotos.size() >= selectedPhotoCount) {
+            showResultsScreen();
+            if (placeholder != null) {
+                photoStripView.setImageBitmap(placeholder);
+            }
+        } else {
+            showCameraScreen();
+        }
+        MetricsRegistry.getInstance().recordSince("session.resume", resumeStart);
+
+        Toast.makeText(this, "Resumed session: " + capturedPhotos.size() + "/" + selectedPhotoCount +
+                " photos", Toast.LENGTH_SHORT).show();
+    }
+
     private String generateSessionCode() {
         String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
         StringBuilder code = new StringBuilder();
@@ -182,8 +285,17 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
     public void onCaptureSuccess(Bitmap bitmap) {
         Log.d(TAG, "Photo captured successfully");
 
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        MetricsRegistry.Span filterSpan = metrics.startSpan("capture.filter");
         Bitmap filteredBitmap = filterManager.applyCurrentFilter(bitmap);
+        filterSpan.end();
         capturedPhotos.add(filteredBitmap);
+        sessionJournal.append(filteredBitmap);
+        if (currentSession != null) {
+            collaborationManager.sharePhoto(collaborationManager.getPeerId() + "_" + capturedPhotos.size(),
+                    filteredBitmap);
+        }
+        metrics.recordSince("capture.tap_to_processed", lastCaptureTapNanos);
 
         if (capturedPhotos.size() >= selectedPhotoCount) {
             showResultsScreen();
@@ -204,6 +316,7 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
 
     private void capturePhoto() {
         Log.d(TAG, "Capture button clicked");
+        lastCaptureTapNanos = MetricsRegistry.now();
         cameraManager.capturePhoto();
     }
 
@@ -261,44 +374,29 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
             return;
         }
 
-        try {
-            // Get bitmap from ImageView
-            photoStripView.setDrawingCacheEnabled(true);
-            Bitmap bitmap = Bitmap.createBitmap(photoStripView.getDrawingCache());
-            photoStripView.setDrawingCacheEnabled(false);
+        // Stream a print-resolution strip into memory band by band, then write it everywhere
+        SessionPhotoStore.Snapshot photos = capturedPhotos.snapshot();
+        StripLayout.Type layoutType = stripLayoutType;
+        String fileName = "vintage_photo_strip_" + System.currentTimeMillis() + ".jpg";
 
-            // Save to device
-            java.io.File picturesDir = getExternalFilesDir(android.os.Environment.DIRECTORY_PICTURES);
-            java.io.File photoFile = new java.io.File(picturesDir, "vintage_photo_strip_" + System.currentTimeMillis() + ".jpg");
-            
-            java.io.FileOutputStream fos = new java.io.FileOutputStream(photoFile);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 95, fos);
-            fos.close();
-
-            // Add to media store for newer Android versions
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
-                android.content.ContentValues values = new android.content.ContentValues();
-                values.put(android.provider.MediaStore.Images.Media.DISPLAY_NAME, "vintage_photo_strip_" + System.currentTimeMillis());
-                values.put(android.provider.MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
-                values.put(android.provider.MediaStore.Images.Media.RELATIVE_PATH, android.os.Environment.DIRECTORY_PICTURES);
-
-                android.net.Uri uri = getContentResolver().insert(android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
-                if (uri != null) {
-                    java.io.OutputStream outputStream = getContentResolver().openOutputStream(uri);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 95, outputStream);
-                    outputStream.close();
-                }
+        List<PhotoExportEngine.Item> items = new ArrayList<>();
+        items.add(new PhotoExportEngine.Item(fileName, "image/jpeg", out -> {
+            if (!PhotoStripCreator.exportPhotoStrip(photos, layoutType, PhotoStripCreator.getPrintWidth(),
+                    BandedImageEncoder.Format.JPEG, 95, out)) {
+                throw new java.io.IOException("Strip export failed");
+            }
+        }));
+
+        runExport(items, findViewById(R.id.download_btn), R.string.btn_download, (saved, total) -> {
+            photos.close();
+            if (saved == total) {
+                // The strip is delivered; a later login should not resume this session
+                sessionJournal.complete();
+                Toast.makeText(this, "Photo strip saved to gallery!", Toast.LENGTH_LONG).show();
             } else {
-                // For older versions
-                android.provider.MediaStore.Images.Media.insertImage(getContentResolver(), bitmap,
-                        "vintage_photo_strip", "Vintage PhotoBooth Strip");
+                Toast.makeText(this, "Error saving photo strip", Toast.LENGTH_SHORT).show();
             }
-
-            Toast.makeText(this, "Photo strip saved to gallery!", Toast.LENGTH_LONG).show();
-
-        } catch (Exception e) {
-            Toast.makeText(this, "Error saving photo strip: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+        });
     }
 
     private void downloadAllPhotos() {
@@ -312,47 +410,103 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
             return;
         }
 
-        try {
+        // Spilled photos are restored on the export workers, not here
+        long timestamp = System.currentTimeMillis();
+        SessionPhotoStore.Snapshot photos = capturedPhotos.snapshot();
+        List<PhotoExportEngine.Item> items = new ArrayList<>();
+        for (int i = 0; i < photos.size(); i++) {
+            items.add(PhotoExportEngine.Item.jpeg("vintage_photo_" + timestamp + "_" + (i + 1) + ".jpg",
+                    photos, i, 95));
+        }
+
+        runExport(items, findViewById(R.id.download_all_btn), R.string.btn_download_all, (saved, total) -> {
+            photos.close();
+            if (saved == total) {
+                Toast.makeText(this, saved + " photos saved to gallery!", Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(this, "Saved " + saved + " of " + total + " photos", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private interface ExportResultListener {
+        void onResult(int savedCount, int total);
+    }
+
+    // Each item is encoded once and written to both the app folder and the system gallery;
+    // the button shows progress and is disabled until the export finishes
+    private void runExport(List<PhotoExportEngine.Item> items, Button button, int labelRes,
+                           ExportResultListener listener) {
+        List<PhotoExportEngine.Destination> destinations = new ArrayList<>();
+        destinations.add(PhotoExportEngine.directory(getExternalFilesDir(android.os.Environment.DIRECTORY_PICTURES)));
+        destinations.add(PhotoExportEngine.mediaStore(getContentResolver()));
+
+        button.setEnabled(false);
+        button.setText("Saving 0/" + items.size() + "...");
+
+        photoExportEngine.export(items, destinations, new PhotoExportEngine.Callback() {
+            @Override
+            public void onProgress(int completed, int total) {
+                button.setText("Saving " + completed + "/" + total + "...");
+            }
+
+            @Override
+            public void onComplete(int savedCount, int total) {
+                button.setEnabled(true);
+                button.setText(labelRes);
+                listener.onResult(savedCount, total);
+            }
+        });
+    }
+
+    private void saveFlipbook() {
+        if (capturedPhotos.isEmpty()) {
+            Toast.makeText(this, "No photos for a flipbook", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        SessionPhotoStore.Snapshot photos = capturedPhotos.snapshot();
+        Toast.makeText(this, "Creating flipbook...", Toast.LENGTH_SHORT).show();
+
+        exportExecutor.execute(() -> {
             java.io.File picturesDir = getExternalFilesDir(android.os.Environment.DIRECTORY_PICTURES);
-            int savedCount = 0;
+            java.io.File gifFile = new java.io.File(picturesDir, "vintage_flipbook_" + System.currentTimeMillis() + ".gif");
 
-            for (int i = 0; i < capturedPhotos.size(); i++) {
-                Bitmap bitmap = capturedPhotos.get(i);
-                
+            try {
+                FlipbookExporter.Result result;
+                try (java.io.FileOutputStream fos = new java.io.FileOutputStream(gifFile)) {
+                    result = FlipbookExporter.export(photos, FlipbookExporter.DEFAULT_FRAME_WIDTH,
+                            FlipbookExporter.DEFAULT_FRAME_DELAY_MS, fos);
+                }
+
+                // insertImage would re-encode to a still JPEG, so only Q+ gets a MediaStore copy
                 if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
-                    // Use MediaStore for newer Android versions
                     android.content.ContentValues values = new android.content.ContentValues();
-                    values.put(android.provider.MediaStore.Images.Media.DISPLAY_NAME, "vintage_photo_" + System.currentTimeMillis() + "_" + (i + 1));
-                    values.put(android.provider.MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+                    values.put(android.provider.MediaStore.Images.Media.DISPLAY_NAME, gifFile.getName());
+                    values.put(android.provider.MediaStore.Images.Media.MIME_TYPE, "image/gif");
                     values.put(android.provider.MediaStore.Images.Media.RELATIVE_PATH, android.os.Environment.DIRECTORY_PICTURES);
 
                     android.net.Uri uri = getContentResolver().insert(android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
                     if (uri != null) {
-                        java.io.OutputStream outputStream = getContentResolver().openOutputStream(uri);
-                        bitmap.compress(Bitmap.CompressFormat.JPEG, 95, outputStream);
-                        outputStream.close();
-                        savedCount++;
+                        try (java.io.OutputStream outputStream = getContentResolver().openOutputStream(uri)) {
+                            java.nio.file.Files.copy(gifFile.toPath(), outputStream);
+                        }
                     }
-                } else {
-                    // For older versions
-                    java.io.File photoFile = new java.io.File(picturesDir, 
-                        "vintage_photo_" + System.currentTimeMillis() + "_" + (i + 1) + ".jpg");
-                    
-                    java.io.FileOutputStream fos = new java.io.FileOutputStream(photoFile);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 95, fos);
-                    fos.close();
-
-                    android.provider.MediaStore.Images.Media.insertImage(getContentResolver(), bitmap,
-                            "vintage_photo_" + (i + 1), "Vintage PhotoBooth Photo");
-                    savedCount++;
                 }
-            }
 
-            Toast.makeText(this, savedCount + " photos saved to gallery!", Toast.LENGTH_LONG).show();
-
-        } catch (Exception e) {
-            Toast.makeText(this, "Error saving photos: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+                String message = "Flipbook saved (" + (result.bytesWritten / 1024) + " KB in " +
+                        result.encodeMillis + " ms)";
+                runOnUiThread(() -> Toast.makeText(this, message, Toast.LENGTH_LONG).show());
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error saving flipbook", e);
+                gifFile.delete();
+                runOnUiThread(() -> Toast.makeText(this, "Error saving flipbook: " + e.getMessage(),
+                        Toast.LENGTH_SHORT).show());
+            } finally {
+                photos.close();
+            }
+        });
     }
 
     private void openGallery() {
@@ -361,7 +515,10 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
     }
 
     private void returnToWelcome() {
+        cancelStripTask();
+        sessionJournal.discard();
         capturedPhotos.clear();
+        collaborationManager.leaveSession();
         currentSession = null;
         cameraManager.stopCamera();
         showWelcomeScreen();
@@ -401,12 +558,73 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
         createAndDisplayPhotoStrip();
     }
 
+    private void cycleStripLayout() {
+        if (capturedPhotos.isEmpty()) return;
+
+        StripLayout.Type[] types = StripLayout.Type.values();
+        stripLayoutType = types[(stripLayoutType.ordinal() + 1) % types.length];
+        Toast.makeText(this, "Layout: " + stripLayoutType.getDisplayName(), Toast.LENGTH_SHORT).show();
+        createAndDisplayPhotoStrip();
+    }
+
     private void createAndDisplayPhotoStrip() {
-        Bitmap photoStrip = PhotoStripCreator.createPhotoStrip(capturedPhotos);
-        if (photoStrip != null) {
-            photoStripView.setImageBitmap(photoStrip);
-        } else {
-            Toast.makeText(this, "Error creating photo strip", Toast.LENGTH_SHORT).show();
+        cancelStripTask();
+        photoStripView.setImageDrawable(null);
+        stripProgressBar.setProgress(0);
+        stripProgressBar.setVisibility(ProgressBar.VISIBLE);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long tapNanos = lastCaptureTapNanos;
+
+        // Composition runs on a worker; the preview shows first and the full strip replaces it
+        stripTask = stripCompositor.compose(capturedPhotos.snapshot(), stripLayoutType, new StripCompositor.Callback() {
+            @Override
+            public void onPreview(Bitmap preview) {
+                if (photoStripView.getDrawable() == null) {
+                    photoStripView.setImageBitmap(preview);
+                    metrics.recordSince("capture.tap_to_preview", tapNanos);
+                }
+            }
+
+            @Override
+            public void onProgress(int percent) {
+                stripProgressBar.setProgress(percent);
+            }
+
+            @Override
+            public void onComplete(Bitmap photoStrip) {
+                stripProgressBar.setVisibility(ProgressBar.INVISIBLE);
+
+                // Display is measured up to the next frame that actually draws the strip
+                MetricsRegistry.Span displaySpan = metrics.startAsyncSpan("strip.display");
+                photoStripView.setImageBitmap(photoStrip);
+                photoStripView.getViewTreeObserver().addOnPreDrawListener(
+                        new android.view.ViewTreeObserver.OnPreDrawListener() {
+                            @Override
+                            public boolean onPreDraw() {
+                                photoStripView.getViewTreeObserver().removeOnPreDrawListener(this);
+                                displaySpan.end();
+                                metrics.recordSince("capture.tap_to_strip", tapNanos);
+                                return true;
+                            }
+                        });
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                stripProgressBar.setVisibility(ProgressBar.INVISIBLE);
+                Toast.makeText(VintagePhotoBoothActivity.this, errorMessage, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void cancelStripTask() {
+        if (stripTask != null) {
+            stripTask.cancel(true);
+            stripTask = null;
+        }
+        if (stripProgressBar != null) {
+            stripProgressBar.setVisibility(ProgressBar.INVISIBLE);
         }
     }
 
@@ -471,5 +689,31 @@ public class VintagePhotoBoothActivity extends AppCompatActivity implements
         if (cameraManager != null) {
             cameraManager.shutdown();
         }
+        cancelStripTask();
+        if (stripCompositor != null) {
+            stripCompositor.shutdown();
+        }
+        if (photoExportEngine != null) {
+            photoExportEngine.shutdown();
+        }
+        exportExecutor.shutdown();
+        if (sessionJournal != null) {
+            // Home or back ends the session; only a crash or kill leaves it to resume
+            if (isFinishing()) {
+                sessionJournal.complete();
+            }
+            sessionJournal.shutdown();
+        }
+        if (collaborationManager != null) {
+            collaborationManager.shutdown();
+        }
+        if (capturedPhotos != null) {
+            capturedPhotos.close();
+        }
+
+        // Debug builds leave a CSV behind so latency can be compared between builds
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            MetricsRegistry.getInstance().dumpToFile(this);
+        }
     }
 }
\ No newline at end of file
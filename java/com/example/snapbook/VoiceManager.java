@@ -1,51 +1,296 @@
 package com.example.snapbook;
 
 import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.SoundPool;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.speech.tts.Voice;
 import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Countdown phrases are synthesized once per locale/voice into WAV files under the
+// cache dir and played back through a SoundPool, so a countdown tick starts within
+// a frame instead of waiting on TTS warm-up and synthesis. Anything not cached yet
+// falls back to speaking live.
 public class VoiceManager implements TextToSpeech.OnInitListener {
 
     private static final String TAG = "VoiceManager";
+    private static final String CACHE_DIR = "voice_cache";
+    private static final Locale LOCALE = Locale.US;
+
+    private static final String PHRASE_GET_READY = "get_ready";
+    private static final String GET_READY_TEXT = "Get ready, darling!";
+    public static final int MAX_CACHED_COUNT = 10;
+
+    private static final long TICK_MS = 1000;
+    private static final long LEAD_IN_GAP_MS = 250;
+    private static final long DEFAULT_GET_READY_MS = 1500;
+    private static final int MAX_STREAMS = 2;
+
+    public interface CountdownListener {
+        void onTick(int secondsLeft);
+        void onFinished();
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object countdownToken = new Object();
+
     private TextToSpeech textToSpeech;
-    private boolean isReady = false;
-    private Context context;
+    private SoundPool soundPool;
+    private volatile boolean isReady = false;
+    private File cacheDir;
+
+    // Phrase id -> SoundPool id once loaded, and the WAV duration for scheduling
+    private final Map<String, Integer> pendingSounds = new ConcurrentHashMap<>();
+    private final Map<Integer, String> pendingPhrases = new ConcurrentHashMap<>();
+    private final Map<String, Integer> loadedSounds = new ConcurrentHashMap<>();
+    private final Map<String, Long> durationsMs = new ConcurrentHashMap<>();
 
     public VoiceManager(Context context) {
-        this.context = context;
+        // Engine and SoundPool are created on first use, not with the activity
+        this.context = context.getApplicationContext();
+    }
+
+    // Starts TTS and the phrase cache. Safe to call repeatedly; call it early
+    // (e.g. when the camera screen opens) so the first countdown is already cached.
+    public synchronized void prepare() {
+        if (textToSpeech != null) return;
+
+        soundPool = new SoundPool.Builder()
+                .setMaxStreams(MAX_STREAMS)
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                        .build())
+                .build();
+        soundPool.setOnLoadCompleteListener((pool, soundId, status) -> {
+            // Locked so a load that completes instantly still finds its pending entry
+            synchronized (VoiceManager.this) {
+                String phrase = pendingPhrases.remove(soundId);
+                if (phrase == null) return;
+                pendingSounds.remove(phrase);
+                if (status == 0) {
+                    loadedSounds.put(phrase, soundId);
+                } else {
+                    Log.e(TAG, "Failed to load cached phrase " + phrase);
+                }
+            }
+        });
+
         textToSpeech = new TextToSpeech(context, this);
     }
 
     @Override
-    public void onInit(int status) {
+    public synchronized void onInit(int status) {
+        // shutdown() may have run before the engine finished binding
+        if (textToSpeech == null) return;
+
         if (status == TextToSpeech.SUCCESS) {
-            textToSpeech.setLanguage(Locale.US);
+            textToSpeech.setLanguage(LOCALE);
             isReady = true;
             Log.d(TAG, "Text-to-Speech ready");
+            prepareCache();
         } else {
             Log.e(TAG, "Text-to-Speech initialization failed");
         }
     }
 
+    private synchronized void prepareCache() {
+        if (textToSpeech == null) return;
+
+        cacheDir = new File(new File(context.getCacheDir(), CACHE_DIR), cacheKey());
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            Log.e(TAG, "Could not create voice cache " + cacheDir);
+            return;
+        }
+
+        textToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                File temp = tempFileFor(utteranceId);
+                File target = fileFor(utteranceId);
+                // Only a completed synthesis is promoted, so a killed process never leaves a truncated clip
+                if (temp.renameTo(target)) {
+                    loadPhrase(utteranceId, target);
+                }
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                Log.e(TAG, "Failed to synthesize phrase " + utteranceId);
+                tempFileFor(utteranceId).delete();
+            }
+        });
+
+        MetricsRegistry.Span span = MetricsRegistry.getInstance().startSpan("voice.prepare_cache");
+        try {
+            cachePhrase(PHRASE_GET_READY, GET_READY_TEXT);
+            for (int count = 1; count <= MAX_CACHED_COUNT; count++) {
+                cachePhrase(countPhrase(count), count + "...");
+            }
+        } finally {
+            span.end();
+        }
+    }
+
+    private void cachePhrase(String phrase, String text) {
+        File file = fileFor(phrase);
+        if (file.length() > 0) {
+            loadPhrase(phrase, file);
+            return;
+        }
+        MetricsRegistry.getInstance().increment("voice.phrases_synthesized");
+        textToSpeech.synthesizeToFile(text, null, tempFileFor(phrase), phrase);
+    }
+
+    private synchronized void loadPhrase(String phrase, File file) {
+        if (soundPool == null || loadedSounds.containsKey(phrase) || pendingSounds.containsKey(phrase)) return;
+
+        durationsMs.put(phrase, readWavDurationMs(file));
+        int soundId = soundPool.load(file.getPath(), 1);
+        pendingSounds.put(phrase, soundId);
+        pendingPhrases.put(soundId, phrase);
+    }
+
+    // Engine, voice and locale all change what the audio sounds like
+    private String cacheKey() {
+        String voiceName = "default";
+        try {
+            Voice voice = textToSpeech.getVoice();
+            if (voice != null) voiceName = voice.getName();
+        } catch (Exception e) {
+            // Some engines throw before a voice is selected
+            Log.w(TAG, "Could not query TTS voice", e);
+        }
+        String key = textToSpeech.getDefaultEngine() + "_" + LOCALE.toLanguageTag() + "_" + voiceName;
+        return key.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private File fileFor(String phrase) {
+        return new File(cacheDir, phrase + ".wav");
+    }
+
+    private File tempFileFor(String phrase) {
+        return new File(cacheDir, phrase + ".wav.tmp");
+    }
+
+    private static String countPhrase(int count) {
+        return "count_" + count;
+    }
+
+    // TTS engines write canonical PCM WAV; the clip length lets the countdown
+    // start its first tick right after "get ready" finishes
+    private static long readWavDurationMs(File file) {
+        try (RandomAccessFile wav = new RandomAccessFile(file, "r")) {
+            wav.seek(22);
+            int channels = Short.reverseBytes(wav.readShort());
+            int sampleRate = Integer.reverseBytes(wav.readInt());
+            wav.seek(34);
+            int bitsPerSample = Short.reverseBytes(wav.readShort());
+            long bytesPerSecond = (long) sampleRate * channels * (bitsPerSample / 8);
+            if (bytesPerSecond <= 0) return -1;
+            return Math.max(0, file.length() - 44) * 1000 / bytesPerSecond;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public boolean isCountdownCached() {
+        if (!loadedSounds.containsKey(PHRASE_GET_READY)) return false;
+        for (int count = 1; count <= 3; count++) {
+            if (!loadedSounds.containsKey(countPhrase(count))) return false;
+        }
+        return true;
+    }
+
     public void speak(String text) {
+        prepare();
         if (isReady && textToSpeech != null) {
-            textToSpeech.speak(text, TextToSpeech.QUEUE_FLUSH, null);
+            textToSpeech.speak(text, TextToSpeech.QUEUE_FLUSH, null, null);
         }
     }
 
+    private boolean playCached(String phrase) {
+        Integer soundId = loadedSounds.get(phrase);
+        SoundPool pool = soundPool;
+        if (soundId == null || pool == null) return false;
+        return pool.play(soundId, 1f, 1f, 1, 0, 1f) != 0;
+    }
+
     public void playCountdown(int seconds) {
-        speak(seconds + "...");
+        prepare();
+        if (!playCached(countPhrase(seconds))) {
+            speak(seconds + "...");
+        }
     }
 
     public void playPhotoCaptureSounds() {
-        speak("Get ready, darling! Three... Two... One...");
+        startCountdown(3, null);
     }
 
-    public void shutdown() {
+    // Plays "get ready" then one tick per second down to 1, reporting each tick and
+    // the end on the main thread. Ticks are scheduled against absolute uptimes so
+    // a late tick does not push the rest back.
+    public void startCountdown(int seconds, CountdownListener listener) {
+        prepare();
+        cancelCountdown();
+
+        long start = SystemClock.uptimeMillis();
+        boolean cached = playCached(PHRASE_GET_READY);
+        if (!cached) {
+            speak(GET_READY_TEXT);
+        }
+
+        Long clipMs = durationsMs.get(PHRASE_GET_READY);
+        long leadIn = (cached && clipMs != null && clipMs > 0 ? clipMs : DEFAULT_GET_READY_MS) + LEAD_IN_GAP_MS;
+
+        for (int i = 0; i <= seconds; i++) {
+            final int secondsLeft = seconds - i;
+            final long scheduledAt = start + leadIn + i * TICK_MS;
+            mainHandler.postAtTime(() -> {
+                MetricsRegistry.getInstance().record("voice.tick_lateness", SystemClock.uptimeMillis() - scheduledAt);
+                if (secondsLeft > 0) {
+                    playCountdown(secondsLeft);
+                    if (listener != null) listener.onTick(secondsLeft);
+                } else if (listener != null) {
+                    listener.onFinished();
+                }
+            }, countdownToken, scheduledAt);
+        }
+    }
+
+    public void cancelCountdown() {
+        mainHandler.removeCallbacksAndMessages(countdownToken);
+    }
+
+    public synchronized void shutdown() {
+        cancelCountdown();
         if (textToSpeech != null) {
             textToSpeech.stop();
             textToSpeech.shutdown();
+            textToSpeech = null;
+        }
+        if (soundPool != null) {
+            soundPool.release();
+            soundPool = null;
         }
+        isReady = false;
+        pendingSounds.clear();
+        pendingPhrases.clear();
+        loadedSounds.clear();
     }
 }
\ No newline at end of file